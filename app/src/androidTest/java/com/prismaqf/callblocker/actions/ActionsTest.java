@@ -13,8 +13,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -72,6 +74,18 @@ public class ActionsTest {
         assertTrue("The two objects have the same hash",action1.hashCode()==action2.hashCode());
     }
 
+    @Test
+    public void testActionRegistryHasAllAnnotatedActions() throws ReflectiveOperationException {
+        Set<Class<?>> scanned = DexClassScanner.findSubClassesWithAnnotation(myCtx,
+                "com.prismaqf.callblocker.actions",
+                IAction.class,
+                AvailableAction.class);
+        Set<Class<?>> registered = new HashSet<>();
+        for (IAction action : ActionRegistry.getAvailableActions(myCtx))
+            registered.add(action.getClass());
+        assertEquals("The generated registry has the classes found in the apk", scanned, registered);
+    }
+
 
 
 }
@@ -0,0 +1,100 @@
+package com.prismaqf.callblocker.sql;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.prismaqf.callblocker.utils.DebugDBFileName;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class CallLogWriterTest {
+
+    @ClassRule
+    public static final DebugDBFileName myDebugDB = new DebugDBFileName();
+
+    private SQLiteDatabase myDb;
+    private Context myContext;
+
+    @Before
+    public void before() {
+        myContext = InstrumentationRegistry.getTargetContext();
+        myDb = new DbHelper(myContext, DbHelperTest.DB_NAME).getWritableDatabase();
+        myDb.delete(DbContract.ServiceRuns.TABLE_NAME,null,null);
+        myDb.delete(DbContract.LoggedCalls.TABLE_NAME,null,null);
+        myDb.delete(DbContract.NumberStats.TABLE_NAME,null,null);
+    }
+
+    @Test
+    public void TestBurstIsWrittenOnFlush() {
+        long runId = ServiceRunProvider.InsertAtServiceStart(myDb);
+        CallLogWriter writer = new CallLogWriter(myContext);
+        int calls = 3*CallLogWriter.MAX_BATCH + 5;
+        for (int i=1; i<=calls; i++)
+            assertTrue("The call is queued", writer.submit(runId, i % 2 == 0 ? "Drop" : null, "private", i, i/2));
+        assertTrue("The calls are flushed", writer.flush());
+        Cursor c = LoggedCallProvider.LatestCalls(myDb, -1);
+        assertEquals("All the calls are logged", calls, c.getCount());
+        c.close();
+        ServiceRunProvider.ServiceRun run = ServiceRunProvider.LatestRun(myDb);
+        assertEquals("The latest counter of calls received", calls, run.getNumReceived());
+        assertEquals("The latest counter of actions triggered", calls/2, run.getNumTriggered());
+        //the statistics written with the statements reused across the batches
+        c = CallStatsProvider.NumberStats(myDb, "private");
+        assertTrue("The caller is counted", c.moveToFirst());
+        assertEquals("Calls received", calls, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_RECEIVED)));
+        assertEquals("Actions triggered", calls/2, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_TRIGGERED)));
+        c.close();
+        writer.stop();
+    }
+
+    @Test
+    public void TestCallIsWrittenAfterTheDelay() throws Exception {
+        long runId = ServiceRunProvider.InsertAtServiceStart(myDb);
+        CallLogWriter writer = new CallLogWriter(myContext);
+        writer.submit(runId, null, "private", 1, 0);
+        Thread.sleep(4*CallLogWriter.MAX_DELAY_MS);
+        Cursor c = LoggedCallProvider.LatestCalls(myDb, -1);
+        assertEquals("The call is logged without a flush", 1, c.getCount());
+        c.close();
+        writer.stop();
+    }
+
+    @Test
+    public void TestWriterRestartsAfterStop() {
+        long runId = ServiceRunProvider.InsertAtServiceStart(myDb);
+        CallLogWriter writer = new CallLogWriter(myContext);
+        writer.submit(runId, null, "private", 1, 0);
+        writer.stop();
+        writer.submit(runId, null, "private", 2, 0);
+        assertTrue("The calls are flushed", writer.flush());
+        Cursor c = LoggedCallProvider.LatestCalls(myDb, -1);
+        assertEquals("Both calls are logged", 2, c.getCount());
+        c.close();
+        writer.stop();
+    }
+
+    @Test
+    public void TestWriterReopensTheSharedConnection() {
+        long runId = ServiceRunProvider.InsertAtServiceStart(myDb);
+        CallLogWriter writer = new CallLogWriter(myContext);
+        writer.submit(runId, null, "private", 1, 0);
+        assertTrue("The first call is flushed", writer.flush());
+        //e.g. a restore closes the shared connection
+        DbHelper.CloseShared();
+        writer.submit(runId, null, "private", 2, 0);
+        assertTrue("The second call is flushed", writer.flush());
+        Cursor c = LoggedCallProvider.LatestCalls(myDb, -1);
+        assertEquals("Both calls are logged", 2, c.getCount());
+        c.close();
+        writer.stop();
+    }
+}
@@ -2,12 +2,15 @@ package com.prismaqf.callblocker.sql;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
 
+import com.prismaqf.callblocker.filters.Filter;
 import com.prismaqf.callblocker.filters.FilterHandle;
+import com.prismaqf.callblocker.rules.Always;
 import com.prismaqf.callblocker.rules.CalendarRule;
 import com.prismaqf.callblocker.rules.FilterRule;
 
@@ -20,6 +23,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -43,11 +47,15 @@ public class DbHelperTest {
         myDb.delete(DbContract.FilterRules.TABLE_NAME,null,null);
         myDb.delete(DbContract.FilterPatterns.TABLE_NAME,null,null);
         myDb.delete(DbContract.Filters.TABLE_NAME,null,null);
+        myDb.delete(DbContract.NumberStats.TABLE_NAME,null,null);
+        myDb.delete(DbContract.HourStats.TABLE_NAME,null,null);
+        myDb.delete(DbContract.DayStats.TABLE_NAME,null,null);
+        myDb.delete(DbContract.ActionStats.TABLE_NAME,null,null);
     }
 
     @Test
     public void dbSmokeTest() {
-        assertEquals("DB version", 14, myDb.getVersion());
+        assertEquals("DB version", 18, myDb.getVersion());
     }
 
     @Test
@@ -299,6 +307,70 @@ public class DbHelperTest {
         assertFalse("The timestamp is not empty", ts.isEmpty());
     }
 
+    @Test
+    public void TestKeysetPagination() {
+        int calls = 120;
+        for (int i=1; i<=calls; i++)
+            LoggedCallProvider.InsertRow(myDb, new LoggedCallProvider.LoggedCall(15, i % 3 == 0 ? "dummy" : null, String.valueOf(i), "a dummy"));
+        //walk back from the latest call
+        List<LoggedCallProvider.LoggedCallRecord> all = new ArrayList<>();
+        long from = Long.MAX_VALUE;
+        while (true) {
+            List<LoggedCallProvider.LoggedCallRecord> page = LoggedCallProvider.CallsPage(myDb, from, true, false, 50);
+            all.addAll(page);
+            if (page.size() < 50) break;
+            from = page.get(page.size()-1).getId();
+        }
+        assertEquals("All the calls", calls, all.size());
+        for (int i=0; i<calls; i++)
+            assertEquals("Newest first, no gaps", String.valueOf(calls-i), all.get(i).getNumber());
+        //and forward from the oldest
+        List<LoggedCallProvider.LoggedCallRecord> newer = LoggedCallProvider.CallsPage(myDb, all.get(calls-1).getId(), false, false, 50);
+        assertEquals("A full page", 50, newer.size());
+        assertEquals("Newest first", all.get(calls-51).getId(), newer.get(0).getId());
+        assertEquals("Next to the oldest", all.get(calls-2).getId(), newer.get(49).getId());
+        assertNotNull("With time-stamp", newer.get(0).getTimestamp());
+        //only the triggered calls
+        List<LoggedCallProvider.LoggedCallRecord> triggered = LoggedCallProvider.CallsPage(myDb, Long.MAX_VALUE, true, true, 50);
+        assertEquals("Every third call", calls/3, triggered.size());
+        assertEquals("The latest triggered", "120", triggered.get(0).getNumber());
+        triggered = LoggedCallProvider.CallsPage(myDb, triggered.get(9).getId(), true, true, 5);
+        assertEquals("Next page of triggered", "90", triggered.get(0).getNumber());
+    }
+
+    @Test
+    public void TestCallStatisticsAreUpdatedWithTheLog() {
+        LoggedCallProvider.InsertRow(myDb, new LoggedCallProvider.LoggedCall(15, null, "123", "a dummy"));
+        LoggedCallProvider.InsertRow(myDb, new LoggedCallProvider.LoggedCall(15, "dummy", "123", "a dummy"));
+        LoggedCallProvider.InsertRow(myDb, new LoggedCallProvider.LoggedCall(15, "dummy", "321", "another dummy"));
+        Cursor c = CallStatsProvider.TopCallers(myDb, 1);
+        assertTrue("A top caller", c.moveToFirst());
+        assertEquals("The top caller", "123", c.getString(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_NUMBER)));
+        assertEquals("Received", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_RECEIVED)));
+        assertEquals("Triggered", 1, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_TRIGGERED)));
+        c.close();
+        c = CallStatsProvider.ActionCounts(myDb);
+        assertTrue("One action", c.moveToFirst());
+        assertEquals("Triggered by the action", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.ActionStats.COLUMN_NAME_TRIGGERED)));
+        c.close();
+        c = CallStatsProvider.DailyCounts(myDb, "0000-00-00", "9999-99-99");
+        assertTrue("Today", c.moveToFirst());
+        assertEquals("Received today", 3, c.getInt(c.getColumnIndexOrThrow(DbContract.DayStats.COLUMN_NAME_RECEIVED)));
+        assertEquals("Triggered today", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.DayStats.COLUMN_NAME_TRIGGERED)));
+        c.close();
+        //the rollups match the backfill from the log
+        c = CallStatsProvider.NumberStats(myDb, "321");
+        c.moveToFirst();
+        String lastSeen = c.getString(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_LAST_SEEN));
+        c.close();
+        CallStatsProvider.Rebuild(myDb);
+        c = CallStatsProvider.NumberStats(myDb, "321");
+        c.moveToFirst();
+        assertEquals("Same last seen", lastSeen, c.getString(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_LAST_SEEN)));
+        assertEquals("Same received", 1, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_RECEIVED)));
+        c.close();
+    }
+
     @Test
     public void InsertCalendarRule(){
         CalendarRuleProvider.InsertRow(myDb, new CalendarRule("first", CalendarRule.makeMask(9), 5, 45, 21, 12));
@@ -416,6 +488,61 @@ public class DbHelperTest {
         assertEquals("The two rules are equals after update", fr3, fr4);
     }
 
+    /**
+     * The rows written so far by the connection, read in a transaction so that
+     * the query runs on the connection writing (the reads can run on another)
+     */
+    private long totalChanges() {
+        myDb.beginTransaction();
+        try {
+            return DatabaseUtils.longForQuery(myDb, "SELECT total_changes()", null);
+        }
+        finally {
+            myDb.endTransaction();
+        }
+    }
+
+    @Test
+    public void TestUpdateFilterRuleOnlyTouchesChangedPatterns() {
+        FilterRule fr1 = new FilterRule("large","A large rule");
+        for (int i=0; i<50000; i++)
+            fr1.addPattern(String.format(Locale.US, "07%09d", i));
+        long changes = totalChanges();
+        long ruleid = FilterRuleProvider.InsertRow(myDb, fr1);
+        assertEquals("One row for the rule and one for each pattern", 50001, totalChanges() - changes);
+        assertEquals("All the patterns are stored", 50000,
+                     DatabaseUtils.longForQuery(myDb, "select count(*) from filterpatterns where ruleid = ?",
+                                                new String[]{String.valueOf(ruleid)}));
+        Cursor c = myDb.rawQuery("select _id from filterpatterns where pattern = ?", new String[]{"07000000001"});
+        assertTrue("The pattern is stored", c.moveToFirst());
+        long unchangedId = c.getLong(0);
+        c.close();
+        fr1.removePattern("07000000000");
+        fr1.addPattern("0800");
+        changes = totalChanges();
+        FilterRuleProvider.UpdateFilterRule(myDb, ruleid, fr1);
+        assertEquals("Only the rule and the two changed patterns are written", 3, totalChanges() - changes);
+        c = myDb.rawQuery("select _id from filterpatterns where pattern = ?", new String[]{"07000000001"});
+        assertTrue("The unchanged pattern is still stored", c.moveToFirst());
+        assertEquals("The unchanged pattern has not been rewritten", unchangedId, c.getLong(0));
+        c.close();
+        assertEquals("The rules are equal after the update", fr1, FilterRuleProvider.FindFilterRule(myDb, ruleid));
+    }
+
+    @Test
+    public void TestInsertFilterRuleIsAtomic() {
+        FilterRule fr1 = new FilterRule("first","The first rule");
+        fr1.addPattern("123");
+        FilterRuleProvider.InsertRow(myDb, fr1);
+        FilterRule fr2 = new FilterRule("first","Same name");
+        fr2.addPattern("456");
+        long ruleid = FilterRuleProvider.InsertRow(myDb, fr2);
+        assertTrue("An error occurred", ruleid < 0);
+        Cursor c = myDb.rawQuery("select * from filterpatterns", null);
+        assertEquals("No pattern left from the failed insertion", 1, c.getCount());
+        c.close();
+    }
+
     @Test
     public void TestDeleteFilterRuleByName() {
         FilterRule fr1 = new FilterRule("first","The first rule");
@@ -500,4 +627,89 @@ public class DbHelperTest {
         FilterHandle fh2 = FilterProvider.FindFilter(myDb, filterid);
         assertNull("Rule deleted and not found", fh2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void TestLoadAllCompiled() throws Exception {
+        CalendarRuleProvider.InsertRow(myDb, new CalendarRule("cal", CalendarRule.makeMask(9), 5, 45, 21, 12));
+        FilterRule fr1 = new FilterRule("rule1","The first rule");
+        fr1.addPattern("123");
+        fr1.addPattern("4*56");
+        FilterRule fr2 = new FilterRule("rule2","A rule without patterns");
+        FilterRuleProvider.InsertRow(myDb, fr1);
+        FilterRuleProvider.InsertRow(myDb, fr2);
+        FilterProvider.InsertRow(myDb, new FilterHandle("first", "cal", "rule1", ""));
+        FilterProvider.InsertRow(myDb, new FilterHandle("second", "", "rule2", null));
+        FilterProvider.InsertRow(myDb, new FilterHandle("broken", "missing", "rule1", null));
+        List<Filter> filters = FilterProvider.LoadAllCompiled(myContext, myDb);
+        assertEquals("The filter with a missing rule is skipped", 2, filters.size());
+        assertEquals("Name of first", "first", filters.get(0).getName());
+        assertEquals("Calendar of first", CalendarRuleProvider.FindCalendarRule(myDb, "cal"), filters.get(0).getCalendarRule());
+        assertEquals("Patterns of first", fr1, filters.get(0).getFilterRule());
+        assertEquals("Patterns of second", fr2, filters.get(1).getFilterRule());
+        assertTrue("No calendar means always", filters.get(1).getCalendarRule() instanceof Always);
+    }
+
+    @Test
+    public void TestChangesAreNotifiedByName() {
+        final List<String> changes = new ArrayList<>();
+        DbChangeNotifier.Listener listener = new DbChangeNotifier.Listener() {
+            @Override
+            public void onFilterChanged(String name) {
+                changes.add("filter " + name);
+            }
+
+            @Override
+            public void onFilterRuleChanged(String name) {
+                changes.add("rule " + name);
+            }
+
+            @Override
+            public void onCalendarRuleChanged(String name) {
+                changes.add("calendar " + name);
+            }
+        };
+        DbChangeNotifier.Register(listener);
+        try {
+            long calId = CalendarRuleProvider.InsertRow(myDb, new CalendarRule("cal", CalendarRule.makeMask(9), 5, 45, 21, 12));
+            FilterRule fr = new FilterRule("rule1","The first rule");
+            fr.addPattern("123");
+            long ruleId = FilterRuleProvider.InsertRow(myDb, fr);
+            assertEquals("A rule with the same name is not inserted", -1, FilterRuleProvider.InsertRow(myDb, fr));
+            FilterProvider.InsertRow(myDb, new FilterHandle("first", "cal", "rule1", null));
+            fr.setName("renamed");
+            FilterRuleProvider.UpdateFilterRule(myDb, ruleId, fr);
+            CalendarRuleProvider.DeleteCalendarRule(myDb, calId);
+            FilterRuleProvider.DeleteFilterRule(myDb, ruleId);
+        }
+        finally {
+            DbChangeNotifier.Unregister(listener);
+        }
+        String[] expected = {"calendar cal", "rule rule1", "filter first", "rule rule1", "rule renamed", "calendar cal", "rule renamed"};
+        assertArrayEquals("The changes by name", expected, changes.toArray(new String[changes.size()]));
+    }
+
+    @Test
+    public void TestLoadRulesByName() {
+        CalendarRuleProvider.InsertRow(myDb, new CalendarRule("cal1", CalendarRule.makeMask(9), 5, 45, 21, 12));
+        CalendarRuleProvider.InsertRow(myDb, new CalendarRule("cal2", CalendarRule.makeMask(3), 6, 0, 22, 0));
+        FilterRule fr1 = new FilterRule("rule1","The first rule");
+        fr1.addPattern("123");
+        fr1.addPattern("4*56");
+        FilterRule fr2 = new FilterRule("rule2","A rule without patterns");
+        FilterRuleProvider.InsertRow(myDb, fr1);
+        FilterRuleProvider.InsertRow(myDb, fr2);
+        List<String> names = new ArrayList<>();
+        names.add("rule1");
+        names.add("rule2");
+        names.add("missing");
+        Map<String, FilterRule> rules = FilterRuleProvider.LoadFilterRules(myDb, names);
+        assertEquals("Only the rules found", 2, rules.size());
+        assertEquals("Patterns of rule1", fr1, rules.get("rule1"));
+        assertEquals("Patterns of rule2", fr2, rules.get("rule2"));
+        names.clear();
+        names.add("cal2");
+        Map<String, CalendarRule> calendars = CalendarRuleProvider.LoadCalendarRules(myDb, names);
+        assertEquals("Only the rule asked", 1, calendars.size());
+        assertEquals("Calendar rule cal2", CalendarRuleProvider.FindCalendarRule(myDb, "cal2"), calendars.get("cal2"));
+    }
+}
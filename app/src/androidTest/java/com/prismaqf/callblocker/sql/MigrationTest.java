@@ -0,0 +1,228 @@
+package com.prismaqf.callblocker.sql;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String UPGRADE_DB = "upgradeTest.db";
+    //the schema of v.14, the last one without migration steps (no secondary indexes)
+    private static final String[] V14_TABLES = {
+            "CREATE TABLE serviceruns (_id INTEGER PRIMARY KEY NOT NULL, start TEXT NOT NULL, stop TEXT, " +
+            "totaldreceived INTEGER, totaltriggered INTEGER)",
+            "CREATE TABLE loggedcalls (_id INTEGER PRIMARY KEY NOT NULL, runid INTEGER NOT NULL, " +
+            "timestamp TEXT DEFAULT (DATETIME('now','localtime')), number TEXT NOT NULL, description TEXT, action TEXT)",
+            "CREATE TABLE calendarrules (_id INTEGER PRIMARY KEY NOT NULL, name TEXT UNIQUE NOT NULL, daymask INTEGER NOT NULL, " +
+            "fromTime TEXT NOT NULL, toTime TEXT NOT NULL, format TEXT NOT NULL, timestamp TEXT DEFAULT (DATETIME('now','localtime')))",
+            "CREATE TABLE filterrules (_id INTEGER PRIMARY KEY NOT NULL, name TEXT UNIQUE NOT NULL, description TEXT, " +
+            "timestamp TEXT DEFAULT (DATETIME('now','localtime')))",
+            "CREATE TABLE filterpatterns (_id INTEGER PRIMARY KEY NOT NULL, ruleid INTEGER NOT NULL, pattern TEXT NOT NULL, " +
+            "timestamp TEXT DEFAULT (DATETIME('now','localtime')))",
+            "CREATE TABLE filters (_id INTEGER PRIMARY KEY NOT NULL, name TEXT UNIQUE NOT NULL, calendarrulename TEXT, " +
+            "filterrulename TEXT, actionname TEXT, timestamp TEXT DEFAULT (DATETIME('now','localtime')))"
+    };
+
+    private SQLiteDatabase myDb;
+
+    @Before
+    public void before() {
+        myDb = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void after() {
+        myDb.close();
+    }
+
+    private static List<String> indexes(SQLiteDatabase db) {
+        List<String> names = new ArrayList<>();
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'", null);
+        try {
+            while (c.moveToNext())
+                names.add(c.getString(0));
+        }
+        finally {
+            c.close();
+        }
+        return names;
+    }
+
+    @Test
+    public void TestUpgradeFromV14() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(UPGRADE_DB);
+        DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
+        String start = format.format(new Date(1000000000000L));
+        String stop = format.format(new Date(1000000360000L));
+        SQLiteDatabase old = context.openOrCreateDatabase(UPGRADE_DB, Context.MODE_PRIVATE, null);
+        try {
+            for (String sql : V14_TABLES)
+                old.execSQL(sql);
+            old.execSQL("INSERT INTO serviceruns (start, stop, totaldreceived, totaltriggered) VALUES (?, ?, 3, 2)", new Object[]{start, stop});
+            old.execSQL("INSERT INTO serviceruns (start, stop, totaldreceived, totaltriggered) VALUES (?, 'running', 1, 0)", new Object[]{start});
+            String sql = "INSERT INTO loggedcalls (runid, timestamp, number, action) VALUES (?, ?, ?, ?)";
+            old.execSQL(sql, new Object[]{1, "2016-01-01 10:05:00", "123", null});
+            old.execSQL(sql, new Object[]{1, "2016-01-01 10:55:00", "123", "Drop"});
+            old.execSQL(sql, new Object[]{1, "2016-01-02 09:00:00", "123", "Drop"});
+            old.execSQL(sql, new Object[]{2, "2016-01-03 11:00:00", "456", null});
+            old.execSQL("INSERT INTO calendarrules (name, daymask, fromTime, toTime, format) VALUES ('nights', 127, '22:00', '06:00', 'HH:mm')");
+            old.execSQL("INSERT INTO filterrules (name, description) VALUES ('spam', 'Spam numbers')");
+            old.execSQL("INSERT INTO filterpatterns (ruleid, pattern) VALUES (1, '0800*')");
+            old.execSQL("INSERT INTO filters (name, calendarrulename, filterrulename, actionname) VALUES ('spam at night', 'nights', 'spam', 'Drop')");
+            old.setVersion(14);
+        }
+        finally {
+            old.close();
+        }
+        //the real upgrade path, through SQLiteOpenHelper.onUpgrade
+        DbHelper helper = new DbHelper(context, UPGRADE_DB);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals("The current version", 18, db.getVersion());
+            List<String> names = indexes(db);
+            assertTrue("Index of the purge of the runs", names.contains(DbContract.ServiceRuns.INDEX_STOP_MS));
+            assertTrue("Index of the calls of a run", names.contains(DbContract.LoggedCalls.INDEX_RUNID));
+            assertTrue("Index of the patterns of a rule", names.contains(DbContract.FilterPatterns.INDEX_RULEID));
+            assertTrue("Index of the top callers", names.contains(DbContract.NumberStats.INDEX_RECEIVED));
+            assertTrue("Index of the triggered calls", DbHelper.SupportsPartialIndexes(db) ?
+                       names.contains(DbContract.LoggedCalls.INDEX_TRIGGERED) && !names.contains(DbContract.LoggedCalls.INDEX_ACTION) :
+                       names.contains(DbContract.LoggedCalls.INDEX_ACTION));
+            Cursor c = db.rawQuery("SELECT startms, stopms FROM serviceruns ORDER BY _id", null);
+            try {
+                assertTrue("The runs are kept", c.moveToFirst());
+                assertEquals("Start of the completed run", format.parse(start).getTime(), c.getLong(0));
+                assertEquals("Stop of the completed run", format.parse(stop).getTime(), c.getLong(1));
+                assertTrue("The running run", c.moveToNext());
+                assertTrue("No stop while running", c.isNull(1));
+            }
+            finally {
+                c.close();
+            }
+            assertEquals("The calls are kept", 4, DatabaseUtils.queryNumEntries(db, DbContract.LoggedCalls.TABLE_NAME));
+            assertEquals("Statistics backfilled from the log", 3,
+                         DatabaseUtils.longForQuery(db, "SELECT received FROM numberstats WHERE number = '123'", null));
+            assertEquals("The filters are kept", 1, DatabaseUtils.queryNumEntries(db, DbContract.Filters.TABLE_NAME));
+            assertEquals("The patterns are kept", 1, DatabaseUtils.queryNumEntries(db, DbContract.FilterPatterns.TABLE_NAME));
+        }
+        finally {
+            helper.close();
+            context.deleteDatabase(UPGRADE_DB);
+        }
+    }
+
+    @Test
+    public void TestRebuildKeepsTheCommonColumns() {
+        //an old loggedcalls table without the action column
+        myDb.execSQL("CREATE TABLE loggedcalls (_id INTEGER PRIMARY KEY NOT NULL, runid INTEGER NOT NULL, " +
+                     "timestamp TEXT, number TEXT NOT NULL, description TEXT, obsolete TEXT)");
+        int rows = 3*Migration.CHUNK_ROWS + 17;
+        myDb.beginTransaction();
+        for (int i=1; i<=rows; i++)
+            myDb.execSQL("INSERT INTO loggedcalls (runid, timestamp, number, obsolete) VALUES (?, '2016-01-01 10:00:00', ?, 'x')",
+                         new Object[]{i % 7, String.valueOf(i)});
+        myDb.setTransactionSuccessful();
+        myDb.endTransaction();
+        Migration.rebuildTable(myDb, DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.SQL_CREATE_TABLE);
+        List<String> cols = Migration.columns(myDb, DbContract.LoggedCalls.TABLE_NAME);
+        assertTrue("The new column is there", cols.contains(DbContract.LoggedCalls.COLUMN_NAME_ACTION));
+        assertFalse("The obsolete column is gone", cols.contains("obsolete"));
+        Cursor c = myDb.rawQuery("SELECT COUNT(*), MAX(_id) FROM loggedcalls", null);
+        c.moveToFirst();
+        assertEquals("All the rows are copied", rows, c.getInt(0));
+        assertEquals("The ids are preserved", rows, c.getInt(1));
+        c.close();
+        assertTrue("The old table is dropped", Migration.columns(myDb, "loggedcalls_old").isEmpty());
+    }
+
+    @Test
+    public void TestRebuildCreatesMissingTables() {
+        Migration.rebuildTable(myDb, DbContract.Filters.TABLE_NAME, DbContract.Filters.SQL_CREATE_TABLE);
+        assertFalse("The table is created", Migration.columns(myDb, DbContract.Filters.TABLE_NAME).isEmpty());
+    }
+
+    @Test
+    public void TestAddColumnIsIdempotent() {
+        myDb.execSQL(DbContract.FilterRules.SQL_CREATE_TABLE);
+        Migration.addColumn(myDb, DbContract.FilterRules.TABLE_NAME, "extra", "INTEGER");
+        Migration.addColumn(myDb, DbContract.FilterRules.TABLE_NAME, "extra", "INTEGER");
+        assertTrue("The column is added", Migration.columns(myDb, DbContract.FilterRules.TABLE_NAME).contains("extra"));
+    }
+
+    @Test
+    public void TestEpochTimesAreFilled() throws Exception {
+        //a serviceruns table of v.15, with the times as text only
+        myDb.execSQL("CREATE TABLE serviceruns (_id INTEGER PRIMARY KEY NOT NULL, start TEXT NOT NULL, stop TEXT, " +
+                     "totaldreceived INTEGER, totaltriggered INTEGER)");
+        DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
+        String start = format.format(new Date(1000000000000L));
+        String stop = format.format(new Date(1000000360000L));
+        myDb.execSQL("INSERT INTO serviceruns (start, stop, totaldreceived, totaltriggered) VALUES (?, ?, 1, 0)", new Object[]{start, stop});
+        myDb.execSQL("INSERT INTO serviceruns (start, stop, totaldreceived, totaltriggered) VALUES (?, 'running', 1, 0)", new Object[]{start});
+        Migration.addColumn(myDb, DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.COLUMN_NAME_START_MS, "INTEGER");
+        Migration.addColumn(myDb, DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.COLUMN_NAME_STOP_MS, "INTEGER");
+        ServiceRunProvider.FillEpochTimes(myDb);
+        Cursor c = myDb.rawQuery("SELECT startms, stopms FROM serviceruns ORDER BY _id", null);
+        c.moveToFirst();
+        //the text format has a resolution of one second
+        assertEquals("Start of the completed run", format.parse(start).getTime(), c.getLong(0));
+        assertEquals("Stop of the completed run", format.parse(stop).getTime(), c.getLong(1));
+        c.moveToNext();
+        assertEquals("Start of the running run", format.parse(start).getTime(), c.getLong(0));
+        assertTrue("No stop while running", c.isNull(1));
+        c.close();
+    }
+
+    @Test
+    public void TestCallStatisticsAreBackfilled() {
+        myDb.execSQL(DbContract.LoggedCalls.SQL_CREATE_TABLE);
+        myDb.execSQL(DbContract.NumberStats.SQL_CREATE_TABLE);
+        myDb.execSQL(DbContract.HourStats.SQL_CREATE_TABLE);
+        myDb.execSQL(DbContract.DayStats.SQL_CREATE_TABLE);
+        myDb.execSQL(DbContract.ActionStats.SQL_CREATE_TABLE);
+        String sql = "INSERT INTO loggedcalls (runid, timestamp, number, action) VALUES (1, ?, ?, ?)";
+        myDb.execSQL(sql, new Object[]{"2016-01-01 10:05:00", "123", null});
+        myDb.execSQL(sql, new Object[]{"2016-01-01 10:55:00", "123", "Drop"});
+        myDb.execSQL(sql, new Object[]{"2016-01-01 11:00:00", "456", null});
+        myDb.execSQL(sql, new Object[]{"2016-01-02 09:00:00", "123", "Drop"});
+        CallStatsProvider.Rebuild(myDb);
+        Cursor c = CallStatsProvider.NumberStats(myDb, "123");
+        assertTrue("The number has statistics", c.moveToFirst());
+        assertEquals("Received", 3, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_RECEIVED)));
+        assertEquals("Triggered", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_TRIGGERED)));
+        assertEquals("First seen", "2016-01-01 10:05:00", c.getString(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_FIRST_SEEN)));
+        assertEquals("Last seen", "2016-01-02 09:00:00", c.getString(c.getColumnIndexOrThrow(DbContract.NumberStats.COLUMN_NAME_LAST_SEEN)));
+        c.close();
+        c = CallStatsProvider.HourlyCounts(myDb, "2016-01-01 00:00", "2016-01-01 23:00");
+        assertEquals("Two hours", 2, c.getCount());
+        c.moveToFirst();
+        assertEquals("First hour", "2016-01-01 10:00", c.getString(c.getColumnIndexOrThrow(DbContract.HourStats.COLUMN_NAME_PERIOD)));
+        assertEquals("Received in the first hour", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.HourStats.COLUMN_NAME_RECEIVED)));
+        c.close();
+        c = CallStatsProvider.DailyCounts(myDb, "2016-01-01", "2016-12-31");
+        assertEquals("Two days", 2, c.getCount());
+        c.close();
+        c = CallStatsProvider.ActionCounts(myDb);
+        assertTrue("One action", c.moveToFirst());
+        assertEquals("Triggered by the action", 2, c.getInt(c.getColumnIndexOrThrow(DbContract.ActionStats.COLUMN_NAME_TRIGGERED)));
+        c.close();
+    }
+}
@@ -0,0 +1,159 @@
+package com.prismaqf.callblocker.sql;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the queries of the providers do not scan the tables
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private SQLiteDatabase myDb;
+
+    @Before
+    public void before() {
+        //in memory DB created with the current schema
+        myDb = new DbHelper(InstrumentationRegistry.getTargetContext(), null).getWritableDatabase();
+    }
+
+    @After
+    public void after() {
+        myDb.close();
+    }
+
+    private List<String> plan(String sql, String... args) {
+        List<String> details = new ArrayList<>();
+        Cursor c = myDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext())
+                details.add(c.getString(detail));
+        }
+        finally {
+            c.close();
+        }
+        return details;
+    }
+
+    private void assertUsesIndex(String index, String sql, String... args) {
+        List<String> details = plan(sql, args);
+        boolean found = false;
+        for (String d : details) {
+            assertFalse(String.format("Full scan in %s: %s", sql, details), d.startsWith("SCAN") && !d.contains("USING"));
+            if (d.contains(index)) found = true;
+        }
+        assertTrue(String.format("Index %s not used in %s: %s", index, sql, details), found);
+    }
+
+    private void assertRowidOrder(String sql, String... args) {
+        List<String> details = plan(sql, args);
+        for (String d : details)
+            assertFalse(String.format("Sort in %s: %s", sql, details), d.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void TestIndexesAreCreated() {
+        List<String> indexes = new ArrayList<>();
+        Cursor c = myDb.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'", null);
+        while (c.moveToNext()) indexes.add(c.getString(0));
+        c.close();
+        assertTrue(indexes.contains(DbContract.ServiceRuns.INDEX_STOP_MS));
+        assertTrue(indexes.contains(DbContract.LoggedCalls.INDEX_RUNID));
+        if (DbHelper.SupportsPartialIndexes(myDb)) {
+            assertTrue(indexes.contains(DbContract.LoggedCalls.INDEX_TRIGGERED));
+            assertFalse(indexes.contains(DbContract.LoggedCalls.INDEX_ACTION));
+        }
+        else
+            assertTrue(indexes.contains(DbContract.LoggedCalls.INDEX_ACTION));
+        assertTrue(indexes.contains(DbContract.FilterPatterns.INDEX_RULEID));
+        assertTrue(indexes.contains(DbContract.Filters.INDEX_FILTERRULENAME));
+        assertTrue(indexes.contains(DbContract.Filters.INDEX_CALENDARRULENAME));
+        assertTrue(indexes.contains(DbContract.NumberStats.INDEX_RECEIVED));
+    }
+
+    @Test
+    public void TestFilterPatternQueries() {
+        String index = DbContract.FilterPatterns.INDEX_RULEID;
+        assertUsesIndex(index, "SELECT * FROM filterpatterns WHERE ruleid = ?", "1");
+        assertUsesIndex(index, "SELECT pattern FROM filterpatterns WHERE ruleid = ?", "1");
+        assertUsesIndex(index, "DELETE FROM filterpatterns WHERE ruleid = ?", "1");
+        assertUsesIndex(index, "DELETE FROM filterpatterns WHERE ruleid = ? AND pattern = ?", "1", "123");
+        assertTrue("Covering index", plan("SELECT pattern FROM filterpatterns WHERE ruleid = ?", "1").toString().contains("COVERING"));
+    }
+
+    @Test
+    public void TestLoggedCallQueries() {
+        assertUsesIndex(DbContract.LoggedCalls.INDEX_RUNID, "DELETE FROM loggedcalls WHERE runid = ?", "1");
+        assertRowidOrder("SELECT * FROM loggedcalls ORDER BY _id desc LIMIT 10");
+        //the pages
+        String older = LoggedCallProvider.SqlCallsPage(true, false, 50);
+        String newer = LoggedCallProvider.SqlCallsPage(false, false, 50);
+        assertUsesIndex("INTEGER PRIMARY KEY", older, "1000");
+        assertRowidOrder(older, "1000");
+        assertRowidOrder(newer, "1000");
+    }
+
+    @Test
+    public void TestTriggeredCallQueries() {
+        assumeTrue("Partial indexes supported", DbHelper.SupportsPartialIndexes(myDb));
+        String index = DbContract.LoggedCalls.INDEX_TRIGGERED;
+        String latest = LoggedCallProvider.SqlLatestTriggered(10, true);
+        assertUsesIndex(index, latest);
+        assertRowidOrder(latest);
+        //the pages, without sorting the calls below the key
+        String older = LoggedCallProvider.SqlCallsPage(true, true, 50);
+        String newer = LoggedCallProvider.SqlCallsPage(false, true, 50);
+        assertUsesIndex(index, older, "1000");
+        assertRowidOrder(older, "1000");
+        assertUsesIndex(index, newer, "1000");
+        assertRowidOrder(newer, "1000");
+    }
+
+    @Test
+    public void TestServiceRunQueries() {
+        assertRowidOrder("SELECT * FROM serviceruns ORDER BY _id desc LIMIT 1");
+        assertRowidOrder("SELECT * FROM serviceruns WHERE stop <> ? ORDER BY _id desc LIMIT 1", "running");
+        //the purge
+        assertUsesIndex(DbContract.ServiceRuns.INDEX_STOP_MS, ServiceRunProvider.SQL_PURGE_RUNS, "0");
+        assertUsesIndex(DbContract.ServiceRuns.INDEX_STOP_MS, ServiceRunProvider.SQL_PURGE_CALLS, "0");
+        assertUsesIndex(DbContract.LoggedCalls.INDEX_RUNID, ServiceRunProvider.SQL_PURGE_CALLS, "0");
+    }
+
+    @Test
+    public void TestFilterQueries() {
+        assertUsesIndex(DbContract.Filters.INDEX_CALENDARRULENAME, "SELECT * FROM filters WHERE calendarrulename = ?", "cal");
+        assertUsesIndex(DbContract.Filters.INDEX_FILTERRULENAME, "SELECT * FROM filters WHERE filterrulename = ?", "fil");
+        //either of the rule name indexes will do
+        assertUsesIndex(DbContract.Filters.TABLE_NAME + "_",
+                        "SELECT * FROM filters WHERE filterrulename = ? AND calendarrulename = ? AND actionname = ?", "fil", "cal", "act");
+        assertUsesIndex("sqlite_autoindex_filters", "SELECT _id FROM filters WHERE name = ?", "name");
+        assertUsesIndex("sqlite_autoindex_filterrules", "SELECT _id FROM filterrules WHERE name = ?", "name");
+        assertUsesIndex("sqlite_autoindex_calendarrules", "SELECT * FROM calendarrules WHERE name = ?", "name");
+    }
+
+    @Test
+    public void TestCallStatsQueries() {
+        assertUsesIndex(DbContract.NumberStats.INDEX_RECEIVED, CallStatsProvider.SqlTopCallers(10));
+        assertUsesIndex("sqlite_autoindex_numberstats", CallStatsProvider.SQL_COUNT_NUMBER, "1", "1", "123");
+        String days = CallStatsProvider.SqlPeriodCounts(DbContract.DayStats.TABLE_NAME);
+        assertUsesIndex("sqlite_autoindex_daystats", days, "a", "b");
+        assertRowidOrder(days, "a", "b");
+        assertUsesIndex("sqlite_autoindex_hourstats",
+                        CallStatsProvider.SqlCountPeriod(DbContract.HourStats.TABLE_NAME, DbContract.HourStats.PERIOD_FORMAT), "1", "1");
+        assertUsesIndex("sqlite_autoindex_actionstats", CallStatsProvider.SQL_COUNT_ACTION, "a");
+    }
+}
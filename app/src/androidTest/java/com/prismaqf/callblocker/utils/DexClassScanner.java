@@ -17,7 +17,8 @@ import dalvik.system.DexFile;
 /**
  * This utility class replaces org.reflections that is not working
  * properly for Android. This is because of the DexClassLoader
- * behaving differently from the system class loader
+ * behaving differently from the system class loader. It is used by the tests
+ * to check the registry of the actions generated at build time
  * @author ConteDiMonteCristo
  * @see 'http://stackoverflow.com/questions/11421085/implementing-spring-like-package-scanning-in-android'
  */
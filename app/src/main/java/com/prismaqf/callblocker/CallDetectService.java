@@ -55,6 +55,8 @@ import android.util.Log;
         new Thread(new Runnable() {
             @Override
             public void run() {
+                //a run stopped just before is recorded first
+                myCallHelper.awaitServiceStop();
                 synchronized (myCallHelper) {
                     myCallHelper.recordServiceStart(ctx);
                 }
@@ -87,8 +89,9 @@ import android.util.Log;
                 }
             }
         }).start();*/
-        myCallHelper.recordServiceStop(this);
         myCallHelper.stop(this);
+        //in the background, after the calls received before the stop
+        myCallHelper.recordServiceStop(this);
         super.onDestroy();
     }
 
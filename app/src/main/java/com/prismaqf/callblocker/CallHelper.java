@@ -6,9 +6,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
 import android.os.AsyncTask;
-import android.provider.ContactsContract;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
@@ -16,16 +14,34 @@ import android.widget.Toast;
 
 import com.prismaqf.callblocker.actions.LogIncoming;
 import com.prismaqf.callblocker.actions.LogInfo;
+import com.prismaqf.callblocker.filters.DecisionCache;
+import com.prismaqf.callblocker.filters.EngineSnapshot;
 import com.prismaqf.callblocker.filters.Filter;
-import com.prismaqf.callblocker.filters.FilterHandle;
+import com.prismaqf.callblocker.filters.FilterCompiler;
+import com.prismaqf.callblocker.filters.FilterIndex;
+import com.prismaqf.callblocker.sql.CallLogWriter;
+import com.prismaqf.callblocker.sql.DbChangeNotifier;
+import com.prismaqf.callblocker.sql.DbContract;
 import com.prismaqf.callblocker.sql.DbHelper;
+import com.prismaqf.callblocker.sql.DbLatency;
 import com.prismaqf.callblocker.sql.FilterProvider;
+import com.prismaqf.callblocker.sql.LoggedCallProvider;
 import com.prismaqf.callblocker.sql.ServiceRunProvider;
+import com.prismaqf.callblocker.utils.ContactCache;
 import com.prismaqf.callblocker.utils.PreferenceHelper;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Helper class to detect incoming and outgoing calls
@@ -35,13 +51,19 @@ import java.util.Locale;
 public class CallHelper {
 
     private static final String TAG = CallHelper.class.getCanonicalName();
+    private static final int PREWARM_CALLS = 100;
+    private static final String SNAPSHOT = "filters.snapshot";
+    //the drain of the ring path and the flush of the log, with some margin
+    private static final long STOP_WAIT_MS = 30000;
 
     private static CallHelper theHelper = null;
     private static boolean isRunning = false;
 
     private TelephonyManager tm;
     private CallStateListener callListener;
+    private final RingPath ringPath = new RingPath();
     private OutgoingReceiver outgoingReceiver;
+    private TimeZoneReceiver timeZoneReceiver;
 
     private synchronized void setNumReceived(int numReceived) {
         this.numReceived = numReceived;
@@ -62,7 +84,13 @@ public class CallHelper {
     private int numReceived;
     private int numTriggered;
     private long myRunId;
-    private List<Filter> myFilters = new ArrayList<>();
+    private Thread[] myStoppingThreads = new Thread[0];
+    private volatile CountDownLatch myStopRecorded = new CountDownLatch(0);
+    private volatile FilterIndex myFilters = FilterIndex.empty();
+    private FilterCompiler myCompiler;
+    private FilterChangeListener myChangeListener;
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+    private final DecisionCache myDecisions = new DecisionCache(DecisionCache.DEFAULT_CAPACITY);
 
     /**
      * Method to return the only intance of CallHelper (singleton)
@@ -81,7 +109,8 @@ public class CallHelper {
 
 
     /**
-     * Listener to detect incoming calls
+     * Listener to detect incoming calls. It is created on the ring thread, where its
+     * callbacks run: the call is dropped there and the rest is deferred
      */
     private class CallStateListener extends PhoneStateListener {
 
@@ -96,28 +125,51 @@ public class CallHelper {
         public void onCallStateChanged(int state, final String incomingNumber) {
             switch (state) {
                 case TelephonyManager.CALL_STATE_RINGING: //someone is ringing to this phone
-                    LogInfo info = new LogInfo();
+                    final long ringing = System.nanoTime();
+                    final LogInfo info = new LogInfo();
                     info.setAll(myRunId,numReceived+1, numTriggered, null);
-                    boolean logging = false;
-                    for (Filter f : myFilters) {
-                        f.act(ctx,incomingNumber,info);
-                        if (f.getAction().getName().equals(LogIncoming.class.getCanonicalName()))
-                            logging = true;
+                    //the generation first, so that a decision is never kept for newer filters,
+                    //and a decision is only reused with the index it was taken with
+                    long generation = DecisionCache.Generation();
+                    final FilterIndex index = myFilters;
+                    long now = System.currentTimeMillis();
+                    BitSet decision = myDecisions.get(incomingNumber, index, generation, now);
+                    if (decision == null) {
+                        decision = index.match(incomingNumber, now);
+                        myDecisions.put(incomingNumber, index, generation, decision, index.validUntil(now));
                     }
+                    final BitSet fired = decision;
+                    //first the actions dropping the call
+                    for (int i = fired.nextSetBit(0); i >= 0; i = fired.nextSetBit(i+1))
+                        if (!index.isDeferred(i)) index.getFilter(i).fire(ctx,incomingNumber,info);
+                    final long handled = System.nanoTime();
                     setNumReceived(info.getNumReceived());
-                    setNumTriggered(info.getNumTriggered());
-                    Intent intent = new Intent();
-                    intent.setAction(ctx.getString(R.string.ac_call));
-                    intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-                    intent.putExtra(ctx.getString(R.string.ky_number_called), incomingNumber);
-                    intent.putExtra(ctx.getString(R.string.ky_received),getNumReceived());
-                    intent.putExtra(ctx.getString(R.string.ky_triggered), getNumTriggered());
-                    ctx.sendBroadcast(intent);
-                    if (PreferenceHelper.GetToastVerbosity(ctx) > 0)
-                        Toast.makeText(ctx, "Incoming: " + incomingNumber, Toast.LENGTH_LONG).show();
-                    if (!logging) {
-                        new LogIncoming().act(ctx,incomingNumber,info);
-                    }
+                    setNumTriggered(numTriggered + fired.cardinality());
+                    ringPath.defer(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = fired.nextSetBit(0); i >= 0; i = fired.nextSetBit(i+1))
+                                if (index.isDeferred(i)) index.getFilter(i).fire(ctx,incomingNumber,info);
+                            Intent intent = new Intent();
+                            intent.setAction(ctx.getString(R.string.ac_call));
+                            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
+                            intent.putExtra(ctx.getString(R.string.ky_number_called), incomingNumber);
+                            intent.putExtra(ctx.getString(R.string.ky_received), info.getNumReceived());
+                            intent.putExtra(ctx.getString(R.string.ky_triggered), info.getNumTriggered());
+                            ctx.sendBroadcast(intent);
+                            if (PreferenceHelper.GetToastVerbosity(ctx) > 0) {
+                                ringPath.toMain(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        Toast.makeText(ctx, "Incoming: " + incomingNumber, Toast.LENGTH_LONG).show();
+                                    }
+                                });
+                            }
+                            if (!index.isLogging())
+                                new LogIncoming().act(ctx,incomingNumber,info);
+                            Log.i(TAG, String.format(Locale.getDefault(), "Call handled in %.2f ms", (handled - ringing)/1e6));
+                        }
+                    });
                     break;
             }
         }
@@ -138,46 +190,112 @@ public class CallHelper {
         }
     }
 
+    /**
+     * Broadcast receiver to drop the cached decisions when the time zone changes,
+     * as their validity was computed in the old zone
+     */
+    public class TimeZoneReceiver extends BroadcastReceiver {
+
+        public TimeZoneReceiver() {}
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.i(TAG, "The time zone changed");
+            DecisionCache.Bump();
+        }
+    }
+
+    /**
+     * Builds the filter index in the background and publishes it on the main thread.
+     * A full load recompiles all the rules, a reload only those changed in the meantime
+     */
     private class LoadFilters extends AsyncTask<Context, Void, Void> {
 
         Context myContext;
-        List<Filter> filters = new ArrayList<>();
+        final boolean full;
+        FilterIndex index;
 
-        List<Filter> getFilters() {
-            return filters;
+        LoadFilters(boolean full) {
+            this.full = full;
         }
 
         @Override
         protected Void doInBackground(Context... ctxs) {
             myContext = ctxs[0];
-            Log.i(TAG,"Loading the filters");
-            SQLiteDatabase db = null;
+            //changes from now on need another reload
+            if (!full) reloadPending.set(false);
+            Log.i(TAG, full ? "Loading the filters" : "Reloading the changed filters");
+            FilterCompiler compiler = getCompiler(myContext);
+            int compiled = compiler.getCompiled();
             try {
-                db = new DbHelper(myContext).getReadableDatabase();
-                List<FilterHandle> handles = FilterProvider.LoadFilters(db);
-                for(FilterHandle h : handles)
-                    filters.add(Filter.makeFilter(myContext,h));
+                DbHelper helper = DbHelper.GetHelper(myContext);
+                long start = DbLatency.start();
+                if (full) compiler.clear();
+                index = compiler.build();
+                helper.getLatency().recordRead(start);
+                if (saveSnapshot(myContext, index)) {
+                    //match in place in the file just written, as after a restart
+                    FilterIndex mapped = readSnapshot(myContext);
+                    if (mapped != null) index = mapped;
+                }
             } catch (Exception e) {
+                //a failed load keeps the current filters (e.g. those mapped from the snapshot)
                 Log.e(TAG, e.getMessage());
-            } finally {
-                String msg = filters.size() > 1 ?
-                        String.format(Locale.getDefault(),"%d filters loaded", filters.size()):
-                        String.format(Locale.getDefault(),"%d filter loaded", filters.size());
-                Log.i(TAG,msg);
-                if (db != null) db.close();
+                index = null;
+            }
+            for (String name : compiler.getSkipped())
+                Log.e(TAG, String.format(Locale.getDefault(), "Filter %s skipped, can't find its calendar rule, filter rule or action", name));
+            if (index != null) {
+                Log.i(TAG, String.format(Locale.getDefault(), "%s, %d filter rules compiled",
+                                         index.toString(), compiler.getCompiled() - compiled));
+                for (int i=0; i<index.size(); i++)
+                    Log.i(TAG, index.getFilter(i).getFilterRule().toString());
             }
             return null;
         }
 
         @Override
         protected void onPostExecute (Void v) {
-            if (myContext==null) return;
-            String msg = filters.size() > 1 ?
-                    String.format(Locale.getDefault(),"%d filters loaded", filters.size()):
-                    String.format(Locale.getDefault(),"%d filter loaded", filters.size());
+            if (myContext==null || index==null) return;
+            String msg = index.size() > 1 ?
+                    String.format(Locale.getDefault(),"%d filters loaded", index.size()):
+                    String.format(Locale.getDefault(),"%d filter loaded", index.size());
             if (PreferenceHelper.GetToastVerbosity(myContext) > 1)
                 Toast.makeText(myContext, msg, Toast.LENGTH_LONG).show();
-            myFilters = filters;
+            //the index is immutable and the field volatile: the ring thread sees it whole
+            myFilters = index;
+            DecisionCache.Bump();
+        }
+    }
+
+    /**
+     * Reloads the filters when the rules or the filters change in the database,
+     * recompiling only the rules changed
+     */
+    private class FilterChangeListener implements DbChangeNotifier.Listener {
+
+        private final Context ctx;
+
+        FilterChangeListener(Context ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void onFilterChanged(String name) {
+            //the filters are assembled again at every reload
+            reloadFilters(ctx);
+        }
+
+        @Override
+        public void onFilterRuleChanged(String name) {
+            getCompiler(ctx).invalidateFilterRule(name);
+            reloadFilters(ctx);
+        }
+
+        @Override
+        public void onCalendarRuleChanged(String name) {
+            getCompiler(ctx).invalidateCalendarRule(name);
+            reloadFilters(ctx);
         }
     }
 
@@ -189,11 +307,13 @@ public class CallHelper {
         protected Integer doInBackground(Context... ctxs) {
             myContext = ctxs[0];
             Log.i(TAG,"Purging the logs");
-            SQLiteDatabase db = null;
             int purged = 0;
             try {
-                db = new DbHelper(myContext).getWritableDatabase();
+                DbHelper helper = DbHelper.GetHelper(myContext);
+                SQLiteDatabase db = helper.getWritableDatabase();
+                long start = DbLatency.start();
                 purged = ServiceRunProvider.PurgeLog(db,myContext,null);
+                helper.getLatency().recordWrite(start);
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             } finally {
@@ -201,7 +321,6 @@ public class CallHelper {
                         String.format(Locale.getDefault(),"%d service run records purged", purged):
                         "No service run records purged";
                 Log.i(TAG,msg);
-                if (db != null) db.close();
             }
             return purged;
         }
@@ -233,46 +352,67 @@ public class CallHelper {
                 Toast.makeText(ctx,"The service is already running",Toast.LENGTH_LONG).show();
             return;
         }
-        if (callListener==null)
-            callListener = new CallStateListener(ctx);
+        ringPath.start();
+        if (callListener==null) {
+            final Context context = ctx;
+            try {
+                callListener = ringPath.call(new Callable<CallStateListener>() {
+                    @Override
+                    public CallStateListener call() {
+                        return new CallStateListener(context);
+                    }
+                });
+            } catch (Exception e) {
+                //the callbacks run on the main thread instead
+                Log.e(TAG, "Can't create the listener on the ring thread: " + e.getMessage());
+                callListener = new CallStateListener(ctx);
+            }
+        }
         if (outgoingReceiver==null)
             outgoingReceiver = new OutgoingReceiver();
+        if (timeZoneReceiver==null)
+            timeZoneReceiver = new TimeZoneReceiver();
         purgeLogs(ctx);
+        //the filters of the last run until they are loaded, for a call restarting the service
+        if (myFilters.size()==0) loadSnapshot(ctx);
         loadFilters(ctx);
+        if (myChangeListener==null)
+            myChangeListener = new FilterChangeListener(ctx.getApplicationContext());
+        DbChangeNotifier.Register(myChangeListener);
         Log.i(TAG, "Registering the listeners");
         tm = (TelephonyManager) ctx.getSystemService(Context.TELEPHONY_SERVICE);
         tm.listen(callListener, PhoneStateListener.LISTEN_CALL_STATE);
 
         IntentFilter intentFilter = new IntentFilter(Intent.ACTION_NEW_OUTGOING_CALL);
         ctx.registerReceiver(outgoingReceiver, intentFilter);
+        ctx.registerReceiver(timeZoneReceiver, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
         isRunning = true;
     }
 
     /**
-     * Open a db connection and insert a record and set the run id
+     * Insert a record and set the run id
      * @param ctx the context
      */
     void recordServiceStart(Context ctx) {
-        Log.i(TAG, "Opening a DB connection and recording service start");
-        SQLiteDatabase db = new DbHelper(ctx).getWritableDatabase();
-        try {
-            ServiceRunProvider.ServiceRun lastRun = ServiceRunProvider.LatestRun(db);
-            if (lastRun.getId()==0 || lastRun.getStop() != null) {
-                //new run
-                setNumReceived(0);
-                setNumTriggered(0);
-                myRunId = ServiceRunProvider.InsertAtServiceStart(db);
-            } //otherwise the service was restarted and continue with old run
-            else {
-                setNumReceived(lastRun.getNumReceived());
-                setNumTriggered(lastRun.getNumTriggered());
-                myRunId = lastRun.getId();
-            }
-            ServiceRunProvider.UpdateWhileRunning(db, myRunId, -1, -1);
-        }
-        finally {
-            db.close();
+        Log.i(TAG, "Recording service start");
+        DbHelper helper = DbHelper.GetHelper(ctx);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long start = DbLatency.start();
+        ServiceRunProvider.ServiceRun lastRun = ServiceRunProvider.LatestRun(db);
+        if (lastRun.getId()==0 || lastRun.getStop() != null) {
+            //new run
+            setNumReceived(0);
+            setNumTriggered(0);
+            myRunId = ServiceRunProvider.InsertAtServiceStart(db);
+        } //otherwise the service was restarted and continue with old run
+        else {
+            setNumReceived(lastRun.getNumReceived());
+            setNumTriggered(lastRun.getNumTriggered());
+            myRunId = lastRun.getId();
         }
+        ServiceRunProvider.UpdateWhileRunning(db, myRunId, -1, -1);
+        helper.getLatency().recordWrite(start);
+        prewarmContacts(ctx, db);
     }
 
     /**
@@ -282,48 +422,108 @@ public class CallHelper {
     void stop(Context ctx) {
         isRunning = false;
         Log.i(TAG, "Unregistering the listeners");
-        if (callListener!= null)
+        if (callListener!= null) {
             tm.listen(callListener, PhoneStateListener.LISTEN_NONE);
+            //created again on the next ring thread
+            callListener = null;
+        }
+        DbChangeNotifier.Unregister(myChangeListener);
+        myStoppingThreads = ringPath.quit();
         if (outgoingReceiver!=null)
             ctx.unregisterReceiver(outgoingReceiver);
-        setNumTriggered(0);
-        setNumReceived(0);
+        if (timeZoneReceiver!=null)
+            ctx.unregisterReceiver(timeZoneReceiver);
     }
 
     /**
-     * Closing the DB connection and updating the service run record
+     * Updating the service run record in the background, once the calls received before
+     * the stop are handled and logged, so that the main thread does not wait for them
      * @param ctx the context
      */
     void recordServiceStop(Context ctx) {
-        Log.i(TAG, "Closing the DB connection and updating the ServiceRunProvider record");
-        SQLiteDatabase db = new DbHelper(ctx).getWritableDatabase();
-        ServiceRunProvider.ServiceRun lastRun = ServiceRunProvider.LatestCompletedRun(db);
+        final Context context = ctx.getApplicationContext();
+        final Thread[] stopping = myStoppingThreads;
+        final CountDownLatch recorded = new CountDownLatch(1);
+        myStopRecorded = recorded;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeServiceStop(context, stopping);
+                }
+                catch (RuntimeException e) {
+                    Log.e(TAG, "Can't record the service stop: " + e.getMessage());
+                }
+                finally {
+                    recorded.countDown();
+                }
+            }
+        }, "ServiceStop").start();
+    }
+
+    /**
+     * Wait until the stop of the previous run is recorded (e.g. before the start of the next one)
+     */
+    void awaitServiceStop() {
         try {
-            ServiceRunProvider.UpdateAtServiceStop(db, myRunId,
-                                                   numReceived + lastRun.getNumReceived(),
-                                                   numTriggered + lastRun.getNumTriggered());
+            if (!myStopRecorded.await(STOP_WAIT_MS, TimeUnit.MILLISECONDS))
+                Log.e(TAG, "The stop of the previous run is not recorded yet");
         }
-        finally {
-            db.close();
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    private void writeServiceStop(Context ctx, Thread[] stopping) {
+        Log.i(TAG, "Updating the ServiceRunProvider record");
+        //the pending calls first, their counters must not overwrite the stop record
+        RingPath.join(stopping);
+        CallLogWriter.Shutdown();
+        DbHelper helper = DbHelper.GetHelper(ctx);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long start = DbLatency.start();
+        ServiceRunProvider.ServiceRun lastRun = ServiceRunProvider.LatestCompletedRun(db);
+        ServiceRunProvider.UpdateAtServiceStop(db, myRunId,
+                                               numReceived + lastRun.getNumReceived(),
+                                               numTriggered + lastRun.getNumTriggered());
+        helper.getLatency().recordWrite(start);
+        setNumTriggered(0);
+        setNumReceived(0);
+        DbHelper.Checkpoint();
+        Log.i(TAG, helper.getLatency().toString());
+        Log.i(TAG, ContactCache.GetCache(ctx).toString());
+        Log.i(TAG, myDecisions.toString());
+    }
+
+    private static boolean isPrivate(String incomingNumber) {
+        return incomingNumber==null || incomingNumber.isEmpty() || incomingNumber.toLowerCase().contains("private");
+    }
+
     public static String resolveContactDescription(Context ctx, String incomingNumber) {
-        if (incomingNumber==null || incomingNumber.isEmpty() || incomingNumber.toLowerCase().contains("private"))
+        if (isPrivate(incomingNumber))
             return "private number";
-        String description = "Not found";
-        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(incomingNumber));
-        String[] projection = new String[]{ ContactsContract.PhoneLookup.DISPLAY_NAME};
-        Cursor c = ctx.getContentResolver().query(uri, projection, null, null, null);
-        if (c!= null && c.getCount()>0) {
-            c.moveToFirst();
-            description = c.getString(0);
+        return ContactCache.GetCache(ctx).describe(incomingNumber);
+    }
+
+    /**
+     * Look up in advance the contacts of the latest callers
+     * @param ctx the context
+     * @param db the SQLite connection
+     */
+    private static void prewarmContacts(Context ctx, SQLiteDatabase db) {
+        Set<String> numbers = new LinkedHashSet<>();
+        Cursor c = LoggedCallProvider.LatestCalls(db, PREWARM_CALLS);
+        try {
+            int col = c.getColumnIndexOrThrow(DbContract.LoggedCalls.COLUMN_NAME_NUMBER);
+            while (c.moveToNext()) {
+                String number = c.getString(col);
+                if (!isPrivate(number)) numbers.add(number);
+            }
         }
-        if (c != null) {
+        finally {
             c.close();
         }
-
-        return description;
+        ContactCache.GetCache(ctx).prewarm(numbers);
     }
 
     /**
@@ -332,10 +532,82 @@ public class CallHelper {
      * @param context the context
      */
     void loadFilters(final Context context) {
-        LoadFilters lf = new LoadFilters();
+        LoadFilters lf = new LoadFilters(true);
         lf.execute(context);
     }
 
+    /**
+     * Reload the filters after a change, once for all the changes made while waiting
+     * (the loaders run one at a time, see {@link AsyncTask#execute(Object[])})
+     * @param context the context
+     */
+    private void reloadFilters(final Context context) {
+        if (!reloadPending.compareAndSet(false, true)) return;
+        //the changes are notified on the thread writing, the task is started on the main thread
+        ringPath.toMain(new Runnable() {
+            @Override
+            public void run() {
+                new LoadFilters(false).execute(context);
+            }
+        });
+    }
+
+    /**
+     * Write the snapshot of the filters, read when the service is started again
+     * @param context the context
+     * @param index the filters
+     * @return true if the snapshot was written
+     */
+    private static boolean saveSnapshot(Context context, FilterIndex index) {
+        long start = System.nanoTime();
+        try {
+            EngineSnapshot.write(new File(context.getFilesDir(), SNAPSHOT), index);
+            Log.i(TAG, String.format(Locale.getDefault(), "Filter snapshot written in %.2f ms", (System.nanoTime() - start) / 1e6));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write the filter snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Map the snapshot of the filters, so that the automata and the blocklists are
+     * matched in the file rather than in the heap
+     * @param context the context
+     * @return the filters in the snapshot or null if there is none or it can't be read
+     */
+    private static FilterIndex readSnapshot(Context context) {
+        File file = new File(context.getFilesDir(), SNAPSHOT);
+        if (!file.exists()) return null;
+        long start = System.nanoTime();
+        try {
+            FilterIndex index = EngineSnapshot.read(file, new FilterProvider.CompilerSource(context.getApplicationContext()));
+            Log.i(TAG, String.format(Locale.getDefault(), "%s mapped from the snapshot in %.2f ms",
+                                     index.toString(), (System.nanoTime() - start) / 1e6));
+            return index;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read the filter snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Map the snapshot of the filters written by the last run, without reading the database
+     * @param context the context
+     */
+    private void loadSnapshot(Context context) {
+        FilterIndex index = readSnapshot(context);
+        if (index == null) return;
+        myFilters = index;
+        DecisionCache.Bump();
+    }
+
+    private synchronized FilterCompiler getCompiler(Context context) {
+        if (myCompiler==null)
+            myCompiler = new FilterCompiler(new FilterProvider.CompilerSource(context.getApplicationContext()));
+        return myCompiler;
+    }
+
     /**
      * This is an synchronous getter of filters.
      * @param context the context
@@ -344,12 +616,9 @@ public class CallHelper {
     List<Filter> getFilters(final Context context) {
         List<Filter> filters = new ArrayList<>();
         Log.i(TAG,"Getting the filters");
-        SQLiteDatabase db = null;
         try {
-            db = new DbHelper(context).getReadableDatabase();
-            List<FilterHandle> handles = FilterProvider.LoadFilters(db);
-            for(FilterHandle h : handles)
-                filters.add(Filter.makeFilter(context,h));
+            SQLiteDatabase db = DbHelper.GetHelper(context).getReadableDatabase();
+            filters.addAll(FilterProvider.LoadAllCompiled(context, db));
         } catch (Exception e) {
             Log.e(TAG, e.getMessage());
         } finally {
@@ -357,7 +626,6 @@ public class CallHelper {
                     String.format(Locale.getDefault(),"%d filters loaded", filters.size()):
                     String.format(Locale.getDefault(),"%d filter loaded", filters.size());
             Log.i(TAG,msg);
-            if (db != null) db.close();
         }
         return filters;
     }
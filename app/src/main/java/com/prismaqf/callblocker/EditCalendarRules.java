@@ -36,12 +36,7 @@ public class EditCalendarRules extends AppCompatActivity {
 
         @Override
         protected ArrayList<String> doInBackground(SQLiteDatabase... dbs) {
-            try {
-                return CalendarRuleProvider.AllRuleNames(dbs[0]);
-            }
-            finally {
-                dbs[0].close();
-            }
+            return CalendarRuleProvider.AllRuleNames(dbs[0]);
         }
 
         @Override
@@ -134,7 +129,7 @@ public class EditCalendarRules extends AppCompatActivity {
     }
 
     private void newCalendarRule() {
-        SQLiteDatabase db = new DbHelper(this).getReadableDatabase();
+        SQLiteDatabase db = DbHelper.GetHelper(this).getReadableDatabase();
         (new DbOperation(myContext)).execute(db);
     }
 }
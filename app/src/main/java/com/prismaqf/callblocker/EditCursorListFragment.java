@@ -35,17 +35,12 @@ public abstract class EditCursorListFragment extends ListFragment implements Loa
     @Override
     public void onStart() {
         super.onStart();
-        myDbConnection = new DbHelper(getActivity()).getWritableDatabase();
+        myDbConnection = DbHelper.GetHelper(getActivity()).getWritableDatabase();
         myAdapter = getAdapter();
 
         setListAdapter(myAdapter);
         initLoader();
     }
-    @Override
-    public void onStop() {
-        super.onStop();
-        myDbConnection.close();
-    }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
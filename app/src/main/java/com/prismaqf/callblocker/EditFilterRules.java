@@ -35,12 +35,7 @@ public class EditFilterRules extends AppCompatActivity {
 
         @Override
         protected ArrayList<String> doInBackground(SQLiteDatabase... dbs) {
-            try {
-                return FilterRuleProvider.AllRuleNames(dbs[0]);
-            }
-            finally {
-                dbs[0].close();
-            }
+            return FilterRuleProvider.AllRuleNames(dbs[0]);
         }
 
         @Override
@@ -131,7 +126,7 @@ public class EditFilterRules extends AppCompatActivity {
     }
 
     private void newFilterRule() {
-        SQLiteDatabase db = new DbHelper(this).getReadableDatabase();
+        SQLiteDatabase db = DbHelper.GetHelper(this).getReadableDatabase();
         (new DbOperation(myContext)).execute(db);
     }
 }
@@ -26,12 +26,7 @@ public class EditFilters extends AppCompatActivity {
 
         @Override
         protected ArrayList<String> doInBackground(SQLiteDatabase... dbs) {
-            try {
-                return FilterProvider.AllFilterNames(dbs[0]);
-            }
-            finally {
-                dbs[0].close();
-            }
+            return FilterProvider.AllFilterNames(dbs[0]);
         }
 
         @Override
@@ -87,7 +82,7 @@ public class EditFilters extends AppCompatActivity {
     }
 
     private void newFilter() {
-        SQLiteDatabase db = new DbHelper(this).getReadableDatabase();
+        SQLiteDatabase db = DbHelper.GetHelper(this).getReadableDatabase();
         (new DbOperation()).execute(db);
     }
 }
@@ -29,7 +29,7 @@ public class FilterFragment extends EditCursorListFragment{
 
         @Override
         protected FilterHandle doInBackground(Long... ids) {
-            SQLiteDatabase db = new DbHelper(getActivity()).getReadableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(getActivity()).getReadableDatabase();
             final long filterid = ids[0];
             myFilterId = filterid;
             try {
@@ -38,9 +38,6 @@ public class FilterFragment extends EditCursorListFragment{
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             }
-            finally {
-                db.close();
-            }
             return null;
         }
 
@@ -35,7 +35,7 @@ public class FilterRulesFragment extends EditCursorListFragment {
         }
         @Override
         protected FilterRule doInBackground(Long... ids) {
-            SQLiteDatabase db = new DbHelper(getActivity()).getReadableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(getActivity()).getReadableDatabase();
             final long ruleid = ids[0];
             myRuleId = ruleid;
             try {
@@ -44,9 +44,6 @@ public class FilterRulesFragment extends EditCursorListFragment {
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             }
-            finally {
-                db.close();
-            }
             return null;
         }
 
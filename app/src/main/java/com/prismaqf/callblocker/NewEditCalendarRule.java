@@ -120,7 +120,7 @@ public class NewEditCalendarRule extends NewEditActivity {
         }
         @Override
         protected CalendarRule doInBackground(CalendarRule... rules) {
-            SQLiteDatabase db = new DbHelper(NewEditCalendarRule.this).getWritableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(NewEditCalendarRule.this).getWritableDatabase();
             CalendarRule rule = rules[0];
             try {
                 switch (action) {
@@ -129,8 +129,6 @@ public class NewEditCalendarRule extends NewEditActivity {
                         break;
                     case NewEditActivity.ACTION_EDIT:
                         CalendarRuleProvider.UpdateCalendarRule(db, ruleid, rule);
-                        if (CallHelper.IsRunning() && FilterProvider.HasCalendarRule(db,rule.getName()))
-                            CallHelper.GetHelper().loadFilters(NewEditCalendarRule.this);
                         break;
                     default:
                         //ACTION_DELETE
@@ -142,7 +140,6 @@ public class NewEditCalendarRule extends NewEditActivity {
                 }
             }
             finally {
-                db.close();
                 BackupManager.dataChanged(NewEditCalendarRule.this.getPackageName());
             }
             return rule;
@@ -288,7 +285,7 @@ public class NewEditCalendarRule extends NewEditActivity {
     }
 
     public void onWorkingDays(View view) {
-        ptRule.getDayMask().addAll(EnumSet.of(CalendarRule.DayOfWeek.MONDAY,
+        ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.MONDAY,
                 CalendarRule.DayOfWeek.TUESDAY,
                 CalendarRule.DayOfWeek.WEDNESDAY,
                 CalendarRule.DayOfWeek.THURSDAY,
@@ -297,8 +294,8 @@ public class NewEditCalendarRule extends NewEditActivity {
     }
 
     public void onWeekEnd(View view) {
-        ptRule.getDayMask().addAll(EnumSet.of(CalendarRule.DayOfWeek.SATURDAY,
-                                                 CalendarRule.DayOfWeek.SUNDAY));
+        ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.SATURDAY,
+                                    CalendarRule.DayOfWeek.SUNDAY));
         refreshWidgets(true);
     }
 
@@ -316,45 +313,45 @@ public class NewEditCalendarRule extends NewEditActivity {
         switch (view.getId()) {
             case R.id.cb_Monday:
                 if (cb_Monday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.MONDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.MONDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.MONDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.MONDAY);
                 break;
             case R.id.cb_Tuesday:
                 if (cb_Tuesday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.TUESDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.TUESDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.TUESDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.TUESDAY);
                 break;
             case R.id.cb_Wednesday:
                 if (cb_Wednesday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.WEDNESDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.WEDNESDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.WEDNESDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.WEDNESDAY);
                 break;
             case R.id.cb_Thursday:
                 if (cb_Thursday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.THURSDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.THURSDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.THURSDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.THURSDAY);
                 break;
             case R.id.cb_Friday:
                 if (cb_Friday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.FRIDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.FRIDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.FRIDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.FRIDAY);
                 break;
             case R.id.cb_Saturday:
             if (cb_Saturday.isChecked())
-                ptRule.getDayMask().add(CalendarRule.DayOfWeek.SATURDAY);
+                ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.SATURDAY));
             else
-                ptRule.getDayMask().remove(CalendarRule.DayOfWeek.SATURDAY);
+                ptRule.removeDay(CalendarRule.DayOfWeek.SATURDAY);
             break;
             case R.id.cb_Sunday:
                 if (cb_Sunday.isChecked())
-                    ptRule.getDayMask().add(CalendarRule.DayOfWeek.SUNDAY);
+                    ptRule.addDays(EnumSet.of(CalendarRule.DayOfWeek.SUNDAY));
                 else
-                    ptRule.getDayMask().remove(CalendarRule.DayOfWeek.SUNDAY);
+                    ptRule.removeDay(CalendarRule.DayOfWeek.SUNDAY);
         }
         validateActions();
     }
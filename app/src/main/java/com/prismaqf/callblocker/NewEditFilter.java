@@ -45,7 +45,7 @@ public class NewEditFilter extends NewEditActivity{
         }
         @Override
         protected Void doInBackground(FilterHandle... filters) {
-            SQLiteDatabase db = new DbHelper(NewEditFilter.this).getWritableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(NewEditFilter.this).getWritableDatabase();
             FilterHandle filter = filters[0];
             try {
                 switch (action) {
@@ -59,11 +59,8 @@ public class NewEditFilter extends NewEditActivity{
                         FilterProvider.DeleteFilter(db, filterid);
                         break;
                 }
-                if (CallHelper.IsRunning())
-                    CallHelper.GetHelper().loadFilters(NewEditFilter.this);
             }
             finally {
-                db.close();
                 BackupManager.dataChanged(NewEditFilter.this.getPackageName());
             }
             return null;
@@ -83,7 +80,7 @@ public class NewEditFilter extends NewEditActivity{
 
         @Override
         protected CalendarRule doInBackground(String... names) {
-            SQLiteDatabase db = new DbHelper(NewEditFilter.this).getReadableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(NewEditFilter.this).getReadableDatabase();
             myRuleName = names[0];
             try {
                 myRuleId = CalendarRuleProvider.FindCalendarRuleId(db,myRuleName);
@@ -92,9 +89,6 @@ public class NewEditFilter extends NewEditActivity{
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             }
-            finally {
-                db.close();
-            }
             return null;
         }
 
@@ -116,7 +110,7 @@ public class NewEditFilter extends NewEditActivity{
 
         @Override
         protected FilterRule doInBackground(String... names) {
-            SQLiteDatabase db = new DbHelper(NewEditFilter.this).getReadableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(NewEditFilter.this).getReadableDatabase();
             myRuleName = names[0];
             try {
                 myRuleId = FilterRuleProvider.FindFilterRuleId(db, myRuleName);
@@ -125,9 +119,6 @@ public class NewEditFilter extends NewEditActivity{
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             }
-            finally {
-                db.close();
-            }
             return null;
         }
 
@@ -50,7 +50,7 @@ public class NewEditFilterRule extends NewEditActivity {
         }
         @Override
         protected FilterRule doInBackground(FilterRule... rules) {
-            SQLiteDatabase db = new DbHelper(NewEditFilterRule.this).getWritableDatabase();
+            SQLiteDatabase db = DbHelper.GetHelper(NewEditFilterRule.this).getWritableDatabase();
             FilterRule rule = rules[0];
             try {
                 switch (action) {
@@ -59,8 +59,6 @@ public class NewEditFilterRule extends NewEditActivity {
                         break;
                     case NewEditActivity.ACTION_EDIT:
                         FilterRuleProvider.UpdateFilterRule(db, ruleid, rule);
-                        if (CallHelper.IsRunning() && FilterProvider.HasFilterRule(db,rule.getName()))
-                            CallHelper.GetHelper().loadFilters(NewEditFilterRule.this);
                         break;
                     default:
                         if (FilterProvider.HasFilterRule(db,rule.getName())) {
@@ -71,7 +69,6 @@ public class NewEditFilterRule extends NewEditActivity {
                 }
             }
             finally {
-                db.close();
                 BackupManager.dataChanged(NewEditFilterRule.this.getPackageName());
             }
             return rule;
@@ -0,0 +1,125 @@
+package com.prismaqf.callblocker;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads handling the incoming calls, in order of priority: a dedicated thread
+ * at high priority where the filters are matched and the call is dropped, a background
+ * thread for what can wait (deferred actions, broadcast, logging) and the main thread
+ * for the toasts. Work is passed from a stage to the next, so none of it delays the
+ * hang-up of the next call
+ * @author ConteDiMonteCristo
+ */
+class RingPath {
+
+    private static final String TAG = RingPath.class.getCanonicalName();
+    private static final long WAIT_MS = 5000;
+
+    private HandlerThread ringThread;
+    private HandlerThread deferredThread;
+    private Handler ring;
+    private Handler deferred;
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    /**
+     * Start the threads
+     */
+    synchronized void start() {
+        if (ringThread != null) return;
+        //the thread is idle but for the few milliseconds of a ringing call
+        ringThread = new HandlerThread("RingPath", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        ringThread.start();
+        ring = new Handler(ringThread.getLooper());
+        deferredThread = new HandlerThread("RingPathDeferred", Process.THREAD_PRIORITY_BACKGROUND);
+        deferredThread.start();
+        deferred = new Handler(deferredThread.getLooper());
+    }
+
+    /**
+     * Run a task on the ring thread and wait for its result, e.g. to create
+     * a PhoneStateListener, whose callbacks run on the thread creating it
+     * @param task the task
+     * @return the result of the task
+     */
+    <T> T call(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        synchronized (this) {
+            if (ring == null) throw new IllegalStateException("The ring path is not started");
+            ring.post(future);
+        }
+        return future.get(WAIT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue work which can wait until the call has been handled
+     * @param task the work
+     */
+    synchronized void defer(Runnable task) {
+        if (deferred != null) deferred.post(task);
+        else task.run();
+    }
+
+    /**
+     * Queue work on the main thread (e.g. a toast)
+     * @param task the work
+     */
+    void toMain(Runnable task) {
+        main.post(task);
+    }
+
+    /**
+     * Stop the threads once the work already queued is done. The threads of the next
+     * start are new, so they do not wait for these
+     * @return the threads stopping, to wait for the calls received so far (see {@link #join(Thread[])})
+     */
+    synchronized Thread[] quit() {
+        if (ringThread == null) return new Thread[0];
+        Thread[] stopping = {ringThread, deferredThread};
+        final Handler next = deferred;
+        ring.post(new Runnable() {
+            @Override
+            public void run() {
+                //after the work passed on by the ring thread
+                next.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Looper.myLooper().quit();
+                    }
+                });
+                Looper.myLooper().quit();
+            }
+        });
+        ringThread = null;
+        deferredThread = null;
+        ring = null;
+        deferred = null;
+        return stopping;
+    }
+
+    /**
+     * Wait until the calls received before the stop have gone through all the stages
+     * but the main thread (e.g. before recording the stop of the service)
+     * @param stopping the threads returned by {@link #quit()}
+     */
+    static void join(Thread[] stopping) {
+        try {
+            //the ring thread first, as it passes work to the deferred thread
+            for (Thread t : stopping) {
+                t.join(WAIT_MS);
+                if (t.isAlive()) Log.e(TAG, String.format("The thread %s could not be drained", t.getName()));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "The ring path could not be drained: " + e.getMessage());
+        }
+    }
+}
@@ -91,10 +91,9 @@ public class SettingFragment extends PreferenceFragment{
                 List<Filter> filters=(List<Filter>) oIn.readObject();
                 if (filters == null)
                     throw new Exception("Could not deserialize file into a list of filters");
-                db = new DbHelper(myContext).getWritableDatabase();
+                db = DbHelper.GetHelper(myContext).getWritableDatabase();
                 for (Filter f : filters)
                     FilterProvider.SaveFilter(db,f);
-                CallHelper.GetHelper().loadFilters(myContext);
                 oIn.close();
 
             }
@@ -102,10 +101,6 @@ public class SettingFragment extends PreferenceFragment{
             {
                 Log.e(TAG, "Filters' deserialization failed: " + e.getMessage());
             }
-            finally {
-                if (db != null)
-                    db.close();
-            }
             return null;
         }
 
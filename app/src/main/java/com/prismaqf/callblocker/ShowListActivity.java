@@ -32,19 +32,13 @@ public abstract class ShowListActivity extends ListActivity implements LoaderMan
         else
             myContext = "none";
 
-        myDbConnection = new DbHelper(this).getReadableDatabase();
+        myDbConnection = DbHelper.GetHelper(this).getReadableDatabase();
         myAdapter = getAdapter();
 
         setListAdapter(myAdapter);
         initLoader();
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        myDbConnection.close();
-    }
-
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
         myAdapter.swapCursor(cursor);
@@ -1,45 +1,35 @@
 package com.prismaqf.callblocker.actions;
 
 import android.content.Context;
-
-import com.prismaqf.callblocker.utils.DexClassScanner;
+import android.util.Log;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * A registry containg a singleton version of the available actions
+ * A registry containg a singleton version of the available actions. The actions
+ * annotated with {@link AvailableAction} are listed at build time by an annotation
+ * processor (see AvailableActions), so nothing is scanned at run time
  * @author ConteDiMonteCristo
  */
 public class ActionRegistry {
-    private static Map<String,IAction> registry = null;
+    private static final String TAG = ActionRegistry.class.getCanonicalName();
+    private static final Map<String,IAction> registry;
 
-    private static void initialise(Context ctx) throws ReflectiveOperationException {
-        Set<Class<?>> actions = DexClassScanner.findSubClassesWithAnnotation(ctx,
-                "com.prismaqf.callblocker.actions",
-                IAction.class,
-                AvailableAction.class);
-        for (Class c : actions) {
-            IAction action = (IAction) c.newInstance();
-            registry.put(c.getCanonicalName(),action);
-        }
+    static {
+        long start = System.nanoTime();
+        registry = Collections.unmodifiableMap(AvailableActions.create());
+        Log.i(TAG, String.format(Locale.getDefault(), "%d actions registered in %.2f ms",
+                                 registry.size(), (System.nanoTime() - start) / 1e6));
     }
 
     public static IAction getAvailableAction(Context ctx, String canonicalName) throws ReflectiveOperationException {
-        if (registry==null) {
-            registry = new HashMap<>();
-            initialise(ctx);
-        }
         return registry.get(canonicalName);
     }
 
     public static Collection<IAction> getAvailableActions(Context ctx) throws ReflectiveOperationException {
-        if (registry==null) {
-            registry = new HashMap<>();
-            initialise(ctx);
-        }
         return registry.values();
     }
 }
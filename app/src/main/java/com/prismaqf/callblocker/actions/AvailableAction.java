@@ -10,4 +10,10 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface AvailableAction {
     String description() default "undefined";
+
+    /**
+     * @return true if the action can wait until the call has been handled (e.g. logging
+     * or warning the user): it is performed after the actions dropping the call
+     */
+    boolean deferred() default false;
 }
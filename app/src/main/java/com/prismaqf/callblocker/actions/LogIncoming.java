@@ -1,13 +1,9 @@
 package com.prismaqf.callblocker.actions;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
-import com.prismaqf.callblocker.CallHelper;
-import com.prismaqf.callblocker.sql.DbHelper;
-import com.prismaqf.callblocker.sql.LoggedCallProvider;
-import com.prismaqf.callblocker.sql.ServiceRunProvider;
+import com.prismaqf.callblocker.sql.CallLogWriter;
 
 import java.io.Serializable;
 
@@ -15,7 +11,7 @@ import java.io.Serializable;
  * Class to log an incoming call
  * @author ConteDiMonteCristo
  */
-@AvailableAction(description = "Logs events to DB")
+@AvailableAction(description = "Logs events to DB", deferred = true)
 public class LogIncoming implements IAction, Serializable{
 
     private final static String TAG = LogIncoming.class.getCanonicalName();
@@ -29,23 +25,9 @@ public class LogIncoming implements IAction, Serializable{
 
     @Override
     public void act(final Context ctx, final String number, final LogInfo info) {
-        //start a thread to write to DC
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                Log.i(TAG, "Recording a call received in DB");
-                SQLiteDatabase db = new DbHelper(ctx).getWritableDatabase();
-                try {
-                    String contactDescription = CallHelper.resolveContactDescription(ctx,number);
-                    LoggedCallProvider.LoggedCall lc = new LoggedCallProvider.LoggedCall(info.getRunId(),info.getAction(),number,contactDescription);
-                    LoggedCallProvider.InsertRow(db, lc);
-                    ServiceRunProvider.UpdateWhileRunning(db, info.getRunId(), info.getNumReceived(), info.getNumTriggered());
-                }
-                finally {
-                    db.close();
-                }
-            }
-        }).start();
+        //the call is written to DB by the log writer thread
+        Log.i(TAG, "Recording a call received in DB");
+        CallLogWriter.GetWriter(ctx).submit(info.getRunId(), info.getAction(), number, info.getNumReceived(), info.getNumTriggered());
     }
 
     @Override
@@ -1,15 +1,18 @@
 package com.prismaqf.callblocker.actions;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import java.io.Serializable;
 
 /**
- * Just warn the user of an incoming call that has triggered an event
+ * Just warn the user of an incoming call that has triggered an event. The action is
+ * deferred, so it runs on a background thread: the toast is shown by the main thread
  * @author ConteDiMonteCristo
  */
-@AvailableAction(description = "Warn users of a triggered event")
+@AvailableAction(description = "Warn users of a triggered event", deferred = true)
 public class WarnTrigger implements IAction, Serializable {
     private final static String TAG = DropCallByDataConnectivity.class.getCanonicalName();
     private final static String DESCRIPTION = "Warn users of a triggered event";
@@ -21,8 +24,13 @@ public class WarnTrigger implements IAction, Serializable {
     }
 
     @Override
-    public void act(Context ctx, String number, LogInfo info) {
-        Toast.makeText(ctx, String.format("Suspected number %s has triggered an event. Reject call?",number), Toast.LENGTH_LONG).show();
+    public void act(final Context ctx, final String number, LogInfo info) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(ctx, String.format("Suspected number %s has triggered an event. Reject call?",number), Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,129 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.rules.NumberNormalizer;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of the filters firing for the numbers calling, so that a number calling
+ * again is not matched against all the filters. The key is the number in canonical
+ * form and the generation of the filters, which is bumped by every change of filters,
+ * rules or patterns: the entries of an older generation are never found again and are
+ * evicted in time. An entry is also tied to the {@link FilterIndex} it was taken with, so
+ * that it is never applied to the positions of another index published in the meantime.
+ * An entry is valid until the active filters change with the calendar
+ * @author ConteDiMonteCristo
+ */
+public final class DecisionCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The filters firing, the index they are positions of and the end of their validity
+     */
+    private static final class Decision {
+        final FilterIndex index;
+        final BitSet fired;
+        final long until;
+
+        Decision(FilterIndex index, BitSet fired, long until) {
+            this.index = index;
+            this.fired = fired;
+            this.until = until;
+        }
+    }
+
+    private final Map<String, Decision> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     * @param capacity the maximum number of entries
+     */
+    public DecisionCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the current generation of the filters
+     */
+    public static long Generation() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidate the decisions taken so far (e.g. when a filter, rule or pattern changes)
+     */
+    public static void Bump() {
+        generation.incrementAndGet();
+    }
+
+    private static String keyOf(String number, long generation) {
+        String key = NumberNormalizer.get().normalize(number).toString();
+        return generation + ":" + (key.isEmpty() ? number : key);
+    }
+
+    /**
+     * Find the decision taken for a number
+     * @param number the calling number
+     * @param index the filters the decision is for
+     * @param generation the generation of the filters, read before the filters
+     * @param epochMillis the current time in milliseconds since the epoch
+     * @return the positions of the filters firing (not to be modified) or null if not cached
+     */
+    public synchronized BitSet get(String number, FilterIndex index, long generation, long epochMillis) {
+        String key = keyOf(number, generation);
+        Decision d = entries.get(key);
+        if (d != null && d.index == index && epochMillis < d.until) {
+            hits++;
+            return d.fired;
+        }
+        if (d != null) entries.remove(key);
+        misses++;
+        return null;
+    }
+
+    /**
+     * Keep the decision taken for a number
+     * @param number the calling number
+     * @param index the filters matched
+     * @param generation the generation of the filters, read before the filters
+     * @param fired the positions in the index of the filters firing (not modified afterwards)
+     * @param until the end of the validity in milliseconds since the epoch
+     */
+    public synchronized void put(String number, FilterIndex index, long generation, BitSet fired, long until) {
+        entries.put(keyOf(number, generation), new Decision(index, fired, until));
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        double rate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format(Locale.getDefault(), "Decision cache [entries = %d, hits = %d, misses = %d, hit rate = %.1f%%]",
+                             entries.size(), hits, misses, rate);
+    }
+}
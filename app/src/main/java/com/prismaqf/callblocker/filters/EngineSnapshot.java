@@ -0,0 +1,251 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FrozenFilterRule;
+import com.prismaqf.callblocker.rules.GramBloomFilter;
+import com.prismaqf.callblocker.rules.ICalendarRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+import com.prismaqf.callblocker.rules.MappedBlocklist;
+import com.prismaqf.callblocker.rules.MappedFilterRule;
+import com.prismaqf.callblocker.rules.NoMatches;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A binary snapshot of a {@link FilterIndex}, with the compiled automata of the filter
+ * rules, the calendar rules and the names of the actions, so that the service restarted
+ * by a ringing call has its filters at once, without reading the database. The file is
+ * memory mapped and the automata are matched in place (see {@link MappedFilterRule})
+ * <p>
+ * The file layout (big endian) is: magic, version, the calendar rules (name, day mask,
+ * from, to), the filter rules (name, description, number of patterns, the patterns with
+ * a '*', the automaton, the blocklist of the plain numbers, -1 when there is none, the
+ * precheck, -1 when there is none, and the patterns it leaves out) and the filters (name,
+ * calendar rule, filter rule, action), each section preceded by its size. The rules are referred to by position, -1 when the filter
+ * has none. The strings are UTF-8 bytes preceded by their length, -1 for null
+ * @author ConteDiMonteCristo
+ */
+public final class EngineSnapshot {
+
+    private static final int MAGIC = 0x50434253; //PCBS
+    private static final int VERSION = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EngineSnapshot() {}
+
+    /**
+     * Write the snapshot of an index, replacing the file only when it is complete
+     * @param file the destination file
+     * @param index an index built by a {@link FilterCompiler}
+     * @throws IOException if the file can not be written or a rule can not be stored
+     */
+    public static void write(File file, FilterIndex index) throws IOException {
+        List<CalendarRule> calendars = new ArrayList<>();
+        List<FrozenFilterRule> rules = new ArrayList<>();
+        Map<ICalendarRule, Integer> calendarOf = new HashMap<>();
+        Map<IFilterRule, Integer> ruleOf = new HashMap<>();
+        for (int i=0; i<index.size(); i++) {
+            Filter f = index.getFilter(i);
+            ICalendarRule cr = f.getCalendarRule();
+            if (!(cr instanceof Always) && !calendarOf.containsKey(cr)) {
+                if (!(cr instanceof CalendarRule))
+                    throw new IOException(String.format("Can't store the calendar rule of filter %s", f.getName()));
+                calendarOf.put(cr, calendars.size());
+                calendars.add((CalendarRule) cr);
+            }
+            IFilterRule fr = f.getFilterRule();
+            if (!(fr instanceof NoMatches) && !ruleOf.containsKey(fr)) {
+                if (!(fr instanceof FrozenFilterRule))
+                    throw new IOException(String.format("Can't store the filter rule of filter %s", f.getName()));
+                ruleOf.put(fr, rules.size());
+                rules.add((FrozenFilterRule) fr);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(calendars.size());
+            for (CalendarRule cr : calendars) {
+                writeString(out, cr.getName());
+                out.writeInt(cr.getBinaryMask());
+                writeString(out, cr.getBareStartTime());
+                writeString(out, cr.getBareEndTime());
+            }
+            out.writeInt(rules.size());
+            for (FrozenFilterRule fr : rules) {
+                writeString(out, fr.getName());
+                writeString(out, fr.getDescription());
+                out.writeInt(fr.getPatternKeys().size());
+                List<String> wildcardKeys = new ArrayList<>();
+                for (String key : fr.getPatternKeys())
+                    if (key.indexOf('*') >= 0) wildcardKeys.add(key);
+                out.writeInt(wildcardKeys.size());
+                for (String key : wildcardKeys)
+                    writeString(out, key);
+                int[] states = fr.encodeAutomaton();
+                out.writeInt(states.length);
+                for (int s : states)
+                    out.writeInt(s);
+                MappedBlocklist blocklist = fr.getBlocklist();
+                out.writeInt(blocklist == null ? -1 : blocklist.getByteSize());
+                if (blocklist != null) blocklist.writeTo(out);
+                GramBloomFilter precheck = fr.getPrecheck();
+                out.writeInt(precheck == null ? -1 : 1);
+                if (precheck != null) precheck.writeTo(out);
+                Set<String> uncoveredKeys = fr.getUncoveredKeys();
+                out.writeInt(uncoveredKeys.size());
+                for (String key : uncoveredKeys)
+                    writeString(out, key);
+            }
+            out.writeInt(index.size());
+            for (int i=0; i<index.size(); i++) {
+                Filter f = index.getFilter(i);
+                writeString(out, f.getName());
+                Integer cr = calendarOf.get(f.getCalendarRule());
+                out.writeInt(cr == null ? -1 : cr);
+                Integer fr = ruleOf.get(f.getFilterRule());
+                out.writeInt(fr == null ? -1 : fr);
+                writeString(out, f.getAction() instanceof Nothing ? null : f.getAction().getName());
+            }
+            out.flush();
+            //on disk before the rename, so that a crash leaves the old or the new snapshot
+            fos.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException(String.format("Can't replace the snapshot %s", file.getPath()));
+        }
+    }
+
+    /**
+     * Open a snapshot, mapping it in memory
+     * @param file the file written by {@link #write(File, FilterIndex)}
+     * @param source where the actions are found (the rules are not loaded from it)
+     * @return the index of the filters in the snapshot
+     * @throws IOException if the file can not be read, is not a snapshot of this version
+     * or refers to an action that does not exist
+     */
+    public static FilterIndex read(File file, FilterCompiler.Source source) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            //the mapping stays valid after the file is closed or replaced
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            return read(buffer, source);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated filter snapshot");
+        }
+    }
+
+    private static FilterIndex read(ByteBuffer buffer, FilterCompiler.Source source) throws IOException {
+        if (buffer.capacity() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a filter snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException(String.format(Locale.getDefault(), "Unsupported filter snapshot version %d", version));
+        CalendarRule[] calendars = new CalendarRule[buffer.getInt()];
+        for (int i=0; i<calendars.length; i++) {
+            String name = readString(buffer);
+            int mask = buffer.getInt();
+            calendars[i] = CalendarRule.makeRule(name, mask, readString(buffer), readString(buffer));
+        }
+        MappedFilterRule[] rules = new MappedFilterRule[buffer.getInt()];
+        for (int i=0; i<rules.length; i++) {
+            String name = readString(buffer);
+            String description = readString(buffer);
+            int patterns = buffer.getInt();
+            Set<String> wildcardKeys = new HashSet<>();
+            for (int k=buffer.getInt(); k>0; k--)
+                wildcardKeys.add(readString(buffer));
+            int length = buffer.getInt();
+            ByteBuffer view = buffer.slice();
+            view.limit(4*length);
+            IntBuffer states = view.asIntBuffer();
+            buffer.position(buffer.position() + 4*length);
+            MappedBlocklist blocklist = null;
+            int size = buffer.getInt();
+            if (size >= 0) {
+                view = buffer.slice();
+                view.limit(size);
+                blocklist = MappedBlocklist.wrap(name, view.slice());
+                buffer.position(buffer.position() + size);
+            }
+            GramBloomFilter precheck = buffer.getInt() < 0 ? null : GramBloomFilter.read(buffer);
+            Set<String> uncoveredKeys = new HashSet<>();
+            for (int k=buffer.getInt(); k>0; k--)
+                uncoveredKeys.add(readString(buffer));
+            rules[i] = new MappedFilterRule(name, description, wildcardKeys, patterns, states, blocklist, precheck, uncoveredKeys);
+        }
+        int count = buffer.getInt();
+        List<Filter> filters = new ArrayList<>(count);
+        for (int i=0; i<count; i++) {
+            String name = readString(buffer);
+            int cr = buffer.getInt();
+            int fr = buffer.getInt();
+            String actionName = readString(buffer);
+            IAction action;
+            try {
+                action = actionName == null ? new Nothing() : source.findAction(actionName);
+            }
+            catch (Exception e) {
+                throw new IOException(e.getMessage());
+            }
+            if (action == null)
+                throw new IOException(String.format("Can't find the action %s of filter %s", actionName, name));
+            filters.add(Filter.makeFilter(name, cr < 0 ? new Always() : calendars[cr], fr < 0 ? new NoMatches() : rules[fr], action));
+        }
+        return new FilterIndex(filters);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -9,6 +9,7 @@ import com.prismaqf.callblocker.actions.IAction;
 import com.prismaqf.callblocker.actions.LogInfo;
 import com.prismaqf.callblocker.actions.Nothing;
 import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.FilterRule;
 import com.prismaqf.callblocker.rules.ICalendarRule;
 import com.prismaqf.callblocker.rules.IFilterRule;
 import com.prismaqf.callblocker.rules.NoMatches;
@@ -60,6 +61,28 @@ public class Filter implements IAction, Serializable{
     }
 
 
+    /**
+     * Create a Filter from its components already in memory
+     * @param name the filter name
+     * @param calendarRule the calendar rule
+     * @param filterRule the filter rule
+     * @param action the action performed when the two rules match
+     * @return a Filter object
+     */
+    public static Filter makeFilter(String name, ICalendarRule calendarRule, IFilterRule filterRule, IAction action) {
+        return new Filter(name, calendarRule, filterRule, action);
+    }
+
+    /**
+     * The same filter with an immutable snapshot of its filter rule, to be used
+     * by the running service (see {@link FilterRule#freeze()})
+     * @return a filter safe to evaluate without locks
+     */
+    public Filter freeze() {
+        if (!(filterRule instanceof FilterRule)) return this;
+        return new Filter(name, calendarRule, ((FilterRule)filterRule).freeze(), action);
+    }
+
     /**
      * Create a Filter from a handle
      * @param ctx the Android context
@@ -70,44 +93,38 @@ public class Filter implements IAction, Serializable{
      */
     public static Filter makeFilter(Context ctx, FilterHandle handle )
             throws SQLException, ReflectiveOperationException {
-        SQLiteDatabase db=null;
         ICalendarRule cr;
         IFilterRule fr;
         IAction action;
-        try {
-           db  = new DbHelper(ctx).getReadableDatabase();
-            if (handle.getCalendarRuleName()==null || handle.getCalendarRuleName().isEmpty())
-                cr = new Always();
-            else
-                cr = CalendarRuleProvider.FindCalendarRule(db, handle.getCalendarRuleName());
-            if (cr==null) {
-                String msg = String.format("Can't find a calendar rule with name %s", handle.getCalendarRuleName());
-                Log.e(TAG, msg);
-                throw new SQLException(msg);
-            }
-            if (handle.getFilterRuleName()==null || handle.getFilterRuleName().isEmpty())
-                fr = new NoMatches();
-            else
-                fr = FilterRuleProvider.FindFilterRule(db,handle.getFilterRuleName());
-            if (fr==null) {
-                String msg = String.format("Can't find a filter rule with name %s", handle.getFilterRuleName());
-                Log.e(TAG, msg);
-                throw new SQLException(msg);
-            }
-            if (handle.getActionName()==null || handle.getActionName().isEmpty())
-                action = new Nothing();
-            else
-                action = ActionRegistry.getAvailableAction(ctx,handle.getActionName());
-            if (action==null) {
-                String msg = String.format("Can't find an action with class %s", handle.getActionName());
-                Log.e(TAG, msg);
-                throw new IllegalArgumentException(msg);
-            }
-            return new Filter(handle.getName(), cr, fr, action);
+        SQLiteDatabase db = DbHelper.GetHelper(ctx).getReadableDatabase();
+        if (handle.getCalendarRuleName()==null || handle.getCalendarRuleName().isEmpty())
+            cr = new Always();
+        else
+            cr = CalendarRuleProvider.FindCalendarRule(db, handle.getCalendarRuleName());
+        if (cr==null) {
+            String msg = String.format("Can't find a calendar rule with name %s", handle.getCalendarRuleName());
+            Log.e(TAG, msg);
+            throw new SQLException(msg);
+        }
+        if (handle.getFilterRuleName()==null || handle.getFilterRuleName().isEmpty())
+            fr = new NoMatches();
+        else
+            fr = FilterRuleProvider.FindFilterRule(db,handle.getFilterRuleName());
+        if (fr==null) {
+            String msg = String.format("Can't find a filter rule with name %s", handle.getFilterRuleName());
+            Log.e(TAG, msg);
+            throw new SQLException(msg);
         }
-        finally {
-            if (db != null) db.close();
+        if (handle.getActionName()==null || handle.getActionName().isEmpty())
+            action = new Nothing();
+        else
+            action = ActionRegistry.getAvailableAction(ctx,handle.getActionName());
+        if (action==null) {
+            String msg = String.format("Can't find an action with class %s", handle.getActionName());
+            Log.e(TAG, msg);
+            throw new IllegalArgumentException(msg);
         }
+        return new Filter(handle.getName(), cr, fr, action);
     }
 
     @Override
@@ -139,10 +156,20 @@ public class Filter implements IAction, Serializable{
 
     @Override
     public void act(Context context, String number, LogInfo info) {
-        if (calendarRule.IsActive() && filterRule.Matches(number)) {
-            info.setNumTriggered(info.getNumTriggered() + 1);
-            info.setAction(action.getClass().getSimpleName());
-            action.act(context,number,info);
-        }
+        if (calendarRule.IsActive() && filterRule.Matches(number))
+            fire(context, number, info);
+    }
+
+    /**
+     * Perform the action without checking the rules, when the match
+     * has already been established (see {@link FilterIndex})
+     * @param context the Android context
+     * @param number the incoming number
+     * @param info logging information
+     */
+    public void fire(Context context, String number, LogInfo info) {
+        info.setNumTriggered(info.getNumTriggered() + 1);
+        info.setAction(action.getClass().getSimpleName());
+        action.act(context,number,info);
     }
 }
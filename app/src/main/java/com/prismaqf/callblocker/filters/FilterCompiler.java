@@ -0,0 +1,173 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FilterRule;
+import com.prismaqf.callblocker.rules.FrozenFilterRule;
+import com.prismaqf.callblocker.rules.ICalendarRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+import com.prismaqf.callblocker.rules.NoMatches;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the {@link FilterIndex} of the running service and keeps the compiled rules
+ * between builds, so that a build after a change only loads and compiles the rules
+ * invalidated since the previous one (compiling a rule with many patterns is the
+ * expensive part). The filters themselves are assembled again from their handles
+ * at every build, which is cheap. The index returned is immutable
+ * @author ConteDiMonteCristo
+ */
+public final class FilterCompiler {
+
+    /**
+     * Where the filters and their rules are read from (the database)
+     */
+    public interface Source {
+        List<FilterHandle> loadHandles() throws Exception;
+        Map<String, CalendarRule> loadCalendarRules(Collection<String> names) throws Exception;
+        Map<String, FilterRule> loadFilterRules(Collection<String> names) throws Exception;
+        IAction findAction(String name) throws Exception;
+    }
+
+    private final Source source;
+    //the compiled rules by name, accessed only while building
+    private final Map<String, FrozenFilterRule> filterRules = new HashMap<>();
+    private final Map<String, CalendarRule> calendarRules = new HashMap<>();
+    private final List<String> skipped = new ArrayList<>();
+    private int compiled = 0;
+    //the invalidations received since the last build, guarded by staleFilterRules
+    private final Set<String> staleFilterRules = new HashSet<>();
+    private final Set<String> staleCalendarRules = new HashSet<>();
+    private boolean allStale = false;
+
+    /**
+     * Constructor
+     * @param source the source of the filters
+     */
+    public FilterCompiler(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Recompile a filter rule on the next build
+     * @param name the rule name or null for all the rules
+     */
+    public void invalidateFilterRule(String name) {
+        synchronized (staleFilterRules) {
+            if (name == null) allStale = true;
+            else staleFilterRules.add(name);
+        }
+    }
+
+    /**
+     * Reload a calendar rule on the next build
+     * @param name the rule name or null for all the rules
+     */
+    public void invalidateCalendarRule(String name) {
+        synchronized (staleFilterRules) {
+            if (name == null) allStale = true;
+            else staleCalendarRules.add(name);
+        }
+    }
+
+    /**
+     * Recompile everything on the next build
+     */
+    public void clear() {
+        synchronized (staleFilterRules) {
+            allStale = true;
+        }
+    }
+
+    /**
+     * Apply the invalidations received so far. Those received later are
+     * applied by the next build
+     */
+    private void dropStale() {
+        synchronized (staleFilterRules) {
+            if (allStale) {
+                filterRules.clear();
+                calendarRules.clear();
+            }
+            else {
+                filterRules.keySet().removeAll(staleFilterRules);
+                calendarRules.keySet().removeAll(staleCalendarRules);
+            }
+            staleFilterRules.clear();
+            staleCalendarRules.clear();
+            allStale = false;
+        }
+    }
+
+    private static boolean isEmpty(String name) {
+        return name == null || name.isEmpty();
+    }
+
+    /**
+     * Build the index of all the filters, compiling only the rules which are not
+     * compiled yet. A filter referring to a rule or an action that does not exist
+     * is skipped (see {@link #getSkipped()})
+     * @return the new index
+     * @throws Exception the filters could not be read
+     */
+    public synchronized FilterIndex build() throws Exception {
+        dropStale();
+        List<FilterHandle> handles = source.loadHandles();
+        Set<String> usedFilterRules = new HashSet<>();
+        Set<String> usedCalendarRules = new HashSet<>();
+        for (FilterHandle h : handles) {
+            if (!isEmpty(h.getFilterRuleName())) usedFilterRules.add(h.getFilterRuleName());
+            if (!isEmpty(h.getCalendarRuleName())) usedCalendarRules.add(h.getCalendarRuleName());
+        }
+        //the rules no longer used are dropped, the missing ones loaded
+        filterRules.keySet().retainAll(usedFilterRules);
+        calendarRules.keySet().retainAll(usedCalendarRules);
+        usedFilterRules.removeAll(filterRules.keySet());
+        usedCalendarRules.removeAll(calendarRules.keySet());
+        if (!usedFilterRules.isEmpty()) {
+            for (Map.Entry<String, FilterRule> e : source.loadFilterRules(usedFilterRules).entrySet()) {
+                filterRules.put(e.getKey(), e.getValue().freeze());
+                compiled++;
+            }
+        }
+        if (!usedCalendarRules.isEmpty())
+            calendarRules.putAll(source.loadCalendarRules(usedCalendarRules));
+
+        skipped.clear();
+        List<Filter> filters = new ArrayList<>(handles.size());
+        for (FilterHandle h : handles) {
+            ICalendarRule cr = isEmpty(h.getCalendarRuleName()) ? new Always() : calendarRules.get(h.getCalendarRuleName());
+            IFilterRule fr = isEmpty(h.getFilterRuleName()) ? new NoMatches() : filterRules.get(h.getFilterRuleName());
+            IAction action = isEmpty(h.getActionName()) ? new Nothing() : source.findAction(h.getActionName());
+            if (cr == null || fr == null || action == null) {
+                skipped.add(h.getName());
+                continue;
+            }
+            filters.add(Filter.makeFilter(h.getName(), cr, fr, action));
+        }
+        return new FilterIndex(filters);
+    }
+
+    /**
+     * @return the names of the filters skipped by the last build
+     */
+    public synchronized List<String> getSkipped() {
+        return new ArrayList<>(skipped);
+    }
+
+    /**
+     * @return the number of filter rules compiled since the compiler was created
+     */
+    public synchronized int getCompiled() {
+        return compiled;
+    }
+}
@@ -0,0 +1,156 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.actions.AvailableAction;
+import com.prismaqf.callblocker.actions.LogIncoming;
+import com.prismaqf.callblocker.rules.ICalendarRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+import com.prismaqf.callblocker.rules.WeeklySchedule;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable index built from all the loaded filters, answering which filters
+ * fire for a number at a given instant. The calendar rules are compiled into a
+ * {@link FilterSchedule}, so only the filters active at the time of the call are
+ * considered, and filter rules shared by several filters are evaluated only once per call
+ * @author ConteDiMonteCristo
+ */
+public final class FilterIndex {
+
+    private final Filter[] filters;
+    private final int calendarRules;               //number of distinct calendar rules
+    private final FilterSchedule schedule;         //filters active in each slice of the week
+    private final IFilterRule[] filterRules;       //distinct filter rules
+    private final int[] ruleOf;                    //filter -> filter rule
+    private final boolean logging;
+    private final BitSet deferred;                 //filters with a deferred action
+
+    /**
+     * Constructor
+     * @param filters the filters to index (the order is preserved when acting)
+     */
+    public FilterIndex(List<Filter> filters) {
+        this.filters = filters.toArray(new Filter[filters.size()]);
+        ruleOf = new int[this.filters.length];
+        Map<ICalendarRule,WeeklySchedule> calendars = new HashMap<>();
+        Map<IFilterRule,Integer> rules = new HashMap<>();
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        List<IFilterRule> ruleList = new ArrayList<>();
+        boolean hasLogging = false;
+        deferred = new BitSet(this.filters.length);
+        for (int i=0; i<this.filters.length; i++) {
+            Filter f = this.filters[i];
+            WeeklySchedule ws = calendars.get(f.getCalendarRule());
+            if (ws == null) {
+                ws = f.getCalendarRule().getSchedule();
+                calendars.put(f.getCalendarRule(), ws);
+            }
+            schedules.add(ws);
+            Integer r = rules.get(f.getFilterRule());
+            if (r == null) {
+                r = ruleList.size();
+                rules.put(f.getFilterRule(), r);
+                ruleList.add(f.getFilterRule());
+            }
+            ruleOf[i] = r;
+            if (f.getAction().getName().equals(LogIncoming.class.getCanonicalName()))
+                hasLogging = true;
+            AvailableAction available = f.getAction().getClass().getAnnotation(AvailableAction.class);
+            if (available != null && available.deferred())
+                deferred.set(i);
+        }
+        calendarRules = calendars.size();
+        schedule = new FilterSchedule(schedules);
+        filterRules = ruleList.toArray(new IFilterRule[ruleList.size()]);
+        logging = hasLogging;
+    }
+
+    /**
+     * An index with no filters
+     * @return an empty index
+     */
+    public static FilterIndex empty() {
+        return new FilterIndex(new ArrayList<Filter>());
+    }
+
+    /**
+     * @return the number of filters indexed
+     */
+    public int size() {
+        return filters.length;
+    }
+
+    /**
+     * Access a filter by position
+     * @param i the position of the filter (the bit in the set returned by {@link #match(String, Date)})
+     * @return the filter
+     */
+    public Filter getFilter(int i) {
+        return filters[i];
+    }
+
+    /**
+     * Check if the action of a filter can wait until the call has been handled
+     * @param i the position of the filter
+     * @return true if the action is deferred (see {@link AvailableAction#deferred()})
+     */
+    public boolean isDeferred(int i) {
+        return deferred.get(i);
+    }
+
+    /**
+     * @return true if any filter logs the calls by itself
+     */
+    public boolean isLogging() {
+        return logging;
+    }
+
+    /**
+     * Evaluate all filters in one pass
+     * @param number the incoming number
+     * @param now the current time
+     * @return a set with the positions of the filters firing
+     */
+    public BitSet match(String number, Date now) {
+        return match(number, now.getTime());
+    }
+
+    /**
+     * Evaluate the filters active at a given instant in one pass
+     * @param number the incoming number
+     * @param epochMillis the current time in milliseconds since the epoch
+     * @return a set with the positions of the filters firing
+     */
+    public BitSet match(String number, long epochMillis) {
+        BitSet fired = new BitSet(filters.length);
+        byte[] outcome = new byte[filterRules.length]; //0 = not evaluated, 1 = match, 2 = no match
+        for (int f : schedule.activeAt(epochMillis)) {
+            int r = ruleOf[f];
+            if (outcome[r] == 0) outcome[r] = filterRules[r].Matches(number) ? (byte)1 : (byte)2;
+            if (outcome[r] == 1) fired.set(f);
+        }
+        return fired;
+    }
+
+    /**
+     * The instant until which {@link #match(String, long)} gives the same result for a number,
+     * i.e. the next change of the filters active at a given instant
+     * @param epochMillis the current time in milliseconds since the epoch
+     * @return the instant in milliseconds since the epoch or Long.MAX_VALUE if never
+     */
+    public long validUntil(long epochMillis) {
+        return schedule.activeUntil(epochMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Filter index [filters = %d, calendar rules = %d, filter rules = %d]",
+                             filters.length, calendarRules, filterRules.length);
+    }
+}
@@ -0,0 +1,123 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.rules.WeeklySchedule;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The weekly schedules of a list of filters merged into a single timeline of slices,
+ * each slice holding the precomputed list of filters active during it. The slice of
+ * the current time is cached and swapped only when a boundary is crossed or the default
+ * time zone changes, so that no calendar rule is evaluated when a call comes in
+ * @author ConteDiMonteCristo
+ */
+public final class FilterSchedule {
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The slice in force between two instants in a time zone
+     */
+    private static final class Slice {
+        final String zone;
+        final long from;
+        final long until;
+        final int[] active;
+
+        Slice(String zone, long from, long until, int[] active) {
+            this.zone = zone;
+            this.from = from;
+            this.until = until;
+            this.active = active;
+        }
+    }
+
+    private final int[] transitions;   //sorted minutes of the week where a slice starts
+    private final int[][] active;      //slice -> sorted positions of the active filters
+    private volatile Slice current = new Slice(null, Long.MAX_VALUE, Long.MIN_VALUE, NONE); //empty range: located at first use
+
+    /**
+     * Constructor
+     * @param schedules the weekly schedule of each filter
+     */
+    public FilterSchedule(List<WeeklySchedule> schedules) {
+        int[] all = new int[0];
+        for (WeeklySchedule s : schedules) {
+            int[] t = s.getTransitions();
+            int n = all.length;
+            all = Arrays.copyOf(all, n + t.length);
+            System.arraycopy(t, 0, all, n, t.length);
+        }
+        Arrays.sort(all);
+        int count = 0;
+        for (int i=0; i<all.length; i++)
+            if (i == 0 || all[i] != all[i-1]) all[count++] = all[i];
+        transitions = Arrays.copyOf(all, count);
+
+        int slices = Math.max(transitions.length, 1);
+        active = new int[slices][];
+        int[] buffer = new int[schedules.size()];
+        for (int s=0; s<slices; s++) {
+            int start = transitions.length == 0 ? 0 : transitions[s];
+            int n = 0;
+            for (int f=0; f<schedules.size(); f++)
+                if (schedules.get(f).isActiveAt(start)) buffer[n++] = f;
+            active[s] = Arrays.copyOf(buffer, n);
+        }
+    }
+
+    /**
+     * @return the number of slices in the week
+     */
+    public int getNumberOfSlices() {
+        return active.length;
+    }
+
+    /**
+     * The filters active at a given minute of the week
+     * @param minuteOfWeek the minute [0-10079], 0 being Monday 00:00
+     * @return the sorted positions of the active filters (not to be modified)
+     */
+    public int[] activeAt(int minuteOfWeek) {
+        return active[sliceOf(minuteOfWeek)];
+    }
+
+    /**
+     * The filters active at a given instant in the default time zone. The slice found is
+     * kept until its end or a change of the zone, so that consecutive calls cost a few comparisons
+     * @param epochMillis the instant in milliseconds since the epoch
+     * @return the sorted positions of the active filters (not to be modified)
+     */
+    public int[] activeAt(long epochMillis) {
+        return sliceAt(epochMillis).active;
+    }
+
+    /**
+     * The end of the slice in force at a given instant, when the active filters next change
+     * @param epochMillis the instant in milliseconds since the epoch
+     * @return the end of the slice in milliseconds since the epoch or Long.MAX_VALUE if never
+     */
+    public long activeUntil(long epochMillis) {
+        return sliceAt(epochMillis).until;
+    }
+
+    private Slice sliceAt(long epochMillis) {
+        TimeZone tz = TimeZone.getDefault();
+        Slice slice = current;
+        if (epochMillis < slice.from || epochMillis >= slice.until || !tz.getID().equals(slice.zone)) {
+            int[] filters = activeAt(WeeklySchedule.minuteOfWeek(epochMillis, tz));
+            slice = new Slice(tz.getID(), epochMillis, WeeklySchedule.nextTransition(transitions, epochMillis, tz), filters);
+            current = slice;
+        }
+        return slice;
+    }
+
+    private int sliceOf(int minuteOfWeek) {
+        if (transitions.length == 0) return 0;
+        int pos = Arrays.binarySearch(transitions, minuteOfWeek);
+        if (pos < 0) pos = -pos - 2; //the last slice starting before the minute
+        return pos < 0 ? transitions.length - 1 : pos; //before the first start is the end of the week before
+    }
+}
@@ -0,0 +1,268 @@
+package com.prismaqf.callblocker.rules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable filter rule with the same semantics of {@link FilterRule}, where
+ * every literal group of digits of every pattern is indexed in a single Aho-Corasick
+ * automaton. A number is scanned once: each group found advances the patterns waiting
+ * for it, provided the group starts at least one digit after the end of the previous
+ * group of the same pattern (the '*' separator). This costs one scan per call whatever
+ * the number of wildcard patterns, instead of one regex execution per pattern. The
+ * progress of the patterns is kept in arrays reused by the scans of each thread, so
+ * matching does not allocate. {@link FrozenFilterRule} matches with it
+ * @author ConteDiMonteCristo
+ */
+public final class AhoCorasickRule implements IFilterRule {
+
+    private static final Pattern SEPARATOR = Pattern.compile("\\*+");
+
+    private final String name;
+    private final Set<String> keys;      //exact keys, as in FilterRule
+    private final boolean matchAll;      //the empty pattern matches any number
+
+    //automaton: full transition table (goto + failure) and output links
+    private final int[] delta;           //state*10 + digit -> state
+    private final int[] segmentAt;       //segment ending at a state or -1
+    private final int[] outputLink;      //next state on the suffix chain with a segment or -1
+
+    //segments and the patterns using them
+    private final int[] segmentLength;
+    private final boolean[] segmentCompletes; //a pattern made of this segment only
+    private final int[][] occurrencePattern;  //segment -> patterns using it
+    private final int[][] occurrenceIndex;    //segment -> position of the segment in the pattern
+    private final int[] patternSegments;      //pattern -> number of segments
+
+    private final ThreadLocal<Progress> progress = new ThreadLocal<Progress>() {
+        @Override
+        protected Progress initialValue() {
+            return new Progress(patternSegments.length);
+        }
+    };
+
+    /**
+     * The progress of the patterns in a scan, reused by the scans of a thread. A pattern
+     * has made progress only if its stamp is the one of the current scan, so that starting
+     * a scan (or a reset on a '*') does not need to clear the arrays
+     */
+    private static final class Progress {
+        final int[] stamp;   //pattern -> scan of the progress
+        final int[] next;    //pattern -> next segment expected
+        final int[] end;     //pattern -> position where the previous segment ended
+        int scan;
+
+        Progress(int patterns) {
+            stamp = new int[patterns];
+            next = new int[patterns];
+            end = new int[patterns];
+        }
+
+        int reset() {
+            if (++scan == 0) { //wrapped around: the old stamps could be taken as current
+                Arrays.fill(stamp, 0);
+                scan = 1;
+            }
+            return scan;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param name the name of the rule
+     * @param patterns the client patterns (digit groups separated by '*')
+     */
+    public AhoCorasickRule(String name, Collection<String> patterns) {
+        this.name = name;
+        keys = new HashSet<>();
+        for (String p : patterns)
+            keys.add(FilterRule.filterUnwanted(p));
+
+        //1. split the patterns into segments
+        Map<String,Integer> segmentIds = new HashMap<>();
+        List<String> segments = new ArrayList<>();
+        List<List<int[]>> occurrences = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        boolean all = false;
+        for (String key : keys) {
+            if (key.isEmpty()) {
+                all = true;
+                continue;
+            }
+            String[] tokens = SEPARATOR.split(key);
+            int pid = counts.size();
+            counts.add(tokens.length);
+            for (int j=0; j<tokens.length; j++) {
+                Integer sid = segmentIds.get(tokens[j]);
+                if (sid == null) {
+                    sid = segments.size();
+                    segmentIds.put(tokens[j], sid);
+                    segments.add(tokens[j]);
+                    occurrences.add(new ArrayList<int[]>());
+                }
+                occurrences.get(sid).add(new int[]{pid, j});
+            }
+        }
+        matchAll = all;
+        int nseg = segments.size();
+        segmentLength = new int[nseg];
+        segmentCompletes = new boolean[nseg];
+        occurrencePattern = new int[nseg][];
+        occurrenceIndex = new int[nseg][];
+        patternSegments = new int[counts.size()];
+        for (int p=0; p<patternSegments.length; p++)
+            patternSegments[p] = counts.get(p);
+        for (int s=0; s<nseg; s++) {
+            segmentLength[s] = segments.get(s).length();
+            List<int[]> occ = occurrences.get(s);
+            occurrencePattern[s] = new int[occ.size()];
+            occurrenceIndex[s] = new int[occ.size()];
+            for (int k=0; k<occ.size(); k++) {
+                occurrencePattern[s][k] = occ.get(k)[0];
+                occurrenceIndex[s][k] = occ.get(k)[1];
+                if (patternSegments[occ.get(k)[0]] == 1) segmentCompletes[s] = true;
+            }
+        }
+
+        //2. build the trie of the segments
+        int capacity = 1;
+        for (String s : segments) capacity += s.length();
+        int[] go = new int[capacity*10];
+        Arrays.fill(go, -1);
+        int[] seg = new int[capacity];
+        Arrays.fill(seg, -1);
+        int nstates = 1;
+        for (int s=0; s<nseg; s++) {
+            String segment = segments.get(s);
+            int state = 0;
+            for (int i=0; i<segment.length(); i++) {
+                int d = segment.charAt(i) - '0';
+                if (go[state*10+d] < 0) go[state*10+d] = nstates++;
+                state = go[state*10+d];
+            }
+            seg[state] = s;
+        }
+
+        //3. breadth first construction of failure and output links
+        delta = Arrays.copyOf(go, nstates*10);
+        segmentAt = Arrays.copyOf(seg, nstates);
+        outputLink = new int[nstates];
+        int[] fail = new int[nstates];
+        Arrays.fill(outputLink, -1);
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int d=0; d<10; d++) {
+            int child = delta[d];
+            if (child < 0) delta[d] = 0;
+            else {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int f = fail[state];
+            outputLink[state] = segmentAt[f] >= 0 ? f : outputLink[f];
+            for (int d=0; d<10; d++) {
+                int child = delta[state*10+d];
+                if (child < 0) delta[state*10+d] = delta[f*10+d];
+                else {
+                    fail[child] = delta[f*10+d];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of patterns in the rule
+     */
+    public int getNumberOfPatterns() {
+        return keys.size();
+    }
+
+    /**
+     * @return the number of states of the automaton
+     */
+    public int getNumberOfStates() {
+        return segmentAt.length;
+    }
+
+    @Override
+    public boolean Matches(String number) {
+        if (number == null) return false;
+        if (matchAll) return true;
+        NumberNormalizer normalized = NumberNormalizer.get().normalize(number);
+        if (normalized.hasWildcard() && keys.contains(normalized.toString())) return true;
+        return matches(normalized);
+    }
+
+    /**
+     * Scan a number once for the patterns of the rule
+     * @param number a number already stripped of unwanted chars
+     * @return a flag indicating a match
+     */
+    boolean matches(CharSequence number) {
+        if (matchAll) return true;
+        if (segmentLength.length == 0) return false;
+        Progress p = progress.get();
+        int scan = p.reset();
+        int[] stamp = p.stamp;
+        int[] next = p.next;
+        int[] end = p.end;
+        int state = 0;
+        for (int i=0; i<number.length(); i++) {
+            int d = number.charAt(i) - '0';
+            if (d < 0 || d > 9) { //a '*' can be neither part of a group nor of a gap
+                state = 0;
+                scan = p.reset();
+                continue;
+            }
+            state = delta[state*10+d];
+            for (int s = segmentAt[state] >= 0 ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+                int sid = segmentAt[s];
+                if (segmentCompletes[sid]) return true;
+                int start = i - segmentLength[sid] + 1;
+                int[] patterns = occurrencePattern[sid];
+                int[] indexes = occurrenceIndex[sid];
+                for (int k=0; k<patterns.length; k++) {
+                    int pid = patterns[k];
+                    int j = indexes[k];
+                    if (j == 0) {
+                        //the earliest end of the first group is the best one
+                        if (stamp[pid] != scan) {
+                            stamp[pid] = scan;
+                            next[pid] = 1;
+                            end[pid] = i;
+                        }
+                    }
+                    else if (stamp[pid] == scan && next[pid] == j && start > end[pid] + 1) {
+                        next[pid] = j + 1;
+                        end[pid] = i;
+                        if (next[pid] == patternSegments[pid]) return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Rule %s [total number of patterns = %d, states = %d]",name,keys.size(),segmentAt.length);
+    }
+}
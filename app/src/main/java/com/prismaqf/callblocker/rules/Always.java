@@ -24,4 +24,19 @@ public class Always implements ICalendarRule {
     public boolean IsActive() {
         return true;
     }
+
+    @Override
+    public boolean IsActive(long epochMillis) {
+        return true;
+    }
+
+    @Override
+    public long nextTransition(long epochMillis) {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public WeeklySchedule getSchedule() {
+        return WeeklySchedule.ALWAYS;
+    }
 }
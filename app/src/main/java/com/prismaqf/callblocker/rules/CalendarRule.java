@@ -3,11 +3,14 @@ package com.prismaqf.callblocker.rules;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Custom calendar rule, with days of week and start stop times
@@ -22,6 +25,8 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
     private int startMin;
     private int endHour;
     private int endMin;
+    //compiled form, replaced whenever the days or the times change
+    private transient volatile WeeklySchedule schedule;
 
     public String getName() {
         return name;
@@ -31,12 +36,36 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
         this.name = name;
     }
 
+    /**
+     * @return a copy of the days of the rule, to be changed with the setters
+     */
     public EnumSet<DayOfWeek> getDayMask() {
-        return dayMask;
+        return EnumSet.copyOf(dayMask);
     }
 
     public void setDayMask(EnumSet<DayOfWeek> dayMask) {
-        this.dayMask = dayMask;
+        this.dayMask = EnumSet.copyOf(dayMask);
+        compile();
+    }
+
+    /**
+     * Add days to the rule
+     * @param days the days to add
+     */
+    public void addDays(EnumSet<DayOfWeek> days) {
+        EnumSet<DayOfWeek> mask = getDayMask();
+        mask.addAll(days);
+        setDayMask(mask);
+    }
+
+    /**
+     * Remove a day from the rule
+     * @param day the day to remove
+     */
+    public void removeDay(DayOfWeek day) {
+        EnumSet<DayOfWeek> mask = getDayMask();
+        mask.remove(day);
+        setDayMask(mask);
     }
 
     public int getStartHour() {
@@ -45,6 +74,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
 
     public void setStartHour(int startHour) {
         this.startHour = startHour;
+        compile();
     }
 
     public int getStartMin() {
@@ -53,6 +83,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
 
     public void setStartMin(int startMin) {
         this.startMin = startMin;
+        compile();
     }
 
     public int getEndHour() {
@@ -61,6 +92,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
 
     public void setEndHour(int endHour) {
         this.endHour = endHour;
+        compile();
     }
 
     public int getEndMin() {
@@ -69,6 +101,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
 
     public void setEndMin(int endMin) {
         this.endMin = endMin;
+        compile();
     }
 
     public String getStartTime() { return String.format(Locale.getDefault(),"From %02d:%02d",startHour, startMin);}
@@ -91,11 +124,12 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
      */
     public CalendarRule(String name, EnumSet<DayOfWeek> dayMask, int startHour, int startMin, int endHour, int endMin) {
         this.name = name;
-        this.dayMask = dayMask;
+        this.dayMask = EnumSet.copyOf(dayMask);
         this.startHour = startHour;
         this.startMin = startMin;
         this.endHour = endHour;
         this.endMin = endMin;
+        compile();
     }
 
     /**
@@ -106,11 +140,12 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
      */
     public CalendarRule(String name, EnumSet<DayOfWeek> dayMask) {
         this.name = name;
-        this.dayMask = dayMask;
+        this.dayMask = EnumSet.copyOf(dayMask);
         this.startHour = 0;
         this.startMin = 0;
         this.endHour = 23;
         this.endMin = 59;
+        compile();
     }
 
     /**
@@ -123,6 +158,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
         this.startMin = 0;
         this.endHour = 23;
         this.endMin = 59;
+        compile();
     }
 
 
@@ -134,23 +170,27 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
         startMin = in.readInt();
         endHour = in.readInt();
         endMin = in.readInt();
+        compile();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        compile();
     }
 
     public static CalendarRule makeRule(String name, int dayMask, String from, String to) {
-        CalendarRule rule = new CalendarRule();
-        rule.setName(name);
-        rule.setDayMask(makeMask(dayMask));
+        int startHour = 0, startMin = 0, endHour = 23, endMin = 59;
         String[] start = from.split(":");
         if (start.length==2) {
-            rule.setStartHour(Integer.valueOf(start[0]));
-            rule.setStartMin(Integer.valueOf(start[1]));
+            startHour = Integer.valueOf(start[0]);
+            startMin = Integer.valueOf(start[1]);
         }
         String[] end = to.split(":");
         if (end.length==2) {
-            rule.setEndHour(Integer.valueOf(end[0]));
-            rule.setEndMin(Integer.valueOf(end[1]));
+            endHour = Integer.valueOf(end[0]);
+            endMin = Integer.valueOf(end[1]);
         }
-        return rule;
+        return new CalendarRule(name, makeMask(dayMask), startHour, startMin, endHour, endMin);
     }
 
     @Override
@@ -231,25 +271,36 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
 
     @Override
     public boolean IsActive(Date currentTime) {
-        Calendar cal = Calendar.getInstance(Locale.getDefault());
-        cal.setTime(currentTime);
-        DayOfWeek dow = DayOfWeek.getDayFromCalDay(cal.get(Calendar.DAY_OF_WEEK));
-        int hour = cal.get(Calendar.HOUR_OF_DAY);
-        int min = cal.get(Calendar.MINUTE);
+        return IsActive(currentTime.getTime());
+    }
 
-        int numMins = hour*60 + min;
-        int starTotMins = startHour*60 + startMin;
-        int endTotMins = endHour*60 + endMin;
+    @Override
+    public boolean IsActive() {
+        return IsActive(System.currentTimeMillis());
+    }
 
-        return dayMask.contains(dow) &&
-                numMins >= starTotMins &&
-                numMins <= endTotMins;
+    @Override
+    public boolean IsActive(long epochMillis) {
+        return schedule.isActive(epochMillis, TimeZone.getDefault());
     }
 
     @Override
-    public boolean IsActive() {
-        Calendar cal = Calendar.getInstance(Locale.getDefault());
-        return IsActive(cal.getTime());
+    public long nextTransition(long epochMillis) {
+        return schedule.nextTransition(epochMillis);
+    }
+
+    /**
+     * The rule compiled as a weekly bitmap, when it is built and every time
+     * the days or the times of the rule change
+     * @return the compiled schedule
+     */
+    @Override
+    public WeeklySchedule getSchedule() {
+        return schedule;
+    }
+
+    private void compile() {
+        schedule = new WeeklySchedule(getBinaryMask(), startHour*60 + startMin, endHour*60 + endMin);
     }
 
     @Override
@@ -328,7 +379,7 @@ public class CalendarRule implements ICalendarRule, Cloneable, Parcelable, Seria
     @Override
     public Object clone() throws CloneNotSupportedException {
         CalendarRule other = (CalendarRule) super.clone();
-        other.setDayMask(EnumSet.copyOf(getDayMask()));
+        other.dayMask = EnumSet.copyOf(dayMask); //the compiled schedule is immutable and shared
         return other;
     }
 }
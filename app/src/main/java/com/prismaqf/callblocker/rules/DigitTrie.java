@@ -0,0 +1,244 @@
+package com.prismaqf.callblocker.rules;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled automaton equivalent to the regex produced by {@link FilterRule#makeRegex(String)}
+ * for a whole set of patterns. Groups of digits are stored in a trie, while a '*' separator
+ * becomes a wildcard edge consuming one or more digits. A number is matched by a single pass
+ * over its characters, starting a new walk from the root at each position, which gives the
+ * same "match anywhere" semantics of Matcher.find()
+ * @author ConteDiMonteCristo
+ */
+final class DigitTrie {
+
+    /**
+     * A state of the automaton
+     */
+    static final class Node {
+        final Node[] next = new Node[10];
+        Node wildcard;          //edge for a '*' separator
+        boolean isWildcard;     //this node has consumed at least one digit of a '*'
+        boolean terminal;       //a pattern ends here
+        int fanout;             //number of outgoing edges (used for pruning)
+    }
+
+    //the header of an encoded state (see encode): a bit per digit edge, then the flags
+    static final int WILDCARD_EDGE = 1 << 10;
+    static final int IS_WILDCARD = 1 << 11;
+    static final int TERMINAL = 1 << 12;
+    static final int DIGIT_EDGES = WILDCARD_EDGE - 1;
+
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * @return the number of patterns stored
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add a pattern
+     * @param key a pattern already stripped of unwanted chars (see {@link FilterRule#filterUnwanted(String)})
+     */
+    void add(String key) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            char c = key.charAt(i);
+            Node child;
+            if (c == '*') {
+                while (i < key.length() && key.charAt(i) == '*') i++;
+                child = node.wildcard;
+                if (child == null) {
+                    child = new Node();
+                    child.isWildcard = true;
+                    node.wildcard = child;
+                    node.fanout++;
+                }
+            } else {
+                int d = c - '0';
+                i++;
+                if (d < 0 || d > 9) continue;
+                child = node.next[d];
+                if (child == null) {
+                    child = new Node();
+                    node.next[d] = child;
+                    node.fanout++;
+                }
+            }
+            node = child;
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            size++;
+        }
+    }
+
+    /**
+     * Remove a pattern, pruning the states that are no longer used
+     * @param key a pattern already stripped of unwanted chars
+     */
+    void remove(String key) {
+        List<Node> path = new ArrayList<>();
+        List<Integer> edges = new ArrayList<>(); //-1 for the wildcard edge
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            char c = key.charAt(i);
+            int edge;
+            if (c == '*') {
+                while (i < key.length() && key.charAt(i) == '*') i++;
+                edge = -1;
+            } else {
+                edge = c - '0';
+                i++;
+                if (edge < 0 || edge > 9) continue;
+            }
+            Node child = edge < 0 ? node.wildcard : node.next[edge];
+            if (child == null) return; //not found
+            path.add(node);
+            edges.add(edge);
+            node = child;
+        }
+        if (!node.terminal) return;
+        node.terminal = false;
+        size--;
+        //prune from the bottom
+        for (int k = path.size() - 1; k >= 0 && !node.terminal && node.fanout == 0; k--) {
+            Node parent = path.get(k);
+            int edge = edges.get(k);
+            if (edge < 0) parent.wildcard = null;
+            else parent.next[edge] = null;
+            parent.fanout--;
+            node = parent;
+        }
+    }
+
+    /**
+     * Remove all patterns
+     */
+    void clear() {
+        for (int d = 0; d < 10; d++) root.next[d] = null;
+        root.wildcard = null;
+        root.terminal = false;
+        root.fanout = 0;
+        size = 0;
+    }
+
+    /**
+     * A deep copy of the automaton, to be published as an immutable snapshot
+     * @return a new trie with the same patterns
+     */
+    DigitTrie copy() {
+        DigitTrie other = new DigitTrie();
+        copy(root, other.root);
+        other.size = size;
+        return other;
+    }
+
+    private static void copy(Node from, Node to) {
+        to.isWildcard = from.isWildcard;
+        to.terminal = from.terminal;
+        to.fanout = from.fanout;
+        for (int d = 0; d < 10; d++)
+            if (from.next[d] != null) {
+                to.next[d] = new Node();
+                copy(from.next[d], to.next[d]);
+            }
+        if (from.wildcard != null) {
+            to.wildcard = new Node();
+            copy(from.wildcard, to.wildcard);
+        }
+    }
+
+    /**
+     * The automaton as an array of ints, to be stored in a binary file and matched in
+     * place (see {@link MappedFilterRule}). Each state is a header with its flags and
+     * a bit for each edge, followed by the positions of the targets of its edges, in
+     * the order of the digits and then the wildcard edge. The root is at position 0
+     * @return the encoded states
+     */
+    int[] encode() {
+        //positions in breadth first order (the trie is a tree)
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> positions = new IdentityHashMap<>();
+        nodes.add(root);
+        int length = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            positions.put(node, length);
+            length += 1 + node.fanout;
+            for (int d = 0; d < 10; d++)
+                if (node.next[d] != null) nodes.add(node.next[d]);
+            if (node.wildcard != null) nodes.add(node.wildcard);
+        }
+        int[] states = new int[length];
+        int p = 0;
+        for (Node node : nodes) {
+            int header = 0;
+            for (int d = 0; d < 10; d++)
+                if (node.next[d] != null) header |= 1 << d;
+            if (node.wildcard != null) header |= WILDCARD_EDGE;
+            if (node.isWildcard) header |= IS_WILDCARD;
+            if (node.terminal) header |= TERMINAL;
+            states[p++] = header;
+            for (int d = 0; d < 10; d++)
+                if (node.next[d] != null) states[p++] = positions.get(node.next[d]);
+            if (node.wildcard != null) states[p++] = positions.get(node.wildcard);
+        }
+        return states;
+    }
+
+    /**
+     * Check if any pattern is found in the number
+     * @param number a number already stripped of unwanted chars
+     * @return a flag indicating a match
+     */
+    boolean matches(CharSequence number) {
+        return matches(number, 0, number.length());
+    }
+
+    /**
+     * Check if any pattern is found in a section of a char sequence
+     * @param number a number already stripped of unwanted chars
+     * @param start the first char to scan
+     * @param end one past the last char to scan
+     * @return a flag indicating a match
+     */
+    boolean matches(CharSequence number, int start, int end) {
+        if (root.terminal) return true; //the empty pattern matches anything
+        if (size == 0) return false;
+        List<Node> current = new ArrayList<>();
+        List<Node> next = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            current.add(root); //a match can start at any position
+            int d = number.charAt(i) - '0';
+            if (d < 0 || d > 9) { //only digits can be matched
+                current.clear();
+                continue;
+            }
+            for (Node s : current) {
+                if (s.next[d] != null && step(s.next[d], next)) return true;
+                if (s.wildcard != null && step(s.wildcard, next)) return true;
+                if (s.isWildcard && step(s, next)) return true;
+            }
+            List<Node> tmp = current;
+            current = next;
+            next = tmp;
+            next.clear();
+        }
+        return false;
+    }
+
+    private static boolean step(Node target, List<Node> states) {
+        if (target.terminal) return true;
+        if (!states.contains(target)) states.add(target);
+        return false;
+    }
+}
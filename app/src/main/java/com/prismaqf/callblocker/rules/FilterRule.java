@@ -3,6 +3,8 @@ package com.prismaqf.callblocker.rules;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Locale;
 import java.util.Map;
@@ -20,12 +22,9 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
     private String name;
     private String description;
     private Map<String,Pattern> patterns;
-    //characters not allowed in a patter: non digits and everything else apart from *
-    private static final Pattern NOT_ALLOWED = Pattern.compile("[^\\d*]");
-    private static final Pattern LEFT_TRIM = Pattern.compile("^\\*+");
-    private static final Pattern RIGHT_TRIM = Pattern.compile("\\*+$");
+    private transient DigitTrie trie; //compiled from the keys, used for matching
+    private transient volatile FrozenFilterRule frozen; //copy-on-write snapshot, null when stale
     private static final Pattern SEPARATOR = Pattern.compile("\\*+");
-    private static final StringBuilder sbuilder = new StringBuilder();
 
     /**
      * Constructor
@@ -36,12 +35,14 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
         this.name = name;
         this.description = description;
         patterns = new TreeMap<>();
+        trie = new DigitTrie();
     }
 
     private FilterRule(Parcel in) {
         name = in.readString();
         description = in.readString();
         patterns = new TreeMap<>();
+        trie = new DigitTrie();
         int size = in.readInt();
         for (int i=0; i<size; i++)
             addPattern(in.readString());
@@ -51,16 +52,18 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
         return name;
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
+        frozen = null;
     }
 
     public String getDescription() {
         return description;
     }
 
-    public void setDescription(String description) {
+    public synchronized void setDescription(String description) {
         this.description = description;
+        frozen = null;
     }
 
     //managing patterns (adding, getting removing
@@ -89,6 +92,8 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
         if (patterns.containsKey(key)) return;
         key = filterUnwanted(key);
         patterns.put(key, makeRegex(key));
+        trie.add(key);
+        frozen = null;
     }
 
 
@@ -97,7 +102,10 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
      * @param key the string that maps to a regex expressionif
      */
     public synchronized void removePattern(String key) {
-        patterns.remove(key);
+        if (patterns.remove(key) != null) {
+            trie.remove(key);
+            frozen = null;
+        }
     }
 
     /**
@@ -105,6 +113,24 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
      */
     public synchronized void clearPatterns() {
         patterns.clear();
+        trie.clear();
+        frozen = null;
+    }
+
+    /**
+     * Get an immutable snapshot of the rule, to be used for matching without locks.
+     * The snapshot is shared until the rule is modified, after which a new one is
+     * created on the next call (copy-on-write)
+     * @return the compiled snapshot
+     */
+    public FrozenFilterRule freeze() {
+        FrozenFilterRule snapshot = frozen;
+        if (snapshot != null) return snapshot;
+        synchronized (this) {
+            if (frozen == null)
+                frozen = new FrozenFilterRule(name, description, patterns.keySet(), trie);
+            return frozen;
+        }
     }
 
     /**
@@ -119,7 +145,7 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
 
         String[] tokens = SEPARATOR.split(key);
         if (tokens.length==0 || tokens[0].isEmpty()) return Pattern.compile("\\d*"); //always matching any digit
-        sbuilder.setLength(0);
+        StringBuilder sbuilder = new StringBuilder();
         sbuilder.append(tokens[0]);
         for (int i=1;i<tokens.length;i++) {
             sbuilder.append("\\d+");
@@ -128,27 +154,27 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
         return Pattern.compile(sbuilder.toString());
     }
 
+    /**
+     * Remove everything that is not a digit or a * sign, and the * signs
+     * at the beginning and at the end
+     * @param key the client key or number
+     * @return the canonical form
+     */
     static String filterUnwanted(String key) {
-        //first clean up everything that is not a digit or a * sign
-        if (NOT_ALLOWED.matcher(key).find())
-            key = NOT_ALLOWED.matcher(key).replaceAll("");
-        if (LEFT_TRIM.matcher(key).find())
-            key = LEFT_TRIM.matcher(key).replaceFirst("");
-        if (RIGHT_TRIM.matcher(key).find())
-            key = RIGHT_TRIM.matcher(key).replaceFirst("");
-        return key;
+        //a private normalizer: the thread one might be in use by the caller
+        return new NumberNormalizer().normalize(key).toString();
     }
 
     @Override
     public synchronized boolean Matches(String number) {
         if (number == null) return false;
         //purify the number
-        number = filterUnwanted(number);
-        //check first if the number is one of the patterns
-        if (patterns.containsKey(number)) return true;
-        for(Pattern p:patterns.values())
-            if (p.matcher(number).find()) return true;
-        return false;
+        NumberNormalizer normalized = NumberNormalizer.get().normalize(number);
+        //check first if the number is one of the patterns: without a '*'
+        //an exact key is also found by the automaton, so no string is needed
+        if (normalized.hasWildcard() && patterns.containsKey(normalized.toString())) return true;
+        //then run the compiled automaton (equivalent to find() on each regex)
+        return trie.matches(normalized);
     }
 
     //override some Object methods
@@ -188,11 +214,20 @@ public class FilterRule implements IFilterRule, Cloneable, Parcelable, Serializa
     public Object clone() throws CloneNotSupportedException {
         FilterRule other = (FilterRule) super.clone();
         other.patterns = new TreeMap<>();
+        other.trie = new DigitTrie();
+        other.frozen = null;
         for (String key: patterns.keySet())
             other.addPattern(key);
         return other;
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        trie = new DigitTrie();
+        for (String key: patterns.keySet())
+            trie.add(key);
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -0,0 +1,162 @@
+package com.prismaqf.callblocker.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An immutable, compiled snapshot of a {@link FilterRule} (see {@link FilterRule#freeze()}).
+ * It is used by the running service to match numbers without taking any lock, while the
+ * editors keep working on the mutable FilterRule. The plain numbers of a large rule are kept
+ * in a {@link MappedBlocklist} rather than in the automaton, which then holds only the rest.
+ * The numbers are matched with an {@link AhoCorasickRule}, the trie is only kept to be encoded
+ * @author ConteDiMonteCristo
+ */
+public final class FrozenFilterRule implements IFilterRule {
+
+    public static final int BLOCKLIST_MIN = 1000; //plain numbers for a blocklist instead of the automaton
+
+    private final String name;
+    private final String description;
+    private final Set<String> keys;
+    private final DigitTrie trie;
+    private final AhoCorasickRule automaton; //the keys of the trie
+    private final MappedBlocklist blocklist; //null for the small rules
+    private final GramBloomFilter precheck; //null when the patterns are not selective enough
+    private final AhoCorasickRule uncovered; //the patterns left out of the precheck or null
+    private final int hash;
+
+    /**
+     * Constructor
+     * @param name the rule name
+     * @param description the rule description
+     * @param keys the pattern keys
+     * @param trie the automaton of all the keys (copied, it is not kept)
+     */
+    FrozenFilterRule(String name, String description, Set<String> keys, DigitTrie trie) {
+        this.name = name;
+        this.description = description;
+        this.keys = Collections.unmodifiableSet(new HashSet<>(keys));
+        List<String> numbers = new ArrayList<>();
+        for (String key : this.keys)
+            if (!key.isEmpty() && key.length() <= MappedBlocklist.MAX_DIGITS && key.indexOf('*') < 0)
+                numbers.add(key);
+        if (numbers.size() >= BLOCKLIST_MIN) {
+            blocklist = MappedBlocklist.fromNumbers(name, numbers);
+            this.trie = new DigitTrie();
+            List<String> others = new ArrayList<>();
+            for (String key : this.keys)
+                if (key.isEmpty() || key.length() > MappedBlocklist.MAX_DIGITS || key.indexOf('*') >= 0) {
+                    this.trie.add(key);
+                    others.add(key);
+                }
+            automaton = new AhoCorasickRule(name, others);
+        }
+        else {
+            blocklist = null;
+            this.trie = trie.copy();
+            automaton = new AhoCorasickRule(name, this.keys);
+        }
+        precheck = GramBloomFilter.build(this.keys);
+        Set<String> rest = getUncoveredKeys();
+        uncovered = rest.isEmpty() ? null : new AhoCorasickRule(name, rest);
+        hash = computeHash();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the (unmodifiable) set of keys associated with patterns
+     */
+    public Set<String> getPatternKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the Bloom filter checked before the automaton or null if there is none
+     */
+    public GramBloomFilter getPrecheck() {
+        return precheck;
+    }
+
+    /**
+     * @return the keys left out of the precheck, which are matched for any number
+     */
+    public Set<String> getUncoveredKeys() {
+        Set<String> rest = new HashSet<>();
+        if (precheck != null)
+            for (String key : keys)
+                if (!precheck.covers(key)) rest.add(key);
+        return rest;
+    }
+
+    /**
+     * @return the blocklist of the plain numbers or null if they are in the automaton
+     */
+    public MappedBlocklist getBlocklist() {
+        return blocklist;
+    }
+
+    /**
+     * The compiled automaton of the rule, encoded to be stored in a binary file
+     * (see {@link MappedFilterRule})
+     * @return the encoded states of the automaton
+     */
+    public int[] encodeAutomaton() {
+        return trie.encode();
+    }
+
+    @Override
+    public boolean Matches(String number) {
+        if (number == null) return false;
+        NumberNormalizer normalized = NumberNormalizer.get().normalize(number);
+        if (normalized.hasWildcard() && keys.contains(normalized.toString())) return true;
+        //the few short patterns first, then most callers are not in any list:
+        //reject them without running the automaton
+        if (uncovered != null && uncovered.matches(normalized)) return true;
+        if (precheck != null && !precheck.mightMatch(normalized)) return false;
+        if (blocklist != null && blocklist.matches(normalized)) return true;
+        return automaton.matches(normalized);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Rule %s [description = %s, total number of patterns = %d, precheck = %s]",
+                             name,description,keys.size(),precheck == null ? "none" : precheck);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof FrozenFilterRule)) return false;
+        FrozenFilterRule other = (FrozenFilterRule)o;
+        return hash == other.hash &&
+               name.equals(other.name) &&
+               (description == null ? other.description == null : description.equals(other.description)) &&
+               keys.equals(other.keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private int computeHash() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + name.hashCode();
+        result = prime * result + (description == null ? 0 : description.hashCode());
+        result = prime * result + keys.hashCode();
+        return result;
+    }
+}
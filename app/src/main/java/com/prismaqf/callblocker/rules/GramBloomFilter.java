@@ -0,0 +1,227 @@
+package com.prismaqf.callblocker.rules;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A Bloom filter on the first digits of every pattern of a rule, used to reject most
+ * numbers before running the automaton. A pattern can only match a number containing
+ * its first group of digits, hence the first <i>gram</i> digits of it: when none of the
+ * windows of that length of the number is in the filter, no pattern matches. The patterns
+ * starting with a group shorter than {@link #MIN_GRAM} are left out (see {@link #covers(String)})
+ * and must always be matched. The filter is not built when the leading digits cover so many
+ * of the possible values that most numbers would pass. It can be stored in a binary file
+ * with the automaton of its rule (see {@link MappedFilterRule})
+ * @author ConteDiMonteCristo
+ */
+public final class GramBloomFilter {
+
+    public static final int MIN_GRAM = 3;
+    public static final int MAX_GRAM = 12;
+    private static final double TARGET_FPP = 0.01;
+    private static final double LN2 = Math.log(2);
+    private static final double MAX_DENSITY = 0.02; //fraction of the possible grams in use
+
+    private final int gram;
+    private final int entries;
+    private final int hashes;
+    private final long[] bits;
+    private final int mask;     //number of bits - 1 (a power of two)
+
+    private GramBloomFilter(int gram, int entries) {
+        this.gram = gram;
+        this.entries = entries;
+        //m = -n ln(p) / ln(2)^2 rounded up to a power of two, k = m/n ln(2)
+        long wanted = (long)Math.ceil(-entries*Math.log(TARGET_FPP)/(LN2*LN2));
+        int size = 64;
+        while (size < wanted && size < (1 << 30)) size <<= 1;
+        mask = size - 1;
+        bits = new long[size >>> 6];
+        hashes = Math.max(1, Math.min(16, (int)Math.round((double)size/Math.max(entries, 1)*LN2)));
+    }
+
+    private GramBloomFilter(int gram, int entries, int hashes, long[] bits) {
+        this.gram = gram;
+        this.entries = entries;
+        this.hashes = hashes;
+        this.bits = bits;
+        mask = (bits.length << 6) - 1;
+    }
+
+    /**
+     * Read a filter written by {@link #writeTo(DataOutputStream)}
+     * @param buffer the buffer, at the position of the filter (moved past it)
+     * @return the filter
+     * @throws IOException if the filter is not consistent
+     */
+    public static GramBloomFilter read(ByteBuffer buffer) throws IOException {
+        int gram = buffer.getInt();
+        int entries = buffer.getInt();
+        int hashes = buffer.getInt();
+        int words = buffer.getInt();
+        if (gram < MIN_GRAM || gram > MAX_GRAM || hashes < 1 || hashes > 16 || words < 1 || Integer.bitCount(words) != 1)
+            throw new IOException("Corrupted Bloom filter");
+        long[] bits = new long[words];
+        buffer.asLongBuffer().get(bits);
+        buffer.position(buffer.position() + 8*words);
+        return new GramBloomFilter(gram, entries, hashes, bits);
+    }
+
+    /**
+     * Write the filter (gram, entries, hashes, number of words and the bits)
+     * @param out the stream
+     * @throws IOException if the filter can not be written
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(gram);
+        out.writeInt(entries);
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long word : bits)
+            out.writeLong(word);
+    }
+
+    /**
+     * Build the filter for a set of canonical keys
+     * @param keys the keys (see {@link FilterRule#filterUnwanted(String)})
+     * @return the filter of the keys it covers or null if they are not selective enough
+     */
+    static GramBloomFilter build(Collection<String> keys) {
+        int gram = MAX_GRAM;
+        boolean any = false;
+        for (String key : keys) {
+            int leading = leading(key);
+            if (leading < MIN_GRAM) continue;
+            gram = Math.min(gram, leading);
+            any = true;
+        }
+        if (!any) return null;
+        Set<Long> grams = new HashSet<>();
+        for (String key : keys)
+            if (leading(key) >= MIN_GRAM) grams.add(value(key, 0, gram));
+        if (grams.size() > MAX_DENSITY*Math.pow(10, gram)) return null;
+        GramBloomFilter filter = new GramBloomFilter(gram, grams.size());
+        for (long g : grams)
+            filter.add(g);
+        return filter;
+    }
+
+    private static int leading(String key) {
+        int first = key.indexOf('*');
+        return first < 0 ? key.length() : first;
+    }
+
+    /**
+     * @param key a canonical key
+     * @return false if the key is left out of the filter and must be matched for any number
+     */
+    boolean covers(String key) {
+        return leading(key) >= gram;
+    }
+
+    private static long value(CharSequence digits, int start, int end) {
+        long v = 0;
+        for (int i=start; i<end; i++) v = v*10 + (digits.charAt(i) - '0');
+        return v;
+    }
+
+    private static long mix(long v) {
+        //the finalizer of MurmurHash3
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    private void add(long value) {
+        long h = mix(value);
+        int h1 = (int)h, h2 = (int)(h >>> 32) | 1;
+        for (int i=0; i<hashes; i++) {
+            int bit = (h1 + i*h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long value) {
+        long h = mix(value);
+        int h1 = (int)h, h2 = (int)(h >>> 32) | 1;
+        for (int i=0; i<hashes; i++) {
+            int bit = (h1 + i*h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check if a number can be matched by any pattern in the filter
+     * @param number the number in canonical form
+     * @return false if no pattern covered by the filter can match, true if one might match
+     */
+    boolean mightMatch(CharSequence number) {
+        long modulus = 1;
+        for (int i=1; i<gram; i++) modulus *= 10;
+        long window = 0;
+        int run = 0; //digits since the last '*'
+        for (int i=0; i<number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '*') {
+                run = 0;
+                window = 0;
+                continue;
+            }
+            //rolling value of the last gram digits
+            window = (run >= gram ? window % modulus : window)*10 + (c - '0');
+            if (++run >= gram && mightContain(window)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of leading digits of each pattern in the filter
+     */
+    public int getGram() {
+        return gram;
+    }
+
+    /**
+     * @return the number of distinct leading grams in the filter
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the size of the filter in bits
+     */
+    public int getBits() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of hash functions
+     */
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * The expected false positive rate of a single window, (1 - e^(-kn/m))^k
+     * @return the probability that a window not in the filter is reported as present
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double)hashes*entries/getBits()), hashes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Bloom filter [gram = %d, entries = %d, bits = %d, hashes = %d, false positive rate = %.4f]",
+                             gram, entries, getBits(), hashes, getFalsePositiveRate());
+    }
+}
@@ -26,6 +26,26 @@ public interface ICalendarRule {
      * @return a boolean flag to check if the rule is active
      */
     boolean IsActive();
+
+    /**
+     * Check if a rule is active at a given instant
+     * @param epochMillis the instant in milliseconds since the epoch
+     * @return a boolean flag to check if the rule is active
+     */
+    boolean IsActive(long epochMillis);
+
+    /**
+     * The next instant when the rule changes state: the result of IsActive
+     * can be cached until then
+     * @param epochMillis the current instant in milliseconds since the epoch
+     * @return the instant of the next change or Long.MAX_VALUE if the rule never changes
+     */
+    long nextTransition(long epochMillis);
+
+    /**
+     * @return the rule compiled as a weekly timetable
+     */
+    WeeklySchedule getSchedule();
 }
 
 
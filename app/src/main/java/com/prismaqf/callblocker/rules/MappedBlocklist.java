@@ -0,0 +1,253 @@
+package com.prismaqf.callblocker.rules;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * An immutable filter rule for very large lists of plain numbers (no '*'), stored in a
+ * binary file that is memory mapped rather than loaded on the heap. Each number is packed
+ * in a long as BCD digits, padded with 0xF nibbles, and the file holds the sorted codes
+ * with an index on the first three nibbles, so that a lookup is a binary search in a
+ * small range of the mapped file. Like {@link FilterRule}, a number matches when it
+ * contains an entry of the list
+ * <p>
+ * The file layout (big endian) is: magic, version, number of entries, mask of the entry
+ * lengths, 4097 bucket offsets and the sorted codes. The large rules keep their plain numbers
+ * in this format (see {@link FrozenFilterRule}), stored within the filter snapshot
+ * @author ConteDiMonteCristo
+ */
+public final class MappedBlocklist implements IFilterRule {
+
+    public static final int MAX_DIGITS = 16;
+    private static final int MAGIC = 0x5043424C; //PCBL
+    private static final int VERSION = 1;
+    private static final int BUCKET_BITS = 12;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final int HEADER_BYTES = 4*4 + 4*(BUCKETS+1);
+
+    private final String name;
+    private final int count;
+    private final int lengthMask;     //bit k set if there is an entry of k digits
+    private final int[] buckets;      //first three nibbles -> position of the first code
+    private final LongBuffer codes;   //view on the mapped file
+    private final ByteBuffer buffer;  //the whole list, as in the file
+
+    private MappedBlocklist(String name, ByteBuffer buffer) throws IOException {
+        this.name = name;
+        this.buffer = buffer.duplicate();
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a binary blocklist");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException(String.format(Locale.getDefault(), "Unsupported blocklist version %d", buffer.getInt(4)));
+        count = buffer.getInt(8);
+        lengthMask = buffer.getInt(12);
+        if (count < 0 || buffer.capacity() != HEADER_BYTES + 8L*count)
+            throw new IOException("Truncated binary blocklist");
+        buckets = new int[BUCKETS+1];
+        for (int b=0; b<=BUCKETS; b++)
+            buckets[b] = buffer.getInt(16 + 4*b);
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_BYTES);
+        codes = view.slice().asLongBuffer();
+    }
+
+    /**
+     * Open a blocklist file, mapping it in memory
+     * @param name the name of the rule
+     * @param file the file written by {@link #write(File, Collection)}
+     * @return the rule
+     * @throws IOException if the file can not be read or is not a blocklist
+     */
+    public static MappedBlocklist open(String name, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            //the mapping stays valid after the file is closed
+            return new MappedBlocklist(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A blocklist in a buffer, e.g. a section of a larger mapped file
+     * @param name the name of the rule
+     * @param buffer the list as written by {@link #writeTo(OutputStream)}, from position 0 to its capacity
+     * @return the rule, reading the buffer in place
+     * @throws IOException if the buffer does not hold a blocklist
+     */
+    public static MappedBlocklist wrap(String name, ByteBuffer buffer) throws IOException {
+        return new MappedBlocklist(name, buffer);
+    }
+
+    /**
+     * A blocklist held in memory, in the same format as the file
+     * @param name the name of the rule
+     * @param numbers the numbers of the list
+     * @return the rule
+     */
+    public static MappedBlocklist fromNumbers(String name, Collection<String> numbers) {
+        try {
+            return new MappedBlocklist(name, ByteBuffer.wrap(toBytes(numbers)));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a blocklist file
+     * @param file the destination file
+     * @param numbers the numbers of the list, in any format (they are brought to the canonical form)
+     * @throws IOException if the file can not be written
+     * @throws IllegalArgumentException if a number contains a '*' or is too long
+     */
+    public static void write(File file, Collection<String> numbers) throws IOException {
+        byte[] bytes = toBytes(numbers);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] toBytes(Collection<String> numbers) {
+        long[] sorted = new long[numbers.size()];
+        int n = 0;
+        int mask = 0;
+        for (String number : numbers) {
+            String key = FilterRule.filterUnwanted(number);
+            if (key.indexOf('*') >= 0)
+                throw new IllegalArgumentException(String.format("A binary blocklist can not store the wildcard pattern %s", number));
+            if (key.length() > MAX_DIGITS)
+                throw new IllegalArgumentException(String.format(Locale.getDefault(), "The number %s has more than %d digits", number, MAX_DIGITS));
+            mask |= 1 << key.length();
+            //flip the sign bit to sort as unsigned
+            sorted[n++] = encode(key, 0, key.length()) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(sorted, 0, n);
+        int count = 0;
+        for (int i=0; i<n; i++)
+            if (i == 0 || sorted[i] != sorted[i-1]) sorted[count++] = sorted[i];
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 8*count);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(mask);
+        int pos = 0;
+        for (int b=0; b<=BUCKETS; b++) {
+            while (pos < count && bucketOf(sorted[pos] ^ Long.MIN_VALUE) < b) pos++;
+            buffer.putInt(pos);
+        }
+        for (int i=0; i<count; i++)
+            buffer.putLong(sorted[i] ^ Long.MIN_VALUE);
+        return buffer.array();
+    }
+
+    /**
+     * Pack digits as BCD nibbles from the most significant, padding with 0xF
+     */
+    private static long encode(CharSequence digits, int start, int end) {
+        long code = -1L;
+        for (int i=start; i<end; i++) {
+            int shift = 60 - 4*(i-start);
+            code = (code & ~(0xFL << shift)) | ((long)(digits.charAt(i) - '0') << shift);
+        }
+        return code;
+    }
+
+    private static int bucketOf(long code) {
+        return (int)(code >>> (64 - BUCKET_BITS));
+    }
+
+    private boolean contains(long code) {
+        int b = bucketOf(code);
+        int lo = buckets[b], hi = buckets[b+1] - 1;
+        long key = code ^ Long.MIN_VALUE;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = codes.get(mid) ^ Long.MIN_VALUE;
+            if (value < key) lo = mid + 1;
+            else if (value > key) hi = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of distinct entries in the list
+     */
+    public int getNumberOfEntries() {
+        return count;
+    }
+
+    /**
+     * @return the size of the list in bytes, as in the file
+     */
+    public int getByteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Write the list in the format of the file
+     * @param out the destination
+     * @throws IOException if the list can not be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        byte[] chunk = new byte[8192];
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    @Override
+    public boolean Matches(String number) {
+        if (number == null) return false;
+        return matches(NumberNormalizer.get().normalize(number));
+    }
+
+    /**
+     * @param normalized a number in canonical form
+     * @return true if the number contains an entry of the list
+     */
+    boolean matches(CharSequence normalized) {
+        if ((lengthMask & 1) != 0) return true; //the empty entry matches any number
+        int n = normalized.length();
+        //every group of digits of the number, for each length in the list
+        int runStart = 0;
+        for (int end=1; end<=n; end++) {
+            if (normalized.charAt(end-1) == '*') {
+                runStart = end;
+                continue;
+            }
+            for (int k=1; k<=Math.min(MAX_DIGITS, end-runStart); k++)
+                if ((lengthMask & (1 << k)) != 0 && contains(encode(normalized, end-k, end)))
+                    return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Rule %s [binary blocklist, total number of entries = %d]",name,count);
+    }
+}
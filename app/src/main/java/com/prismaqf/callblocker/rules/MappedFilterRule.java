@@ -0,0 +1,149 @@
+package com.prismaqf.callblocker.rules;
+
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An immutable filter rule matching with the automaton of a {@link FrozenFilterRule}
+ * as encoded by {@link FrozenFilterRule#encodeAutomaton()}, read in place from a buffer
+ * (e.g. a file mapped in memory), so that nothing is compiled when it is loaded. It
+ * matches the same numbers as the rule it was encoded from, together with its blocklist
+ * (see {@link FrozenFilterRule#getBlocklist()}), and rejects most numbers with the same
+ * precheck (see {@link FrozenFilterRule#getPrecheck()})
+ * @author ConteDiMonteCristo
+ */
+public final class MappedFilterRule implements IFilterRule {
+
+    private final String name;
+    private final String description;
+    private final Set<String> wildcardKeys; //the patterns with a '*', matching as they are
+    private final int patterns;
+    private final IntBuffer states;
+    private final MappedBlocklist blocklist;
+    private final GramBloomFilter precheck;  //null when the rule has none
+    private final AhoCorasickRule uncovered; //the patterns left out of the precheck or null
+
+    /**
+     * Constructor
+     * @param name the rule name
+     * @param description the rule description
+     * @param wildcardKeys the pattern keys containing a '*'
+     * @param patterns the number of patterns
+     * @param states the encoded automaton (not copied)
+     * @param blocklist the plain numbers not in the automaton or null
+     * @param precheck the Bloom filter checked before the automaton or null
+     * @param uncoveredKeys the pattern keys left out of the precheck
+     */
+    public MappedFilterRule(String name, String description, Set<String> wildcardKeys, int patterns, IntBuffer states,
+                            MappedBlocklist blocklist, GramBloomFilter precheck, Set<String> uncoveredKeys) {
+        this.name = name;
+        this.description = description;
+        this.wildcardKeys = Collections.unmodifiableSet(new HashSet<>(wildcardKeys));
+        this.patterns = patterns;
+        this.states = states;
+        this.blocklist = blocklist;
+        this.precheck = precheck;
+        this.uncovered = uncoveredKeys.isEmpty() ? null : new AhoCorasickRule(name, uncoveredKeys);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the number of patterns
+     */
+    public int getNumberOfPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public boolean Matches(String number) {
+        if (number == null) return false;
+        NumberNormalizer normalized = NumberNormalizer.get().normalize(number);
+        if (normalized.hasWildcard() && wildcardKeys.contains(normalized.toString())) return true;
+        //as in FrozenFilterRule: the few short patterns, then reject most callers at once
+        if (uncovered != null && uncovered.matches(normalized)) return true;
+        if (precheck != null && !precheck.mightMatch(normalized)) return false;
+        if (blocklist != null && blocklist.matches(normalized)) return true;
+        return matches(normalized);
+    }
+
+    /**
+     * The walk of {@link DigitTrie#matches(CharSequence)}, with the states
+     * identified by their position
+     */
+    private boolean matches(CharSequence number) {
+        if ((states.get(0) & DigitTrie.TERMINAL) != 0) return true;
+        if (patterns == 0) return false;
+        int[] current = new int[8];
+        int[] next = new int[8];
+        int nCurrent = 0;
+        for (int i = 0; i < number.length(); i++) {
+            if (nCurrent == current.length) current = grow(current);
+            current[nCurrent++] = 0; //a match can start at any position
+            int d = number.charAt(i) - '0';
+            if (d < 0 || d > 9) { //only digits can be matched
+                nCurrent = 0;
+                continue;
+            }
+            int nNext = 0;
+            for (int k = 0; k < nCurrent; k++) {
+                int s = current[k];
+                int header = states.get(s);
+                int targets = s + 1;
+                if ((header & (1 << d)) != 0) {
+                    int target = states.get(targets + Integer.bitCount(header & ((1 << d) - 1)));
+                    if ((states.get(target) & DigitTrie.TERMINAL) != 0) return true;
+                    if (!contains(next, nNext, target)) {
+                        if (nNext == next.length) next = grow(next);
+                        next[nNext++] = target;
+                    }
+                }
+                if ((header & DigitTrie.WILDCARD_EDGE) != 0) {
+                    int target = states.get(targets + Integer.bitCount(header & DigitTrie.DIGIT_EDGES));
+                    if ((states.get(target) & DigitTrie.TERMINAL) != 0) return true;
+                    if (!contains(next, nNext, target)) {
+                        if (nNext == next.length) next = grow(next);
+                        next[nNext++] = target;
+                    }
+                }
+                if ((header & DigitTrie.IS_WILDCARD) != 0 && !contains(next, nNext, s)) {
+                    if (nNext == next.length) next = grow(next);
+                    next[nNext++] = s;
+                }
+            }
+            int[] tmp = current;
+            current = next;
+            next = tmp;
+            nCurrent = nNext;
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] list, int size, int value) {
+        for (int i = 0; i < size; i++)
+            if (list[i] == value) return true;
+        return false;
+    }
+
+    private static int[] grow(int[] list) {
+        int[] bigger = new int[list.length * 2];
+        System.arraycopy(list, 0, bigger, 0, list.length);
+        return bigger;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),"Rule %s [description = %s, total number of patterns = %d, mapped]",
+                             name,description,patterns);
+    }
+}
@@ -20,4 +20,19 @@ public class Never implements ICalendarRule{
     public boolean IsActive() {
         return false;
     }
+
+    @Override
+    public boolean IsActive(long epochMillis) {
+        return false;
+    }
+
+    @Override
+    public long nextTransition(long epochMillis) {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public WeeklySchedule getSchedule() {
+        return WeeklySchedule.NEVER;
+    }
 }
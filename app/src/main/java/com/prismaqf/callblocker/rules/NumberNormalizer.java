@@ -0,0 +1,83 @@
+package com.prismaqf.callblocker.rules;
+
+import java.util.Arrays;
+
+/**
+ * Brings a number (or a pattern) to its canonical form in a single pass: only digits
+ * and '*' are kept, and leading and trailing '*' are removed. The result is written
+ * into a reusable buffer exposed as a CharSequence, so that once the buffer has grown
+ * to the size of the longest number seen, normalizing does not allocate
+ * @author ConteDiMonteCristo
+ */
+public final class NumberNormalizer implements CharSequence {
+
+    private static final ThreadLocal<NumberNormalizer> LOCAL = new ThreadLocal<NumberNormalizer>() {
+        @Override
+        protected NumberNormalizer initialValue() {
+            return new NumberNormalizer();
+        }
+    };
+
+    private char[] buffer = new char[32];
+    private int length;
+    private boolean wildcard;
+
+    /**
+     * The normalizer of the current thread, to be used on the matching path.
+     * The content is only valid until the next call to {@link #normalize(CharSequence)}
+     * on the same thread
+     * @return a reusable normalizer
+     */
+    public static NumberNormalizer get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Normalize a number or a pattern
+     * @param in the raw string
+     * @return this object, holding the canonical form
+     */
+    public NumberNormalizer normalize(CharSequence in) {
+        length = 0;
+        wildcard = false;
+        int n = in.length();
+        if (buffer.length < n) buffer = Arrays.copyOf(buffer, Math.max(n, 2*buffer.length));
+        for (int i=0; i<n; i++) {
+            char c = in.charAt(i);
+            if (c >= '0' && c <= '9') buffer[length++] = c;
+            else if (c == '*' && length > 0) buffer[length++] = c; //leading '*' are dropped
+        }
+        while (length > 0 && buffer[length-1] == '*') length--; //trailing '*' are dropped
+        for (int i=0; i<length && !wildcard; i++)
+            if (buffer[i] == '*') wildcard = true;
+        return this;
+    }
+
+    /**
+     * @return true if the canonical form contains a '*'
+     */
+    public boolean hasWildcard() {
+        return wildcard;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) throw new IndexOutOfBoundsException();
+        return buffer[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+}
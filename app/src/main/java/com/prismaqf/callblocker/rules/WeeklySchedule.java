@@ -0,0 +1,189 @@
+package com.prismaqf.callblocker.rules;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * An immutable weekly timetable with the resolution of one minute, stored as a bitmap
+ * of 7x1440 bits (Monday 00:00 is minute 0). Checking a time is a single bit lookup,
+ * and the minutes where the state changes are kept sorted so that the next transition
+ * can be found without scanning the week
+ * @author ConteDiMonteCristo
+ */
+public final class WeeklySchedule {
+
+    public static final int MINUTES_PER_DAY = 1440;
+    public static final int MINUTES_PER_WEEK = 7*MINUTES_PER_DAY;
+    private static final long MILLIS_PER_MINUTE = 60000L;
+    private static final long MILLIS_PER_DAY = MINUTES_PER_DAY*MILLIS_PER_MINUTE;
+
+    public static final WeeklySchedule ALWAYS = new WeeklySchedule(127, 0, MINUTES_PER_DAY-1);
+    public static final WeeklySchedule NEVER = new WeeklySchedule(0, 0, MINUTES_PER_DAY-1);
+
+    private final long[] bits = new long[(MINUTES_PER_WEEK+63)/64];
+    private final int[] transitions; //sorted minutes of the week where the state differs from the minute before
+
+    /**
+     * Compile a schedule active on the given days between two times of the day
+     * @param dayMask the binary mask of the days (1 = Monday, ..., 64 = Sunday), as in {@link CalendarRule#getBinaryMask()}
+     * @param startMinute the first active minute of the day [0-1439]
+     * @param endMinute the last active minute of the day [0-1439], the schedule is empty on a day if smaller than the start
+     */
+    public WeeklySchedule(int dayMask, int startMinute, int endMinute) {
+        startMinute = Math.max(startMinute, 0);
+        endMinute = Math.min(endMinute, MINUTES_PER_DAY-1);
+        for (int day=0; day<7; day++) {
+            if ((dayMask & (1 << day)) == 0) continue;
+            for (int m=startMinute; m<=endMinute; m++)
+                set(day*MINUTES_PER_DAY + m);
+        }
+        int count = 0;
+        int[] found = new int[MINUTES_PER_WEEK];
+        for (int m=0; m<MINUTES_PER_WEEK; m++)
+            if (get(m) != get(m == 0 ? MINUTES_PER_WEEK-1 : m-1)) found[count++] = m;
+        transitions = Arrays.copyOf(found, count);
+    }
+
+    private void set(int minute) {
+        bits[minute >>> 6] |= 1L << minute;
+    }
+
+    private boolean get(int minute) {
+        return (bits[minute >>> 6] & (1L << minute)) != 0;
+    }
+
+    /**
+     * Convert an instant in the minute of the week of a given time zone
+     * @param epochMillis the instant in milliseconds since the epoch
+     * @param tz the time zone
+     * @return the minute of the week [0-10079], 0 being Monday 00:00
+     */
+    public static int minuteOfWeek(long epochMillis, TimeZone tz) {
+        long local = epochMillis + tz.getOffset(epochMillis);
+        long days = local / MILLIS_PER_DAY;
+        long millisOfDay = local % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        //1 Jan 1970 was a Thursday
+        int dow = (int)(((days + 3) % 7 + 7) % 7);
+        return dow*MINUTES_PER_DAY + (int)(millisOfDay / MILLIS_PER_MINUTE);
+    }
+
+    /**
+     * Check a minute of the week
+     * @param minuteOfWeek the minute [0-10079]
+     * @return true if the schedule is active
+     */
+    public boolean isActiveAt(int minuteOfWeek) {
+        return get(minuteOfWeek);
+    }
+
+    /**
+     * Check an instant in a given time zone
+     * @param epochMillis the instant in milliseconds since the epoch
+     * @param tz the time zone
+     * @return true if the schedule is active
+     */
+    public boolean isActive(long epochMillis, TimeZone tz) {
+        return get(minuteOfWeek(epochMillis, tz));
+    }
+
+    /**
+     * @return true if the schedule never changes state
+     */
+    public boolean isConstant() {
+        return transitions.length == 0;
+    }
+
+    /**
+     * @return a copy of the sorted minutes of the week where the state changes
+     */
+    public int[] getTransitions() {
+        return transitions.clone();
+    }
+
+    /**
+     * The first minute after the given one where the state changes
+     * @param minuteOfWeek the minute [0-10079]
+     * @return the number of minutes to the next change [1-10080] or -1 for a constant schedule
+     */
+    public int minutesToNextTransition(int minuteOfWeek) {
+        return minutesToNext(transitions, minuteOfWeek);
+    }
+
+    private static int minutesToNext(int[] transitions, int minuteOfWeek) {
+        if (transitions.length == 0) return -1;
+        int pos = Arrays.binarySearch(transitions, minuteOfWeek + 1);
+        if (pos < 0) pos = -pos - 1;
+        if (pos < transitions.length) return transitions[pos] - minuteOfWeek;
+        return transitions[0] + MINUTES_PER_WEEK - minuteOfWeek;
+    }
+
+    /**
+     * The instant when the state will next change, in the default time zone. A change of
+     * the zone offset (daylight saving) before that instant is also reported as a transition,
+     * so that the active state can be safely cached until the returned time
+     * @param epochMillis the current instant in milliseconds since the epoch
+     * @return the instant of the next change in milliseconds since the epoch or Long.MAX_VALUE if never
+     */
+    public long nextTransition(long epochMillis) {
+        return nextTransition(epochMillis, TimeZone.getDefault());
+    }
+
+    /**
+     * The instant when the state will next change in a given time zone (see {@link #nextTransition(long)})
+     * @param epochMillis the current instant in milliseconds since the epoch
+     * @param tz the time zone
+     * @return the instant of the next change in milliseconds since the epoch or Long.MAX_VALUE if never
+     */
+    public long nextTransition(long epochMillis, TimeZone tz) {
+        return nextTransition(transitions, epochMillis, tz);
+    }
+
+    /**
+     * The instant of the next transition for any sorted set of minutes of the week
+     * (see {@link #nextTransition(long)}), used when several schedules are merged
+     * @param transitions the sorted minutes of the week where a state changes
+     * @param epochMillis the current instant in milliseconds since the epoch
+     * @param tz the time zone
+     * @return the instant of the next change in milliseconds since the epoch or Long.MAX_VALUE if never
+     */
+    public static long nextTransition(int[] transitions, long epochMillis, TimeZone tz) {
+        int minutes = minutesToNext(transitions, minuteOfWeek(epochMillis, tz));
+        if (minutes < 0) return Long.MAX_VALUE;
+        long local = epochMillis + tz.getOffset(epochMillis);
+        long startOfMinute = epochMillis - (((local % MILLIS_PER_MINUTE) + MILLIS_PER_MINUTE) % MILLIS_PER_MINUTE);
+        long next = startOfMinute + minutes*MILLIS_PER_MINUTE;
+        return Math.min(next, nextOffsetChange(epochMillis, next, tz));
+    }
+
+    /**
+     * Find the first instant in (from, to] where the zone offset differs from the one at from
+     * @return the instant of the change or Long.MAX_VALUE if the offset does not change
+     */
+    static long nextOffsetChange(long from, long to, TimeZone tz) {
+        int offset = tz.getOffset(from);
+        if (tz.getOffset(to) == offset) return Long.MAX_VALUE;
+        long lo = from, hi = to; //offset(lo) == offset, offset(hi) != offset
+        while (hi - lo > 1) {
+            long mid = lo + (hi - lo)/2;
+            if (tz.getOffset(mid) == offset) lo = mid;
+            else hi = mid;
+        }
+        return hi;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof WeeklySchedule)) return false;
+        return Arrays.equals(bits, ((WeeklySchedule)o).bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bits);
+    }
+}
@@ -7,6 +7,10 @@ import android.database.sqlite.SQLiteDatabase;
 import com.prismaqf.callblocker.rules.CalendarRule;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -29,6 +33,25 @@ public class CalendarRuleProvider {
         InsertRow(db,cr);
     }
 
+    /**
+     * The name of a rule
+     * @param db the SQLite connection
+     * @param ruleId the rule id
+     * @return the name or null if the rule does not exist
+     */
+    private static String ruleName(SQLiteDatabase db, long ruleId) {
+        String[] cols = {DbContract.CalendarRules.COLUMN_NAME_RULENAME};
+        String selection = DbContract.CalendarRules._ID + " = ?";
+        String[] selectionArgs = { String.valueOf(ruleId) };
+        Cursor c = db.query(DbContract.CalendarRules.TABLE_NAME,cols,selection,selectionArgs,null,null,null,null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+        finally {
+            c.close();
+        }
+    }
+
     /**
      * Insert a row in the calendarrule table
      * @param db the SQLite connection
@@ -45,7 +68,9 @@ public class CalendarRuleProvider {
         vals.put(DbContract.CalendarRules.COLUMN_NAME_FROM, fromTime);
         vals.put(DbContract.CalendarRules.COLUMN_NAME_TO, toTime);
         vals.put(DbContract.CalendarRules.COLUMN_NAME_FORMAT, makeRuleFormat(binMask, fromTime, toTime));
-        return db.insert(DbContract.CalendarRules.TABLE_NAME, null, vals);
+        long id = db.insert(DbContract.CalendarRules.TABLE_NAME, null, vals);
+        if (id != -1) DbChangeNotifier.CalendarRuleChanged(rule.getName());
+        return id;
     }
 
 
@@ -106,6 +131,7 @@ public class CalendarRuleProvider {
         String selection = DbContract.CalendarRules._ID + " = ?";
         String[] selectionArgs = { String.valueOf(ruleId) };
         db.update(DbContract.CalendarRules.TABLE_NAME,vals,selection,selectionArgs);
+        DbChangeNotifier.CalendarRuleChanged(ruleName(db, ruleId));
     }
 
     /**
@@ -116,7 +142,9 @@ public class CalendarRuleProvider {
     public static synchronized void DeleteCalendarRule(SQLiteDatabase db, long ruleid) {
         String where = DbContract.CalendarRules._ID + " = ?";
         String[] args = {String.valueOf(ruleid)};
+        String name = ruleName(db, ruleid);
         db.delete(DbContract.CalendarRules.TABLE_NAME, where, args);
+        DbChangeNotifier.CalendarRuleChanged(name);
     }
 
     /**
@@ -128,6 +156,7 @@ public class CalendarRuleProvider {
         String where = DbContract.CalendarRules.COLUMN_NAME_RULENAME + " = ?";
         String[] args = {name};
         db.delete(DbContract.CalendarRules.TABLE_NAME, where, args);
+        DbChangeNotifier.CalendarRuleChanged(name);
     }
 
     public static synchronized CalendarRule FindCalendarRule(SQLiteDatabase db, long ruleid) {
@@ -152,6 +181,35 @@ public class CalendarRuleProvider {
         return null;
     }
 
+    /**
+     * Load some calendar rules, with a query for every {@link FilterRuleProvider#MAX_NAMES} names
+     * (e.g. only the rules changed since the filters were compiled)
+     * @param db the SQLite connection
+     * @param names the rule names
+     * @return the rules found, by name
+     */
+    public static synchronized Map<String, CalendarRule> LoadCalendarRules(SQLiteDatabase db, Collection<String> names) {
+        Map<String, CalendarRule> rules = new HashMap<>();
+        List<String> all = new ArrayList<>(names);
+        for (int from = 0; from < all.size(); from += FilterRuleProvider.MAX_NAMES) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + FilterRuleProvider.MAX_NAMES));
+            String selection = DbContract.CalendarRules.COLUMN_NAME_RULENAME + " IN (" + FilterRuleProvider.Placeholders(chunk.size()) + ")";
+            Cursor c = db.query(DbContract.CalendarRules.TABLE_NAME, null, selection, chunk.toArray(new String[chunk.size()]),
+                                null, null, DbContract.CalendarRules._ID);
+            try {
+                //the last occurrency of a name wins, as in FindCalendarRule
+                while (c.moveToNext()) {
+                    CalendarRule rule = deserialize(c);
+                    rules.put(rule.getName(), rule);
+                }
+            }
+            finally {
+                c.close();
+            }
+        }
+        return rules;
+    }
+
     public static synchronized long FindCalendarRuleId(SQLiteDatabase db, String ruleName) {
         String selection = DbContract.CalendarRules.COLUMN_NAME_RULENAME + " = ?";
         String[] selectionArgs = { ruleName };
@@ -0,0 +1,268 @@
+package com.prismaqf.callblocker.sql;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.prismaqf.callblocker.CallHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind log of the incoming calls. The calls are put in a bounded queue by the
+ * ringing path and written by a single thread, which resolves the contacts and inserts
+ * the pending calls together with the counters of their service run in one transaction.
+ * A batch is written when it reaches {@link #MAX_BATCH} calls or when the first call
+ * has waited {@link #MAX_DELAY_MS}. The statements of the call statistics are compiled
+ * once on the connection and reused by the thread until the connection changes
+ * @author ConteDiMonteCristo
+ */
+public final class CallLogWriter {
+
+    private static final String TAG = CallLogWriter.class.getCanonicalName();
+    static final int CAPACITY = 256;
+    static final int MAX_BATCH = 32;
+    static final long MAX_DELAY_MS = 500;
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+
+    private static CallLogWriter theWriter = null;
+
+    /**
+     * A call to log or, when latch is set, a request to signal that all the
+     * calls before it are written and, when stop is set, to end the thread
+     */
+    private static final class Entry {
+        final long runId;
+        final String action;
+        final String number;
+        final int numReceived;
+        final int numTriggered;
+        final CountDownLatch latch;
+        final boolean stop;
+
+        Entry(long runId, String action, String number, int numReceived, int numTriggered) {
+            this.runId = runId;
+            this.action = action;
+            this.number = number;
+            this.numReceived = numReceived;
+            this.numTriggered = numTriggered;
+            this.latch = null;
+            this.stop = false;
+        }
+
+        Entry(CountDownLatch latch, boolean stop) {
+            this.runId = 0;
+            this.action = null;
+            this.number = null;
+            this.numReceived = 0;
+            this.numTriggered = 0;
+            this.latch = latch;
+            this.stop = stop;
+        }
+    }
+
+    private final Context context;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private volatile Thread worker = null;
+    private int dropped = 0;
+    private CallStatsProvider.Recorder stats = null; //only used by the writer thread
+
+    CallLogWriter(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * The writer of the process, on the shared DB connection (looked up for each
+     * batch, so that the connection closed by a restore is not used again)
+     * @param ctx the context (only its application context is kept)
+     * @return the single instance of CallLogWriter
+     */
+    public static synchronized CallLogWriter GetWriter(Context ctx) {
+        if (theWriter == null) {
+            Context app = ctx.getApplicationContext();
+            theWriter = new CallLogWriter(app);
+        }
+        return theWriter;
+    }
+
+    /**
+     * Write all the pending calls and stop the writer thread (e.g. when the service stops)
+     */
+    public static synchronized void Shutdown() {
+        if (theWriter != null) theWriter.stop();
+    }
+
+    /**
+     * Queue a call to be logged, without blocking: when the queue is full the call is dropped
+     * @param runId the service run id
+     * @param action the action triggered (or null)
+     * @param number the calling number
+     * @param numReceived the number of calls received in the run
+     * @param numTriggered the number of actions triggered in the run
+     * @return false if the call was dropped
+     */
+    public boolean submit(long runId, String action, String number, int numReceived, int numTriggered) {
+        ensureRunning();
+        if (queue.offer(new Entry(runId, action, number, numReceived, numTriggered))) return true;
+        synchronized (this) {
+            dropped++;
+        }
+        Log.e(TAG, String.format(Locale.getDefault(), "The call log queue is full, call from %s not logged", number));
+        return false;
+    }
+
+    /**
+     * Wait until all the calls submitted so far are written
+     * @return false if they were not written within the timeout
+     */
+    public boolean flush() {
+        ensureRunning();
+        return await(new CountDownLatch(1), false);
+    }
+
+    /**
+     * Write the pending calls and stop the writer thread, which is started again by the
+     * next call. The calls submitted after the stop request are written by the next thread
+     */
+    synchronized void stop() {
+        if (worker == null) return;
+        if (!await(new CountDownLatch(1), true))
+            Log.e(TAG, "The call log could not be flushed");
+        worker = null;
+        if (dropped > 0)
+            Log.w(TAG, String.format(Locale.getDefault(), "%d calls dropped from the log", dropped));
+    }
+
+    private boolean await(CountDownLatch latch, boolean stop) {
+        try {
+            if (!queue.offer(new Entry(latch, stop), FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return false;
+            return latch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void ensureRunning() {
+        if (worker != null) return;
+        synchronized (this) {
+            if (worker != null) return;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "CallLogWriter");
+            t.setDaemon(true);
+            t.start();
+            worker = t;
+        }
+    }
+
+    private void loop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + MAX_DELAY_MS;
+                //collect until the batch is full, the time is up or a flush is requested
+                while (batch.size() < MAX_BATCH && batch.get(batch.size()-1).latch == null) {
+                    long wait = deadline - System.currentTimeMillis();
+                    Entry e = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (e == null) break;
+                    batch.add(e);
+                }
+            }
+            catch (InterruptedException e) {
+                //only a stop request ends the thread, what is collected is written
+                Log.w(TAG, "The call log writer was interrupted");
+            }
+            try {
+                write(batch);
+            }
+            catch (RuntimeException e) {
+                //e.g. the DB can't be opened, the thread goes on with the next batch
+                Log.e(TAG, "The call log writer failed: " + e.getMessage());
+            }
+            finally {
+                for (Entry e : batch)
+                    if (e.stop) running = false;
+                //before the stop is signalled, as the next thread compiles its own
+                if (!running) closeStats();
+                for (Entry e : batch)
+                    if (e.latch != null) e.latch.countDown();
+                batch.clear();
+            }
+        }
+        Log.i(TAG, "The call log writer is stopped");
+    }
+
+    private void write(List<Entry> batch) {
+        List<LoggedCallProvider.LoggedCall> calls = new ArrayList<>(batch.size());
+        //only the latest counters of each run are written
+        Map<Long, Entry> counters = new LinkedHashMap<>();
+        for (Entry e : batch) {
+            if (e.latch != null) continue;
+            calls.add(new LoggedCallProvider.LoggedCall(e.runId, e.action, e.number, describe(e.number)));
+            counters.put(e.runId, e);
+        }
+        if (calls.isEmpty()) return;
+        long start = DbLatency.start();
+        DbHelper helper = DbHelper.GetHelper(context);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            if (stats == null || !stats.isFor(db)) {
+                //the first batch or the shared connection was reopened (e.g. by a restore)
+                closeStats();
+                stats = new CallStatsProvider.Recorder(db);
+            }
+            db.beginTransaction();
+            try {
+                for (LoggedCallProvider.LoggedCall lc : calls)
+                    LoggedCallProvider.InsertRow(db, lc, stats);
+                for (Entry e : counters.values())
+                    ServiceRunProvider.UpdateWhileRunning(db, e.runId, e.numReceived, e.numTriggered);
+                db.setTransactionSuccessful();
+            }
+            finally {
+                db.endTransaction();
+            }
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, String.format(Locale.getDefault(), "%d calls not logged: %s", calls.size(), e.getMessage()));
+        }
+        helper.getLatency().recordWrite(start);
+    }
+
+    private void closeStats() {
+        if (stats == null) return;
+        try {
+            stats.close();
+        }
+        catch (RuntimeException e) {
+            Log.w(TAG, "Can't close the statements of the statistics: " + e.getMessage());
+        }
+        stats = null;
+    }
+
+    private String describe(String number) {
+        try {
+            return CallHelper.resolveContactDescription(context, number);
+        }
+        catch (RuntimeException e) {
+            //e.g. the permission to read the contacts was revoked
+            Log.e(TAG, "Can't resolve the contact: " + e.getMessage());
+            return "Not found";
+        }
+    }
+}
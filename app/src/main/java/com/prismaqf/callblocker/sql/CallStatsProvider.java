@@ -0,0 +1,276 @@
+package com.prismaqf.callblocker.sql;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Statistics of the logged calls, kept in rollup tables (per number, hour, day and action)
+ * which are updated with every call in the transaction inserting it. The queries on the
+ * statistics read only the rows they return, whatever the size of the log
+ * @author ConteDiMonteCristo
+ */
+public class CallStatsProvider {
+
+    private static final String TAG = CallStatsProvider.class.getCanonicalName();
+
+    //the columns of a logged call, selected by its id
+    private static final String FROM_CALL = " FROM " + DbContract.LoggedCalls.TABLE_NAME + " WHERE " + DbContract.LoggedCalls._ID + " = ?";
+    private static final String TIMESTAMP = DbContract.LoggedCalls.COLUMN_NAME_TIMESTAMP;
+
+    static final String SQL_NEW_NUMBER = "INSERT OR IGNORE INTO " + DbContract.NumberStats.TABLE_NAME + " (" +
+            DbContract.NumberStats.COLUMN_NAME_NUMBER + ", " + DbContract.NumberStats.COLUMN_NAME_RECEIVED + ", " +
+            DbContract.NumberStats.COLUMN_NAME_TRIGGERED + ", " + DbContract.NumberStats.COLUMN_NAME_FIRST_SEEN + ", " +
+            DbContract.NumberStats.COLUMN_NAME_LAST_SEEN + ") SELECT " +
+            DbContract.LoggedCalls.COLUMN_NAME_NUMBER + ", 0, 0, " + TIMESTAMP + ", " + TIMESTAMP + FROM_CALL;
+    static final String SQL_COUNT_NUMBER = "UPDATE " + DbContract.NumberStats.TABLE_NAME + " SET " +
+            DbContract.NumberStats.COLUMN_NAME_RECEIVED + " = " + DbContract.NumberStats.COLUMN_NAME_RECEIVED + " + 1, " +
+            DbContract.NumberStats.COLUMN_NAME_TRIGGERED + " = " + DbContract.NumberStats.COLUMN_NAME_TRIGGERED + " + ?, " +
+            DbContract.NumberStats.COLUMN_NAME_LAST_SEEN + " = MAX(" + DbContract.NumberStats.COLUMN_NAME_LAST_SEEN +
+            ", (SELECT " + TIMESTAMP + FROM_CALL + ")) WHERE " +
+            DbContract.NumberStats.COLUMN_NAME_NUMBER + " = ?";
+    static final String SQL_NEW_ACTION = "INSERT OR IGNORE INTO " + DbContract.ActionStats.TABLE_NAME + " (" +
+            DbContract.ActionStats.COLUMN_NAME_ACTION + ", " + DbContract.ActionStats.COLUMN_NAME_TRIGGERED + ") VALUES (?, 0)";
+    static final String SQL_COUNT_ACTION = "UPDATE " + DbContract.ActionStats.TABLE_NAME + " SET " +
+            DbContract.ActionStats.COLUMN_NAME_TRIGGERED + " = " + DbContract.ActionStats.COLUMN_NAME_TRIGGERED + " + 1 WHERE " +
+            DbContract.ActionStats.COLUMN_NAME_ACTION + " = ?";
+
+    /**
+     * Add a logged call to the statistics. It must run in the transaction inserting the call
+     * @param db the SQLite connection
+     * @param callId the id of the logged call
+     * @param lc the logged call
+     */
+    static void Record(SQLiteDatabase db, long callId, LoggedCallProvider.LoggedCall lc) {
+        Recorder recorder = new Recorder(db);
+        try {
+            recorder.record(callId, lc);
+        }
+        finally {
+            recorder.close();
+        }
+    }
+
+    /**
+     * The statements adding a logged call to the statistics, compiled once on a connection
+     * and reused for every call written with it (see {@link CallLogWriter}). It is used by
+     * one thread at a time and must be closed before its connection
+     */
+    static final class Recorder {
+        private final SQLiteDatabase db;
+        private final SQLiteStatement newNumber;
+        private final SQLiteStatement countNumber;
+        private final SQLiteStatement newHour;
+        private final SQLiteStatement countHour;
+        private final SQLiteStatement newDay;
+        private final SQLiteStatement countDay;
+        private final SQLiteStatement newAction;
+        private final SQLiteStatement countAction;
+
+        Recorder(SQLiteDatabase db) {
+            this.db = db;
+            newNumber = db.compileStatement(SQL_NEW_NUMBER);
+            countNumber = db.compileStatement(SQL_COUNT_NUMBER);
+            newHour = db.compileStatement(SqlNewPeriod(DbContract.HourStats.TABLE_NAME, DbContract.HourStats.PERIOD_FORMAT));
+            countHour = db.compileStatement(SqlCountPeriod(DbContract.HourStats.TABLE_NAME, DbContract.HourStats.PERIOD_FORMAT));
+            newDay = db.compileStatement(SqlNewPeriod(DbContract.DayStats.TABLE_NAME, DbContract.DayStats.PERIOD_FORMAT));
+            countDay = db.compileStatement(SqlCountPeriod(DbContract.DayStats.TABLE_NAME, DbContract.DayStats.PERIOD_FORMAT));
+            newAction = db.compileStatement(SQL_NEW_ACTION);
+            countAction = db.compileStatement(SQL_COUNT_ACTION);
+        }
+
+        /**
+         * @param db a SQLite connection
+         * @return true if the statements were compiled on this connection and it is still open
+         */
+        boolean isFor(SQLiteDatabase db) {
+            return this.db == db && db.isOpen();
+        }
+
+        /**
+         * Add a logged call to the statistics, in the transaction inserting the call
+         * @param callId the id of the logged call
+         * @param lc the logged call
+         */
+        void record(long callId, LoggedCallProvider.LoggedCall lc) {
+            int triggered = lc.getAction() == null ? 0 : 1;
+            newNumber.bindLong(1, callId);
+            newNumber.execute();
+            countNumber.bindLong(1, triggered);
+            countNumber.bindLong(2, callId);
+            countNumber.bindString(3, lc.getNumber());
+            countNumber.execute();
+            recordPeriod(newHour, countHour, callId, triggered);
+            recordPeriod(newDay, countDay, callId, triggered);
+            if (lc.getAction() != null) {
+                newAction.bindString(1, lc.getAction());
+                newAction.execute();
+                countAction.bindString(1, lc.getAction());
+                countAction.execute();
+            }
+        }
+
+        private static void recordPeriod(SQLiteStatement insert, SQLiteStatement count, long callId, int triggered) {
+            insert.bindLong(1, callId);
+            insert.execute();
+            count.bindLong(1, triggered);
+            count.bindLong(2, callId);
+            count.execute();
+        }
+
+        void close() {
+            newNumber.close();
+            countNumber.close();
+            newHour.close();
+            countHour.close();
+            newDay.close();
+            countDay.close();
+            newAction.close();
+            countAction.close();
+        }
+    }
+
+    /**
+     * The insert of the period of a logged call, with the id of the call as argument
+     */
+    static String SqlNewPeriod(String table, String format) {
+        //the hour and day tables have the same columns
+        String period = String.format("strftime('%s', %s)", format, TIMESTAMP);
+        return String.format("INSERT OR IGNORE INTO %s (%s, %s, %s) SELECT %s, 0, 0%s", table,
+                             DbContract.DayStats.COLUMN_NAME_PERIOD, DbContract.DayStats.COLUMN_NAME_RECEIVED,
+                             DbContract.DayStats.COLUMN_NAME_TRIGGERED, period, FROM_CALL);
+    }
+
+    /**
+     * The count of a logged call in its period, with the triggered flag and the id of the call as arguments
+     */
+    static String SqlCountPeriod(String table, String format) {
+        String period = String.format("strftime('%s', %s)", format, TIMESTAMP);
+        return String.format("UPDATE %s SET %s = %s + 1, %s = %s + ? WHERE %s = (SELECT %s%s)", table,
+                             DbContract.DayStats.COLUMN_NAME_RECEIVED, DbContract.DayStats.COLUMN_NAME_RECEIVED,
+                             DbContract.DayStats.COLUMN_NAME_TRIGGERED, DbContract.DayStats.COLUMN_NAME_TRIGGERED,
+                             DbContract.DayStats.COLUMN_NAME_PERIOD, period, FROM_CALL);
+    }
+
+    /**
+     * Recompute all the statistics from the logged calls (a one-off job when the tables
+     * are created on an existing log). The calls are aggregated by SQLite, so nothing
+     * is read into memory
+     * @param db the SQLite connection
+     */
+    public static synchronized void Rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.delete(DbContract.NumberStats.TABLE_NAME, null, null);
+            db.delete(DbContract.HourStats.TABLE_NAME, null, null);
+            db.delete(DbContract.DayStats.TABLE_NAME, null, null);
+            db.delete(DbContract.ActionStats.TABLE_NAME, null, null);
+            db.execSQL(String.format("INSERT INTO %s (%s, %s, %s, %s, %s) SELECT %s, COUNT(*), COUNT(%s), MIN(%s), MAX(%s) FROM %s GROUP BY %s",
+                                     DbContract.NumberStats.TABLE_NAME, DbContract.NumberStats.COLUMN_NAME_NUMBER,
+                                     DbContract.NumberStats.COLUMN_NAME_RECEIVED, DbContract.NumberStats.COLUMN_NAME_TRIGGERED,
+                                     DbContract.NumberStats.COLUMN_NAME_FIRST_SEEN, DbContract.NumberStats.COLUMN_NAME_LAST_SEEN,
+                                     DbContract.LoggedCalls.COLUMN_NAME_NUMBER, DbContract.LoggedCalls.COLUMN_NAME_ACTION,
+                                     TIMESTAMP, TIMESTAMP, DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.COLUMN_NAME_NUMBER));
+            rebuildPeriod(db, DbContract.HourStats.TABLE_NAME, DbContract.HourStats.PERIOD_FORMAT);
+            rebuildPeriod(db, DbContract.DayStats.TABLE_NAME, DbContract.DayStats.PERIOD_FORMAT);
+            db.execSQL(String.format("INSERT INTO %s (%s, %s) SELECT %s, COUNT(*) FROM %s WHERE %s is not null GROUP BY %s",
+                                     DbContract.ActionStats.TABLE_NAME, DbContract.ActionStats.COLUMN_NAME_ACTION,
+                                     DbContract.ActionStats.COLUMN_NAME_TRIGGERED, DbContract.LoggedCalls.COLUMN_NAME_ACTION,
+                                     DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.COLUMN_NAME_ACTION,
+                                     DbContract.LoggedCalls.COLUMN_NAME_ACTION));
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, String.format(Locale.getDefault(), "Call statistics rebuilt for %d numbers",
+                                 DatabaseUtils.queryNumEntries(db, DbContract.NumberStats.TABLE_NAME)));
+    }
+
+    private static void rebuildPeriod(SQLiteDatabase db, String table, String format) {
+        String period = String.format("strftime('%s', %s)", format, TIMESTAMP);
+        db.execSQL(String.format("INSERT INTO %s (%s, %s, %s) SELECT %s, COUNT(*), COUNT(%s) FROM %s GROUP BY 1", table,
+                                 DbContract.DayStats.COLUMN_NAME_PERIOD, DbContract.DayStats.COLUMN_NAME_RECEIVED,
+                                 DbContract.DayStats.COLUMN_NAME_TRIGGERED, period, DbContract.LoggedCalls.COLUMN_NAME_ACTION,
+                                 DbContract.LoggedCalls.TABLE_NAME));
+    }
+
+    /**
+     * Retrieves the numbers which called most often
+     * @param db the SQLite connection
+     * @param maxRecords the total number of records returned
+     * @return a cursor on the number statistics
+     */
+    public static synchronized Cursor TopCallers(SQLiteDatabase db, int maxRecords) {
+        return db.rawQuery(SqlTopCallers(maxRecords), null);
+    }
+
+    /**
+     * The query of {@link #TopCallers(SQLiteDatabase, int)}
+     */
+    static String SqlTopCallers(int maxRecords) {
+        String orderby = String.format("%s desc", DbContract.NumberStats.COLUMN_NAME_RECEIVED);
+        return SQLiteQueryBuilder.buildQueryString(false, DbContract.NumberStats.TABLE_NAME, null, null, null, null, orderby, String.valueOf(maxRecords));
+    }
+
+    /**
+     * Retrieves the statistics of a number
+     * @param db the SQLite connection
+     * @param number the calling number
+     * @return a cursor on the number statistics (empty if the number never called)
+     */
+    public static synchronized Cursor NumberStats(SQLiteDatabase db, String number) {
+        String selection = DbContract.NumberStats.COLUMN_NAME_NUMBER + " = ?";
+        return db.query(DbContract.NumberStats.TABLE_NAME, null, selection, new String[]{number}, null, null, null);
+    }
+
+    /**
+     * Retrieves the counts of the days in a range
+     * @param db the SQLite connection
+     * @param fromDay the first day ("yyyy-MM-dd")
+     * @param toDay the last day ("yyyy-MM-dd")
+     * @return a cursor on the day statistics, in chronological order
+     */
+    public static synchronized Cursor DailyCounts(SQLiteDatabase db, String fromDay, String toDay) {
+        return periodCounts(db, DbContract.DayStats.TABLE_NAME, fromDay, toDay);
+    }
+
+    /**
+     * Retrieves the counts of the hours in a range
+     * @param db the SQLite connection
+     * @param fromHour the first hour ("yyyy-MM-dd HH:00")
+     * @param toHour the last hour ("yyyy-MM-dd HH:00")
+     * @return a cursor on the hour statistics, in chronological order
+     */
+    public static synchronized Cursor HourlyCounts(SQLiteDatabase db, String fromHour, String toHour) {
+        return periodCounts(db, DbContract.HourStats.TABLE_NAME, fromHour, toHour);
+    }
+
+    private static Cursor periodCounts(SQLiteDatabase db, String table, String from, String to) {
+        return db.rawQuery(SqlPeriodCounts(table), new String[]{from, to});
+    }
+
+    /**
+     * The query of the counts of the hours or days in a range, with its bounds as arguments
+     */
+    static String SqlPeriodCounts(String table) {
+        String selection = DbContract.DayStats.COLUMN_NAME_PERIOD + " BETWEEN ? AND ?";
+        String orderby = String.format("%s asc", DbContract.DayStats.COLUMN_NAME_PERIOD);
+        return SQLiteQueryBuilder.buildQueryString(false, table, null, selection, null, null, orderby, null);
+    }
+
+    /**
+     * Retrieves the number of times each action was triggered
+     * @param db the SQLite connection
+     * @return a cursor on the action statistics, the most triggered first
+     */
+    public static synchronized Cursor ActionCounts(SQLiteDatabase db) {
+        String orderby = String.format("%s desc", DbContract.ActionStats.COLUMN_NAME_TRIGGERED);
+        return db.query(DbContract.ActionStats.TABLE_NAME, null, null, null, null, null, orderby);
+    }
+}
@@ -0,0 +1,52 @@
+package com.prismaqf.callblocker.sql;
+
+import com.prismaqf.callblocker.filters.DecisionCache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Notifies the changes of filters, filter rules (including their patterns) and
+ * calendar rules written by the providers, so that the running service rebuilds only
+ * what changed. The listeners are called on the thread writing, after the write
+ * @author ConteDiMonteCristo
+ */
+public final class DbChangeNotifier {
+
+    private DbChangeNotifier() {}
+
+    /**
+     * A listener of the changes. The name is null when it is not known, e.g. a row
+     * deleted by id which did not exist
+     */
+    public interface Listener {
+        void onFilterChanged(String name);
+        void onFilterRuleChanged(String name);
+        void onCalendarRuleChanged(String name);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static void Register(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void Unregister(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static void FilterChanged(String name) {
+        DecisionCache.Bump();
+        for (Listener l : listeners) l.onFilterChanged(name);
+    }
+
+    static void FilterRuleChanged(String name) {
+        DecisionCache.Bump();
+        for (Listener l : listeners) l.onFilterRuleChanged(name);
+    }
+
+    static void CalendarRuleChanged(String name) {
+        DecisionCache.Bump();
+        for (Listener l : listeners) l.onCalendarRuleChanged(name);
+    }
+}
@@ -20,6 +20,8 @@ public class DbContract {
     private static final String NOT_NULL = " NOT NULL";
     public static final String DATE_FORMAT = "d MMM yyyy 'at' HH:mm:ss z";
     private static final String DEF_TIMESTAMP = " DEFAULT (DATETIME('now','localtime'))";
+    private static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS ";
+    private static final String ON = " ON ";
 
     /**
      * Schema for a table on service runs: a service run contains the
@@ -34,15 +36,24 @@ public class DbContract {
         public static final String COLUMN_NAME_STOP = "stop";
         public static final String COLUMN_NAME_TOTAL_RECEIVED = "totaldreceived";
         public static final String COLUMN_NAME_TOTAL_TRIGGERED = "totaltriggered";
+        //the same times as epoch milliseconds, comparable in SQL (null while running)
+        public static final String COLUMN_NAME_START_MS = "startms";
+        public static final String COLUMN_NAME_STOP_MS = "stopms";
         //sql table creation and deletion
         public static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + OPEN_BRAC +
                 _ID + IPK +
                 COLUMN_NAME_START + TYPE_TEXT + NOT_NULL + COMMA_SEP +
                 COLUMN_NAME_STOP + TYPE_TEXT + COMMA_SEP +
                 COLUMN_NAME_TOTAL_RECEIVED + TYPE_INT + COMMA_SEP +
-                COLUMN_NAME_TOTAL_TRIGGERED + TYPE_INT +
+                COLUMN_NAME_TOTAL_TRIGGERED + TYPE_INT + COMMA_SEP +
+                COLUMN_NAME_START_MS + TYPE_INT + COMMA_SEP +
+                COLUMN_NAME_STOP_MS + TYPE_INT +
                 CLOSE_BRAC;
         public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        //index for the purge of the old runs
+        public static final String INDEX_STOP_MS = TABLE_NAME + "_" + COLUMN_NAME_STOP_MS;
+        public static final String SQL_CREATE_INDEX_STOP_MS = CREATE_INDEX + INDEX_STOP_MS + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_STOP_MS + CLOSE_BRAC;
     }
 
     /**
@@ -68,7 +79,18 @@ public class DbContract {
                 COLUMN_NAME_ACTION + TYPE_TEXT +
                 CLOSE_BRAC;
         public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
-
+        //indexes for the purge of a run and for the triggered calls
+        public static final String INDEX_RUNID = TABLE_NAME + "_" + COLUMN_NAME_RUNID;
+        public static final String INDEX_ACTION = TABLE_NAME + "_" + COLUMN_NAME_ACTION;
+        public static final String INDEX_TRIGGERED = TABLE_NAME + "_triggered";
+        public static final String SQL_CREATE_INDEX_RUNID = CREATE_INDEX + INDEX_RUNID + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_RUNID + CLOSE_BRAC;
+        public static final String SQL_CREATE_INDEX_ACTION = CREATE_INDEX + INDEX_ACTION + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_ACTION + CLOSE_BRAC;
+        public static final String SQL_DROP_INDEX_ACTION = "DROP INDEX IF EXISTS " + INDEX_ACTION;
+        //partial index of the triggered calls in id order (SQLite 3.8.0), read without sorting
+        public static final String SQL_CREATE_INDEX_TRIGGERED = CREATE_INDEX + INDEX_TRIGGERED + ON + TABLE_NAME + OPEN_BRAC +
+                _ID + CLOSE_BRAC + "WHERE " + COLUMN_NAME_ACTION + " IS NOT NULL";
     }
 
     public static abstract class CalendarRules implements BaseColumns {
@@ -121,6 +143,10 @@ public class DbContract {
                 COLUMN_NAME_TIMESTAMP + TYPE_TEXT + DEF_TIMESTAMP +
                 CLOSE_BRAC;
         public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        //covering index for loading the patterns of a rule and for deleting single patterns
+        public static final String INDEX_RULEID = TABLE_NAME + "_" + COLUMN_NAME_RULEID;
+        public static final String SQL_CREATE_INDEX_RULEID = CREATE_INDEX + INDEX_RULEID + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_RULEID + COMMA_SEP + COLUMN_NAME_PATTERN + CLOSE_BRAC;
     }
 
     public static abstract class Filters implements BaseColumns {
@@ -140,5 +166,124 @@ public class DbContract {
                 COLUMN_NAME_TIMESTAMP + TYPE_TEXT + DEF_TIMESTAMP +
                 CLOSE_BRAC;
         public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        //indexes for checking if a rule is used by a filter
+        public static final String INDEX_FILTERRULENAME = TABLE_NAME + "_" + COLUMN_NAME_FILTERRULENAME;
+        public static final String INDEX_CALENDARRULENAME = TABLE_NAME + "_" + COLUMN_NAME_CALENDARRULENAME;
+        public static final String SQL_CREATE_INDEX_FILTERRULENAME = CREATE_INDEX + INDEX_FILTERRULENAME + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_FILTERRULENAME + CLOSE_BRAC;
+        public static final String SQL_CREATE_INDEX_CALENDARRULENAME = CREATE_INDEX + INDEX_CALENDARRULENAME + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_CALENDARRULENAME + CLOSE_BRAC;
+    }
+
+    /**
+     * Schema for the statistics of the calling numbers: the calls received and the
+     * actions triggered by a number, with the time-stamps of its first and latest call.
+     * Like the other statistics tables, it is updated with every logged call
+     * (see {@link CallStatsProvider}) and it is not reduced by the purge of the log
+     */
+    public static abstract class NumberStats implements BaseColumns {
+        public static final String TABLE_NAME = "numberstats";
+        public static final String COLUMN_NAME_NUMBER = "number";
+        public static final String COLUMN_NAME_RECEIVED = "received";
+        public static final String COLUMN_NAME_TRIGGERED = "triggered";
+        public static final String COLUMN_NAME_FIRST_SEEN = "firstseen";
+        public static final String COLUMN_NAME_LAST_SEEN = "lastseen";
+        //sql table creation and deletion
+        public static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + OPEN_BRAC +
+                _ID + IPK +
+                COLUMN_NAME_NUMBER + TYPE_TEXT + UNIQUE +
+                COLUMN_NAME_RECEIVED + TYPE_INT + NOT_NULL + COMMA_SEP +
+                COLUMN_NAME_TRIGGERED + TYPE_INT + NOT_NULL + COMMA_SEP +
+                COLUMN_NAME_FIRST_SEEN + TYPE_TEXT + COMMA_SEP +
+                COLUMN_NAME_LAST_SEEN + TYPE_TEXT +
+                CLOSE_BRAC;
+        public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        //index for the top callers
+        public static final String INDEX_RECEIVED = TABLE_NAME + "_" + COLUMN_NAME_RECEIVED;
+        public static final String SQL_CREATE_INDEX_RECEIVED = CREATE_INDEX + INDEX_RECEIVED + ON + TABLE_NAME + OPEN_BRAC +
+                COLUMN_NAME_RECEIVED + CLOSE_BRAC;
     }
+
+    /**
+     * Schema for the calls received and the actions triggered in each hour. The period
+     * is the local time-stamp of the calls truncated to the hour ("yyyy-MM-dd HH:00")
+     */
+    public static abstract class HourStats implements BaseColumns {
+        public static final String TABLE_NAME = "hourstats";
+        public static final String COLUMN_NAME_PERIOD = "period";
+        public static final String COLUMN_NAME_RECEIVED = "received";
+        public static final String COLUMN_NAME_TRIGGERED = "triggered";
+        //the period of a time-stamp in SQLite
+        public static final String PERIOD_FORMAT = "%Y-%m-%d %H:00";
+        //sql table creation and deletion
+        public static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + OPEN_BRAC +
+                _ID + IPK +
+                COLUMN_NAME_PERIOD + TYPE_TEXT + UNIQUE +
+                COLUMN_NAME_RECEIVED + TYPE_INT + NOT_NULL + COMMA_SEP +
+                COLUMN_NAME_TRIGGERED + TYPE_INT + NOT_NULL +
+                CLOSE_BRAC;
+        public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+    }
+
+    /**
+     * Schema for the calls received and the actions triggered in each day. The period
+     * is the local date of the calls ("yyyy-MM-dd")
+     */
+    public static abstract class DayStats implements BaseColumns {
+        public static final String TABLE_NAME = "daystats";
+        public static final String COLUMN_NAME_PERIOD = "period";
+        public static final String COLUMN_NAME_RECEIVED = "received";
+        public static final String COLUMN_NAME_TRIGGERED = "triggered";
+        //the period of a time-stamp in SQLite
+        public static final String PERIOD_FORMAT = "%Y-%m-%d";
+        //sql table creation and deletion
+        public static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + OPEN_BRAC +
+                _ID + IPK +
+                COLUMN_NAME_PERIOD + TYPE_TEXT + UNIQUE +
+                COLUMN_NAME_RECEIVED + TYPE_INT + NOT_NULL + COMMA_SEP +
+                COLUMN_NAME_TRIGGERED + TYPE_INT + NOT_NULL +
+                CLOSE_BRAC;
+        public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+    }
+
+    /**
+     * Schema for the number of times each action was triggered
+     */
+    public static abstract class ActionStats implements BaseColumns {
+        public static final String TABLE_NAME = "actionstats";
+        public static final String COLUMN_NAME_ACTION = "action";
+        public static final String COLUMN_NAME_TRIGGERED = "triggered";
+        //sql table creation and deletion
+        public static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + OPEN_BRAC +
+                _ID + IPK +
+                COLUMN_NAME_ACTION + TYPE_TEXT + UNIQUE +
+                COLUMN_NAME_TRIGGERED + TYPE_INT + NOT_NULL +
+                CLOSE_BRAC;
+        public static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+    }
+
+    /**
+     * The secondary indexes created by the migration to v.15, as they were at that version
+     * (the later steps create their own, see {@link DbHelper})
+     */
+    static final String[] SQL_CREATE_INDEXES_V15 = {
+            LoggedCalls.SQL_CREATE_INDEX_RUNID,
+            LoggedCalls.SQL_CREATE_INDEX_ACTION,
+            FilterPatterns.SQL_CREATE_INDEX_RULEID,
+            Filters.SQL_CREATE_INDEX_FILTERRULENAME,
+            Filters.SQL_CREATE_INDEX_CALENDARRULENAME
+    };
+
+    /**
+     * The secondary indexes of the schema (the name columns are indexed by their UNIQUE constraint),
+     * besides the index of the triggered calls which depends on the SQLite version and the index
+     * of the statistics, created with their tables
+     */
+    public static final String[] SQL_CREATE_INDEXES = {
+            ServiceRuns.SQL_CREATE_INDEX_STOP_MS,
+            LoggedCalls.SQL_CREATE_INDEX_RUNID,
+            FilterPatterns.SQL_CREATE_INDEX_RULEID,
+            Filters.SQL_CREATE_INDEX_FILTERRULENAME,
+            Filters.SQL_CREATE_INDEX_CALENDARRULENAME
+    };
 }
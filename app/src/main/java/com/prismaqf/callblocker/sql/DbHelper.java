@@ -2,15 +2,13 @@ package com.prismaqf.callblocker.sql;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.prismaqf.callblocker.R;
-import com.prismaqf.callblocker.filters.FilterHandle;
-import com.prismaqf.callblocker.rules.CalendarRule;
-import com.prismaqf.callblocker.rules.FilterRule;
 import com.prismaqf.callblocker.utils.DebugKey;
 
 import java.util.ArrayList;
@@ -24,17 +22,19 @@ import java.util.Locale;
 public class DbHelper extends SQLiteOpenHelper{
 
     /**
-     * When changing the DB schema, one should up the version number.
-     * At this stage it is important to properly implement onUpgrade and
-     * and onDowngrade which otherwise might be called. In the current
-     * implementation they throw an exception becase a single version is
-     * assumed. The proper implentation should try to preserve the data
+     * When changing the DB schema, one should up the version number
+     * and add the corresponding step to MIGRATIONS. A downgrade is
+     * not supported and throws an exception
      */
-    private static final int DATABASE_VERSION = 14;
+    private static final int DATABASE_VERSION = 18;
     private static final String TAG = DbHelper.class.getCanonicalName();
 
     private static String debugDb = null;
     private static final Object lock = new Object();
+    private static DbHelper theHelper = null;
+
+    private final DbLatency latency = new DbLatency();
+    private long openStart;
 
     /**
      * To force locking write operation from outside
@@ -42,16 +42,85 @@ public class DbHelper extends SQLiteOpenHelper{
      */
     public static Object getDbHelperLock() {return lock;}
 
+    /**
+     * The helper shared by the whole process. Its connection stays open for the
+     * life of the process and must not be closed by the callers. With write-ahead
+     * logging the readers (lists, filter loading) do not block the writer on the
+     * ringing path and vice versa
+     * @param context the context (only its application context is kept)
+     * @return the single instance of DbHelper
+     */
+    public static DbHelper GetHelper(Context context) {
+        synchronized (lock) {
+            if (theHelper == null)
+                theHelper = new DbHelper(context.getApplicationContext());
+            return theHelper;
+        }
+    }
+
+    /**
+     * Close the shared connection, which checkpoints the write-ahead log into the
+     * DB file (e.g. before the file is replaced by a restore). The next call to
+     * {@link #GetHelper(Context)} opens it again
+     */
+    public static void CloseShared() {
+        synchronized (lock) {
+            if (theHelper != null) {
+                Log.i(TAG, theHelper.latency.toString());
+                theHelper.close();
+                theHelper = null;
+            }
+        }
+    }
+
+    /**
+     * Copy the content of the write-ahead log into the DB file, so that the
+     * file alone is a consistent copy of the DB (e.g. for a backup)
+     */
+    public static void Checkpoint() {
+        synchronized (lock) {
+            if (theHelper == null) return;
+            Cursor c = theHelper.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+            try {
+                c.moveToFirst();
+            }
+            finally {
+                c.close();
+            }
+        }
+    }
+
     public DbHelper(Context context) {
         super(context, debugDb==null? context.getString(R.string.db_file_name) : debugDb, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     public DbHelper(Context context, String dbname) {
         super(context, dbname, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     public synchronized static void SetDebugDb(DebugKey.DbKey key, String dbname) {
         debugDb = dbname;
+        //the shared helper is opened again on the new file
+        CloseShared();
+    }
+
+    /**
+     * @return the latency statistics of this helper
+     */
+    public DbLatency getLatency() {
+        return latency;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        openStart = DbLatency.start();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        latency.recordOpen(openStart);
     }
 
     @Override
@@ -63,49 +132,105 @@ public class DbHelper extends SQLiteOpenHelper{
             db.execSQL(DbContract.FilterRules.SQL_CREATE_TABLE);
             db.execSQL(DbContract.FilterPatterns.SQL_CREATE_TABLE);
             db.execSQL(DbContract.Filters.SQL_CREATE_TABLE);
+            createStatsTables(db);
+            createIndexes(db);
         }
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        synchronized (lock) {
-            String msg = String.format(Locale.getDefault(),"The DB version has changed from v.%d to v.%d and a destructive upgrade (drop/recreate) is performed",oldVersion,newVersion);
-            Log.w(TAG, msg);
-
-            Cursor c = ServiceRunProvider.LatestRuns(db, -1, false);
-            List<ServiceRunProvider.ServiceRun> serviceRuns = new ArrayList<>();
-            while (c.moveToNext())
-                serviceRuns.add(ServiceRunProvider.deserialize(c));
-
-            c = LoggedCallProvider.LatestCalls(db, -1, false);
-            List<LoggedCallProvider.LoggedCall> loggedCalls = new ArrayList<>();
-            while (c.moveToNext())
-                loggedCalls.add(LoggedCallProvider.deserialize(c));
-
+    private static void createStatsTables(SQLiteDatabase db) {
+        db.execSQL(DbContract.NumberStats.SQL_CREATE_TABLE);
+        db.execSQL(DbContract.HourStats.SQL_CREATE_TABLE);
+        db.execSQL(DbContract.DayStats.SQL_CREATE_TABLE);
+        db.execSQL(DbContract.ActionStats.SQL_CREATE_TABLE);
+        db.execSQL(DbContract.NumberStats.SQL_CREATE_INDEX_RECEIVED);
+    }
 
-            c = CalendarRuleProvider.AllCalendarRules(db);
-            List<CalendarRule> calendarRules= new ArrayList<>();
-            while (c.moveToNext())
-                calendarRules.add(CalendarRuleProvider.deserialize(c));
+    private static void createIndexes(SQLiteDatabase db) {
+        for (String sql : DbContract.SQL_CREATE_INDEXES)
+            db.execSQL(sql);
+        createTriggeredIndex(db);
+    }
 
-            List<FilterRule> filterRules = FilterRuleProvider.AllFilterRules(db);
+    private static void createTriggeredIndex(SQLiteDatabase db) {
+        if (SupportsPartialIndexes(db)) {
+            db.execSQL(DbContract.LoggedCalls.SQL_DROP_INDEX_ACTION);
+            db.execSQL(DbContract.LoggedCalls.SQL_CREATE_INDEX_TRIGGERED);
+        }
+        else
+            db.execSQL(DbContract.LoggedCalls.SQL_CREATE_INDEX_ACTION);
+    }
 
-            List<FilterHandle> filters = FilterProvider.AllFilters(db);
+    /**
+     * Partial indexes need SQLite 3.8.0, shipped from Android 5.0
+     * @param db the SQLite connection
+     * @return true if the SQLite library supports partial indexes
+     */
+    static boolean SupportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
+    }
 
-            dropAllTables(db);
-            onCreate(db);
+    /**
+     * The migration steps, in order of version. A step is needed for every version
+     * bump that changes the schema: when one is missing the tables are rebuilt
+     * from their current definition, keeping the data of the columns in common.
+     * A step only creates the indexes of its own version, on the columns and the
+     * tables that exist at that version
+     */
+    private static final Migration[] MIGRATIONS = {
+            //v.15: secondary indexes
+            new Migration(15) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    for (String sql : DbContract.SQL_CREATE_INDEXES_V15)
+                        db.execSQL(sql);
+                }
+            },
+            //v.16: epoch times of the service runs
+            new Migration(16) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    addColumn(db, DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.COLUMN_NAME_START_MS, "INTEGER");
+                    addColumn(db, DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.COLUMN_NAME_STOP_MS, "INTEGER");
+                    ServiceRunProvider.FillEpochTimes(db);
+                    db.execSQL(DbContract.ServiceRuns.SQL_CREATE_INDEX_STOP_MS);
+                }
+            },
+            //v.17: statistics of the calls, backfilled from the log
+            new Migration(17) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    createStatsTables(db);
+                    CallStatsProvider.Rebuild(db);
+                }
+            },
+            //v.18: partial index of the triggered calls
+            new Migration(18) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    createTriggeredIndex(db);
+                }
+            }
+    };
 
-            //and now reserialize
-            for (ServiceRunProvider.ServiceRun run : serviceRuns)
-                ServiceRunProvider.serialize(db, run);
-            for (LoggedCallProvider.LoggedCall lc : loggedCalls)
-                LoggedCallProvider.serialize(db, lc);
-            for (CalendarRule cr : calendarRules)
-                CalendarRuleProvider.serialize(db, cr);
-            for (FilterRule fr : filterRules)
-                FilterRuleProvider.InsertRow(db, fr);
-            for (FilterHandle fh : filters)
-                FilterProvider.InsertRow(db, fh);
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        synchronized (lock) {
+            List<Migration> steps = new ArrayList<>();
+            for (Migration m : MIGRATIONS)
+                if (m.getVersion() > oldVersion && m.getVersion() <= newVersion) steps.add(m);
+            if (steps.size() == newVersion - oldVersion) {
+                for (Migration m : steps) {
+                    Log.i(TAG, String.format(Locale.getDefault(), "Migrating the DB to v.%d", m.getVersion()));
+                    m.apply(db);
+                }
+                return;
+            }
+            String msg = String.format(Locale.getDefault(),"The DB version has changed from v.%d to v.%d without migration steps: the tables are rebuilt keeping their data",oldVersion,newVersion);
+            Log.w(TAG, msg);
+            rebuildAllTables(db);
         }
     }
 
@@ -116,19 +241,25 @@ public class DbHelper extends SQLiteOpenHelper{
         throw new SQLException(msg);
     }
 
-    private void dropAllTables(SQLiteDatabase db) {
-        String msg = String.format("Dropping all tables from DB %s",db.getPath());
-        Log.w(TAG, msg);
-
+    private void rebuildAllTables(SQLiteDatabase db) {
         synchronized (lock) {
-            db.execSQL(DbContract.Filters.SQL_DROP_TABLE);
-            db.execSQL(DbContract.FilterPatterns.SQL_DROP_TABLE);
-            db.execSQL(DbContract.FilterRules.SQL_DROP_TABLE);
-            db.execSQL(DbContract.CalendarRules.SQL_DROP_TABLE);
-            db.execSQL(DbContract.LoggedCalls.SQL_DROP_TABLE);
-            db.execSQL(DbContract.ServiceRuns.SQL_DROP_TABLE);
+            Migration.rebuildTable(db, DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.SQL_CREATE_TABLE);
+            Migration.rebuildTable(db, DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.SQL_CREATE_TABLE);
+            Migration.rebuildTable(db, DbContract.CalendarRules.TABLE_NAME, DbContract.CalendarRules.SQL_CREATE_TABLE);
+            Migration.rebuildTable(db, DbContract.FilterRules.TABLE_NAME, DbContract.FilterRules.SQL_CREATE_TABLE);
+            Migration.rebuildTable(db, DbContract.FilterPatterns.TABLE_NAME, DbContract.FilterPatterns.SQL_CREATE_TABLE);
+            Migration.rebuildTable(db, DbContract.Filters.TABLE_NAME, DbContract.Filters.SQL_CREATE_TABLE);
+            ServiceRunProvider.FillEpochTimes(db);
+            //the statistics are derived from the log
+            db.execSQL(DbContract.NumberStats.SQL_DROP_TABLE);
+            db.execSQL(DbContract.HourStats.SQL_DROP_TABLE);
+            db.execSQL(DbContract.DayStats.SQL_DROP_TABLE);
+            db.execSQL(DbContract.ActionStats.SQL_DROP_TABLE);
+            createStatsTables(db);
+            //the indexes are dropped with the old tables
+            createIndexes(db);
+            CallStatsProvider.Rebuild(db);
         }
-
     }
 
     @Override
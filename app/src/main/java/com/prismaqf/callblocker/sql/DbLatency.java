@@ -0,0 +1,73 @@
+package com.prismaqf.callblocker.sql;
+
+import java.util.Locale;
+
+/**
+ * Latency statistics of the DB operations (open, read and write),
+ * collected by the shared {@link DbHelper}
+ * @author ConteDiMonteCristo
+ */
+public final class DbLatency {
+
+    /**
+     * Count, total and maximum duration of one kind of operation
+     */
+    private static final class Stat {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            double avg = count == 0 ? 0 : totalNanos/1e6/count;
+            return String.format(Locale.getDefault(), "%d, avg %.2f ms, max %.2f ms", count, avg, maxNanos/1e6);
+        }
+    }
+
+    private final Stat open = new Stat();
+    private final Stat read = new Stat();
+    private final Stat write = new Stat();
+
+    /**
+     * The start time of an operation
+     * @return the value of the nano timer
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the opening of the DB (including the schema creation or upgrade)
+     * @param start the value returned by {@link #start()}
+     */
+    public void recordOpen(long start) {
+        open.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a read operation
+     * @param start the value returned by {@link #start()}
+     */
+    public void recordRead(long start) {
+        read.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a write operation
+     * @param start the value returned by {@link #start()}
+     */
+    public void recordWrite(long start) {
+        write.add(System.nanoTime() - start);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DB latency [open: %s; read: %s; write: %s]", open, read, write);
+    }
+}
@@ -1,23 +1,51 @@
 package com.prismaqf.callblocker.sql;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.prismaqf.callblocker.actions.ActionRegistry;
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.Nothing;
 import com.prismaqf.callblocker.filters.Filter;
+import com.prismaqf.callblocker.filters.FilterCompiler;
 import com.prismaqf.callblocker.filters.FilterHandle;
+import com.prismaqf.callblocker.rules.Always;
 import com.prismaqf.callblocker.rules.CalendarRule;
 import com.prismaqf.callblocker.rules.FilterRule;
+import com.prismaqf.callblocker.rules.ICalendarRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+import com.prismaqf.callblocker.rules.NoMatches;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * @author ConteDiMonteCristo
  */
 public class FilterProvider {
     private final static String TAG = FilterProvider.class.getCanonicalName();
+    //every filter with its calendar rule
+    private static final String SQL_FILTERS_WITH_CALENDARS = String.format(
+            "SELECT f.%s, f.%s, f.%s, f.%s, c.%s, c.%s, c.%s FROM %s f LEFT JOIN %s c ON c.%s = f.%s ORDER BY f.%s",
+            DbContract.Filters.COLUMN_NAME_FILTERNAME, DbContract.Filters.COLUMN_NAME_CALENDARRULENAME,
+            DbContract.Filters.COLUMN_NAME_FILTERRULENAME, DbContract.Filters.COLUMN_NAME_ACTIONNAME,
+            DbContract.CalendarRules.COLUMN_NAME_DAYMASK, DbContract.CalendarRules.COLUMN_NAME_FROM,
+            DbContract.CalendarRules.COLUMN_NAME_TO, DbContract.Filters.TABLE_NAME, DbContract.CalendarRules.TABLE_NAME,
+            DbContract.CalendarRules.COLUMN_NAME_RULENAME, DbContract.Filters.COLUMN_NAME_CALENDARRULENAME, DbContract.Filters._ID);
+    //the patterns of the filter rules used by a filter, one row per pattern
+    private static final String SQL_USED_PATTERNS = String.format(
+            "SELECT r.%s, r.%s, p.%s FROM %s r LEFT JOIN %s p ON p.%s = r.%s WHERE r.%s IN (SELECT %s FROM %s) ORDER BY r.%s",
+            DbContract.FilterRules.COLUMN_NAME_RULENAME, DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,
+            DbContract.FilterPatterns.COLUMN_NAME_PATTERN, DbContract.FilterRules.TABLE_NAME, DbContract.FilterPatterns.TABLE_NAME,
+            DbContract.FilterPatterns.COLUMN_NAME_RULEID, DbContract.FilterRules._ID, DbContract.FilterRules.COLUMN_NAME_RULENAME,
+            DbContract.Filters.COLUMN_NAME_FILTERRULENAME, DbContract.Filters.TABLE_NAME, DbContract.FilterRules._ID);
 
     /**
      * Insert a Filter record (a filter handle actually)
@@ -38,7 +66,9 @@ public class FilterProvider {
             vals.put(DbContract.Filters.COLUMN_NAME_FILTERRULENAME,fh.getFilterRuleName());
         if (fh.getActionName() != null)
             vals.put(DbContract.Filters.COLUMN_NAME_ACTIONNAME,fh.getActionName());
-        return db.insert(DbContract.Filters.TABLE_NAME, DbContract.Filters.COLUMN_NAME_ACTIONNAME, vals);
+        long id = db.insert(DbContract.Filters.TABLE_NAME, DbContract.Filters.COLUMN_NAME_ACTIONNAME, vals);
+        if (id != -1) DbChangeNotifier.FilterChanged(fh.getName());
+        return id;
     }
 
     /**
@@ -144,6 +174,7 @@ public class FilterProvider {
         String selection = DbContract.Filters._ID + " = ?";
         String[] selectionArgs = { String.valueOf(filterId) };
         db.update(DbContract.Filters.TABLE_NAME, vals, selection, selectionArgs);
+        DbChangeNotifier.FilterChanged(fh.getName());
     }
 
     /**
@@ -157,6 +188,7 @@ public class FilterProvider {
         db.delete(DbContract.Filters.TABLE_NAME, where, args);
         where = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
         db.delete(DbContract.FilterPatterns.TABLE_NAME, where, args);
+        DbChangeNotifier.FilterChanged(null);
     }
 
     /**
@@ -290,4 +322,116 @@ public class FilterProvider {
         c.close();
         return handles;
     }
+
+    /**
+     * Load all the filters with their rules and actions using two JOIN queries, instead of looking up the rules of every filter by name (see
+     * {@link Filter#makeFilter(Context, FilterHandle)}). A filter referring to a rule or an
+     * action that does not exist is skipped and logged
+     * @param ctx the Android context (to find the actions)
+     * @param db the SQLite db connection
+     * @return the list of filters
+     * @throws ReflectiveOperationException could not construct the actions
+     */
+    public static synchronized List<Filter> LoadAllCompiled(Context ctx, SQLiteDatabase db) throws ReflectiveOperationException {
+        List<FilterHandle> handles = new ArrayList<>();
+        Map<String, CalendarRule> calendars = new HashMap<>();
+        Map<String, FilterRule> rules = new HashMap<>();
+        //no transaction: the write lock taken by one would block the call log writer. A change
+        //between the two reads notifies a reload (see DbChangeNotifier), until which a filter
+        //whose rule was not read is skipped
+        Cursor c = db.rawQuery(SQL_FILTERS_WITH_CALENDARS, null);
+        try {
+            while (c.moveToNext()) {
+                FilterHandle h = new FilterHandle(c.getString(0), c.getString(1), c.getString(2), c.getString(3));
+                handles.add(h);
+                if (!c.isNull(4) && !calendars.containsKey(h.getCalendarRuleName()))
+                    calendars.put(h.getCalendarRuleName(), CalendarRule.makeRule(h.getCalendarRuleName(), c.getInt(4), c.getString(5), c.getString(6)));
+            }
+        }
+        finally {
+            c.close();
+        }
+        c = db.rawQuery(SQL_USED_PATTERNS, null);
+        try {
+            FilterRule current = null;
+            while (c.moveToNext()) {
+                String name = c.getString(0);
+                if (current == null || !current.getName().equals(name)) {
+                    current = new FilterRule(name, c.getString(1));
+                    rules.put(name, current);
+                }
+                if (!c.isNull(2)) current.addPattern(c.getString(2));
+            }
+        }
+        finally {
+            c.close();
+        }
+
+        List<Filter> filters = new ArrayList<>(handles.size());
+        for (FilterHandle h : handles) {
+            ICalendarRule cr;
+            IFilterRule fr;
+            IAction action;
+            if (h.getCalendarRuleName()==null || h.getCalendarRuleName().isEmpty())
+                cr = new Always();
+            else
+                cr = calendars.get(h.getCalendarRuleName());
+            if (h.getFilterRuleName()==null || h.getFilterRuleName().isEmpty())
+                fr = new NoMatches();
+            else
+                fr = rules.get(h.getFilterRuleName());
+            if (h.getActionName()==null || h.getActionName().isEmpty())
+                action = new Nothing();
+            else
+                action = ActionRegistry.getAvailableAction(ctx, h.getActionName());
+            if (cr==null || fr==null || action==null) {
+                Log.e(TAG, String.format(Locale.getDefault(), "Filter %s skipped, can't find calendar rule %s, filter rule %s or action %s",
+                                         h.getName(), h.getCalendarRuleName(), h.getFilterRuleName(), h.getActionName()));
+                continue;
+            }
+            filters.add(Filter.makeFilter(h.getName(), cr, fr, action));
+        }
+        return filters;
+    }
+
+    /**
+     * The source of the {@link FilterCompiler} of the running service, reading the database
+     */
+    public static class CompilerSource implements FilterCompiler.Source {
+        private final Context myContext;
+
+        /**
+         * Constructor
+         * @param ctx the Android context (the application context, as it is kept)
+         */
+        public CompilerSource(Context ctx) {
+            myContext = ctx;
+        }
+
+        private SQLiteDatabase db() {
+            return DbHelper.GetHelper(myContext).getReadableDatabase();
+        }
+
+        @Override
+        public List<FilterHandle> loadHandles() {
+            return LoadFilters(db());
+        }
+
+        @Override
+        public Map<String, CalendarRule> loadCalendarRules(Collection<String> names) {
+            return CalendarRuleProvider.LoadCalendarRules(db(), names);
+        }
+
+        @Override
+        public Map<String, FilterRule> loadFilterRules(Collection<String> names) {
+            return FilterRuleProvider.LoadFilterRules(db(), names);
+        }
+
+        @Override
+        public IAction findAction(String name) throws ReflectiveOperationException {
+            IAction action = ActionRegistry.getAvailableAction(myContext, name);
+            if (action == null) Log.e(TAG, String.format("Can't find an action with class %s", name));
+            return action;
+        }
+    }
 }
@@ -4,17 +4,131 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.prismaqf.callblocker.rules.FilterRule;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author ConteDiMonteCristo
  */
 public class FilterRuleProvider {
     private static final String TAG = FilterRuleProvider.class.getCanonicalName();
+    private static final String SQL_INSERT_PATTERN = "INSERT INTO " + DbContract.FilterPatterns.TABLE_NAME + " (" +
+            DbContract.FilterPatterns.COLUMN_NAME_RULEID + ", " + DbContract.FilterPatterns.COLUMN_NAME_PATTERN + ") VALUES (?, ?)";
+    private static final String SQL_DELETE_PATTERN = "DELETE FROM " + DbContract.FilterPatterns.TABLE_NAME + " WHERE " +
+            DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ? AND " + DbContract.FilterPatterns.COLUMN_NAME_PATTERN + " = ?";
+    //the patterns of some rules by name, one row per pattern (the names are formatted in)
+    private static final String SQL_RULES_BY_NAME = "SELECT r." + DbContract.FilterRules.COLUMN_NAME_RULENAME + ", r." +
+            DbContract.FilterRules.COLUMN_NAME_DESCRIPTION + ", p." + DbContract.FilterPatterns.COLUMN_NAME_PATTERN + " FROM " +
+            DbContract.FilterRules.TABLE_NAME + " r LEFT JOIN " + DbContract.FilterPatterns.TABLE_NAME + " p ON p." +
+            DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = r." + DbContract.FilterRules._ID + " WHERE r." +
+            DbContract.FilterRules.COLUMN_NAME_RULENAME + " IN (%s) ORDER BY r." + DbContract.FilterRules._ID;
+    //the names bound in one query, below the SQLite limit of 999 variables
+    static final int MAX_NAMES = 500;
+
+    /**
+     * Insert patterns with a single compiled statement (to be called in a transaction)
+     * @param db the SQLite connection
+     * @param ruleId the rule id
+     * @param keys the pattern keys
+     */
+    private static void insertPatterns(SQLiteDatabase db, long ruleId, Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        SQLiteStatement stmt = db.compileStatement(SQL_INSERT_PATTERN);
+        try {
+            for (String key : keys) {
+                stmt.bindLong(1, ruleId);
+                stmt.bindString(2, key);
+                stmt.executeInsert();
+            }
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Delete patterns with a single compiled statement (to be called in a transaction)
+     * @param db the SQLite connection
+     * @param ruleId the rule id
+     * @param keys the pattern keys
+     */
+    private static void deletePatterns(SQLiteDatabase db, long ruleId, Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        SQLiteStatement stmt = db.compileStatement(SQL_DELETE_PATTERN);
+        try {
+            for (String key : keys) {
+                stmt.bindLong(1, ruleId);
+                stmt.bindString(2, key);
+                stmt.executeUpdateDelete();
+            }
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * The pattern keys stored for a rule
+     * @param db the SQLite connection
+     * @param ruleId the rule id
+     * @return the set of keys
+     */
+    private static Set<String> storedPatterns(SQLiteDatabase db, long ruleId) {
+        String[] cols = {DbContract.FilterPatterns.COLUMN_NAME_PATTERN};
+        String selection = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
+        String[] selectionArgs = { String.valueOf(ruleId) };
+        Cursor c = db.query(DbContract.FilterPatterns.TABLE_NAME,cols,selection,selectionArgs,null,null,null,null);
+        Set<String> keys = new HashSet<>();
+        try {
+            while (c.moveToNext())
+                keys.add(c.getString(0));
+        }
+        finally {
+            c.close();
+        }
+        return keys;
+    }
+
+    /**
+     * The name of a rule
+     * @param db the SQLite connection
+     * @param ruleId the rule id
+     * @return the name or null if the rule does not exist
+     */
+    private static String ruleName(SQLiteDatabase db, long ruleId) {
+        String[] cols = {DbContract.FilterRules.COLUMN_NAME_RULENAME};
+        String selection = DbContract.FilterRules._ID + " = ?";
+        String[] selectionArgs = { String.valueOf(ruleId) };
+        Cursor c = db.query(DbContract.FilterRules.TABLE_NAME,cols,selection,selectionArgs,null,null,null,null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The placeholders of an IN clause
+     * @param count the number of values
+     * @return "?, ?, ..."
+     */
+    static String Placeholders(int count) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i=0; i<count; i++)
+            buffer.append(i == 0 ? "?" : ", ?");
+        return buffer.toString();
+    }
 
 
     /**
@@ -24,31 +138,24 @@ public class FilterRuleProvider {
      * @return the rule id
      */
     public static synchronized long InsertRow(SQLiteDatabase db, FilterRule fr) {
-        //the behaviour should be transactional, i.e. both insertion in filterrules
-        //and filterpatterns should happen or everything should be unwound.
-        //Hence the try-catch
+        //both insertion in filterrules and filterpatterns happen in one transaction
         long ruleId=-1;
+        db.beginTransaction();
         try {
             ContentValues vals = new ContentValues();
             vals.put(DbContract.FilterRules.COLUMN_NAME_RULENAME,fr.getName());
             if (fr.getDescription()!=null)
                 vals.put(DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,fr.getDescription());
-            ruleId = db.insert(DbContract.FilterRules.TABLE_NAME,DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,vals);
-            for (String regex: fr.getPatternKeys()) {
-                vals = new ContentValues();
-                vals.put(DbContract.FilterPatterns.COLUMN_NAME_RULEID,ruleId);
-                vals.put(DbContract.FilterPatterns.COLUMN_NAME_PATTERN,regex);
-                db.insert(DbContract.FilterPatterns.TABLE_NAME,null,vals);
-            }
+            ruleId = db.insertOrThrow(DbContract.FilterRules.TABLE_NAME,DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,vals);
+            insertPatterns(db, ruleId, fr.getPatternKeys());
+            db.setTransactionSuccessful();
         } catch (SQLException e) {
             Log.e(TAG, e.getMessage());
-            String where = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
-            String[] args = {String.valueOf(ruleId)};
-            db.delete(DbContract.FilterPatterns.TABLE_NAME,where,args);
-            where = DbContract.FilterRules._ID + " = ?";
-            db.delete(DbContract.FilterRules.TABLE_NAME,where,args);
+            ruleId = -1;
+        } finally {
+            db.endTransaction();
         }
-
+        if (ruleId != -1) DbChangeNotifier.FilterRuleChanged(fr.getName());
         return ruleId;
     }
 
@@ -98,27 +205,38 @@ public class FilterRuleProvider {
 
     /**
      * Update a filter rule by changing name and description and
-     * deleting and reinserting the filter patterns
+     * applying the difference between the stored and the new patterns,
+     * all in one transaction
      * @param db the SQLite connection
      * @param ruleId the filter rule identifier
      * @param fr the filter rule
      */
     public static synchronized void UpdateFilterRule(SQLiteDatabase db, long ruleId, FilterRule fr) {
-        ContentValues vals = new ContentValues();
-        vals.put(DbContract.FilterRules.COLUMN_NAME_RULENAME,fr.getName());
-        vals.put(DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,fr.getDescription());
-        String selection = DbContract.FilterRules._ID + " = ?";
-        String[] selectionArgs = { String.valueOf(ruleId) };
-        db.update(DbContract.FilterRules.TABLE_NAME,vals,selection,selectionArgs);
-        //now delete and reinsert the patterns
-        selection = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
-        db.delete(DbContract.FilterPatterns.TABLE_NAME, selection, selectionArgs);
-        for (String regex: fr.getPatternKeys()) {
-            vals = new ContentValues();
-            vals.put(DbContract.FilterPatterns.COLUMN_NAME_RULEID,ruleId);
-            vals.put(DbContract.FilterPatterns.COLUMN_NAME_PATTERN,regex);
-            db.insert(DbContract.FilterPatterns.TABLE_NAME,null,vals);
+        String oldName = ruleName(db, ruleId);
+        db.beginTransaction();
+        try {
+            ContentValues vals = new ContentValues();
+            vals.put(DbContract.FilterRules.COLUMN_NAME_RULENAME,fr.getName());
+            vals.put(DbContract.FilterRules.COLUMN_NAME_DESCRIPTION,fr.getDescription());
+            String selection = DbContract.FilterRules._ID + " = ?";
+            String[] selectionArgs = { String.valueOf(ruleId) };
+            db.update(DbContract.FilterRules.TABLE_NAME,vals,selection,selectionArgs);
+            //now only touch the patterns that changed
+            Set<String> stored = storedPatterns(db, ruleId);
+            Set<String> wanted = fr.getPatternKeys();
+            Set<String> removed = new HashSet<>(stored);
+            removed.removeAll(wanted);
+            Set<String> added = new HashSet<>(wanted);
+            added.removeAll(stored);
+            deletePatterns(db, ruleId, removed);
+            insertPatterns(db, ruleId, added);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        if (oldName != null && !oldName.equals(fr.getName()))
+            DbChangeNotifier.FilterRuleChanged(oldName);
+        DbChangeNotifier.FilterRuleChanged(fr.getName());
     }
 
     /**
@@ -129,9 +247,17 @@ public class FilterRuleProvider {
     public static synchronized void DeleteFilterRule(SQLiteDatabase db, long ruleid) {
         String where = DbContract.FilterRules._ID + " = ?";
         String[] args = {String.valueOf(ruleid)};
-        db.delete(DbContract.FilterRules.TABLE_NAME, where, args);
-        where = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
-        db.delete(DbContract.FilterPatterns.TABLE_NAME,where,args);
+        String name = ruleName(db, ruleid);
+        db.beginTransaction();
+        try {
+            db.delete(DbContract.FilterRules.TABLE_NAME, where, args);
+            where = DbContract.FilterPatterns.COLUMN_NAME_RULEID + " = ?";
+            db.delete(DbContract.FilterPatterns.TABLE_NAME,where,args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        DbChangeNotifier.FilterRuleChanged(name);
     }
 
     /**
@@ -201,4 +327,36 @@ public class FilterRuleProvider {
         c.close();
         return 0;
     }
+
+    /**
+     * Load some filter rules with their patterns, with a JOIN query for every
+     * {@link #MAX_NAMES} names (e.g. only the rules changed since the filters were compiled)
+     * @param db the SQLite connection
+     * @param names the rule names
+     * @return the rules found, by name
+     */
+    public static synchronized Map<String, FilterRule> LoadFilterRules(SQLiteDatabase db, Collection<String> names) {
+        Map<String, FilterRule> rules = new HashMap<>();
+        List<String> all = new ArrayList<>(names);
+        for (int from = 0; from < all.size(); from += MAX_NAMES) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + MAX_NAMES));
+            String sql = String.format(SQL_RULES_BY_NAME, Placeholders(chunk.size()));
+            Cursor c = db.rawQuery(sql, chunk.toArray(new String[chunk.size()]));
+            try {
+                FilterRule current = null;
+                while (c.moveToNext()) {
+                    String name = c.getString(0);
+                    if (current == null || !current.getName().equals(name)) {
+                        current = new FilterRule(name, c.getString(1));
+                        rules.put(name, current);
+                    }
+                    if (!c.isNull(2)) current.addPattern(c.getString(2));
+                }
+            }
+            finally {
+                c.close();
+            }
+        }
+        return rules;
+    }
 }
@@ -3,6 +3,11 @@ package com.prismaqf.callblocker.sql;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author ConteDiMonteCristo.
@@ -43,6 +48,28 @@ public class LoggedCallProvider {
 
     }
 
+    /**
+     * A logged call as read from DB, with its id (the key of the pages) and time-stamp
+     */
+    public static class LoggedCallRecord extends LoggedCall {
+        private final long id;
+        private final String timestamp;
+
+        public LoggedCallRecord(long id, String timestamp, long runid, String action, String number, String description) {
+            super(runid, action, number, description);
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+    }
+
     public static LoggedCall deserialize(Cursor c) {
         long runId = c.getLong(c.getColumnIndexOrThrow(DbContract.LoggedCalls.COLUMN_NAME_RUNID));
         String action=null;
@@ -58,12 +85,25 @@ public class LoggedCallProvider {
     }
 
     /**
-     * Insert a new record (logged call) in the database
+     * Insert a new record (logged call) in the database and add it to the
+     * statistics, in the same transaction
+     * @param db the SQLite connection
+     * @param lc the logged call
+     * @return the new call id
+     */
+    public static long InsertRow(SQLiteDatabase db, LoggedCall lc) {
+        return InsertRow(db, lc, null);
+    }
+
+    /**
+     * Insert a new record (logged call) in the database and add it to the
+     * statistics with statements already compiled on the connection
      * @param db the SQLite connection
      * @param lc the logged call
+     * @param stats the statements of the statistics or null to compile them for this call
      * @return the new call id
      */
-    public static synchronized long InsertRow(SQLiteDatabase db, LoggedCall lc) {
+    static synchronized long InsertRow(SQLiteDatabase db, LoggedCall lc, CallStatsProvider.Recorder stats) {
         ContentValues vals = new ContentValues();
         vals.put(DbContract.LoggedCalls.COLUMN_NAME_RUNID,lc.getRunid());
         vals.put(DbContract.LoggedCalls.COLUMN_NAME_NUMBER,lc.getNumber());
@@ -71,7 +111,19 @@ public class LoggedCallProvider {
             vals.put(DbContract.LoggedCalls.COLUMN_NAME_DESCRIPTION,lc.getDescription());
         if (lc.getAction()!=null)
             vals.put(DbContract.LoggedCalls.COLUMN_NAME_ACTION,lc.getAction());
-        return db.insert(DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.COLUMN_NAME_DESCRIPTION, vals);
+        db.beginTransaction();
+        try {
+            long id = db.insert(DbContract.LoggedCalls.TABLE_NAME, DbContract.LoggedCalls.COLUMN_NAME_DESCRIPTION, vals);
+            if (id != -1) {
+                if (stats != null) stats.record(id, lc);
+                else CallStatsProvider.Record(db, id, lc);
+            }
+            db.setTransactionSuccessful();
+            return id;
+        }
+        finally {
+            db.endTransaction();
+        }
     }
 
     public static synchronized void DeleteLoggedCall(SQLiteDatabase db, long callid) {
@@ -124,6 +176,13 @@ public class LoggedCallProvider {
      * @return a cursor
      */
     public static synchronized Cursor LatestTriggered(SQLiteDatabase db, int maxRecords, boolean descending) {
+        return db.rawQuery(SqlLatestTriggered(maxRecords, descending), null);
+    }
+
+    /**
+     * The query of {@link #LatestTriggered(SQLiteDatabase, int, boolean)}
+     */
+    static String SqlLatestTriggered(int maxRecords, boolean descending) {
         String orderby;
         if (descending)
             orderby= String.format("%s desc",DbContract.LoggedCalls._ID);
@@ -133,7 +192,49 @@ public class LoggedCallProvider {
         String limit = null;
         if (maxRecords > 0)
             limit = String.valueOf(maxRecords);
+        //the few triggered calls are read in order from their partial index
         String selection = String.format("%s is not null",DbContract.LoggedCalls.COLUMN_NAME_ACTION);
-        return db.query(DbContract.LoggedCalls.TABLE_NAME, null, selection, null, null, null, orderby, limit);
+        return SQLiteQueryBuilder.buildQueryString(false, DbContract.LoggedCalls.TABLE_NAME, null, selection, null, null, orderby, limit);
+    }
+
+    /**
+     * Retrieves a page of calls next to a given one, seeking on the id so that the cost
+     * does not depend on how deep the page is in the log
+     * @param db the SQLite connection
+     * @param fromId the id of the call next to the page (excluded), Long.MAX_VALUE for the latest page
+     * @param older a flag to indicate the direction, towards older calls when the flag is true
+     * @param triggeredOnly only the calls that triggered an action
+     * @param pageSize the maximum number of calls returned
+     * @return the calls, the newest first
+     */
+    public static synchronized List<LoggedCallRecord> CallsPage(SQLiteDatabase db, long fromId, boolean older, boolean triggeredOnly, int pageSize) {
+        String[] args = {String.valueOf(fromId)};
+        Cursor c = db.rawQuery(SqlCallsPage(older, triggeredOnly, pageSize), args);
+        List<LoggedCallRecord> page = new ArrayList<>(c.getCount());
+        try {
+            int id = c.getColumnIndexOrThrow(DbContract.LoggedCalls._ID);
+            int timestamp = c.getColumnIndexOrThrow(DbContract.LoggedCalls.COLUMN_NAME_TIMESTAMP);
+            while (c.moveToNext()) {
+                LoggedCall lc = deserialize(c);
+                page.add(new LoggedCallRecord(c.getLong(id), c.getString(timestamp), lc.getRunid(), lc.getAction(), lc.getNumber(), lc.getDescription()));
+            }
+        }
+        finally {
+            c.close();
+        }
+        if (!older) Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * The query of {@link #CallsPage(SQLiteDatabase, long, boolean, boolean, int)}, with the id as argument
+     */
+    static String SqlCallsPage(boolean older, boolean triggeredOnly, int pageSize) {
+        String selection = DbContract.LoggedCalls._ID + (older ? " < ?" : " > ?");
+        //as in LatestTriggered, the triggered calls are sought in their partial index
+        if (triggeredOnly)
+            selection = String.format("%s is not null AND %s", DbContract.LoggedCalls.COLUMN_NAME_ACTION, selection);
+        String orderby = String.format("%s %s", DbContract.LoggedCalls._ID, older ? "desc" : "asc");
+        return SQLiteQueryBuilder.buildQueryString(false, DbContract.LoggedCalls.TABLE_NAME, null, selection, null, null, orderby, String.valueOf(pageSize));
     }
 }
@@ -0,0 +1,128 @@
+package com.prismaqf.callblocker.sql;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A step of the schema migration, bringing the DB from version - 1 to version.
+ * The steps are run by {@link DbHelper#onUpgrade(SQLiteDatabase, int, int)} inside the
+ * transaction opened by SQLiteOpenHelper, so they either all apply or none does.
+ * Data is moved with INSERT ... SELECT statements in bounded ranges of rows, so that
+ * nothing is read into memory
+ * @author ConteDiMonteCristo
+ */
+public abstract class Migration {
+
+    private static final String TAG = Migration.class.getCanonicalName();
+    static final int CHUNK_ROWS = 5000;
+
+    private final int version;
+
+    /**
+     * Constructor
+     * @param version the version reached by this step
+     */
+    protected Migration(int version) {
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Apply the step
+     * @param db the SQLite connection
+     */
+    public abstract void apply(SQLiteDatabase db);
+
+    /**
+     * The columns of a table
+     * @param db the SQLite connection
+     * @param table the table name
+     * @return the list of column names (empty if the table does not exist)
+     */
+    static List<String> columns(SQLiteDatabase db, String table) {
+        List<String> cols = new ArrayList<>();
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = c.getColumnIndexOrThrow("name");
+            while (c.moveToNext())
+                cols.add(c.getString(name));
+        }
+        finally {
+            c.close();
+        }
+        return cols;
+    }
+
+    /**
+     * Copy the rows of a table into another, for the columns they have in common,
+     * in chunks of {@link #CHUNK_ROWS} rowids
+     * @param db the SQLite connection
+     * @param from the source table
+     * @param to the destination table
+     * @return the number of rows copied
+     */
+    static long copyTable(SQLiteDatabase db, String from, String to) {
+        List<String> common = columns(db, from);
+        common.retainAll(columns(db, to));
+        if (common.isEmpty()) return 0;
+        String cols = TextUtils.join(", ", common);
+        Cursor c = db.rawQuery("SELECT MIN(rowid), MAX(rowid), COUNT(*) FROM " + from, null);
+        long min, max, count;
+        try {
+            c.moveToFirst();
+            min = c.getLong(0);
+            max = c.getLong(1);
+            count = c.getLong(2);
+        }
+        finally {
+            c.close();
+        }
+        if (count == 0) return 0;
+        String sql = String.format(Locale.US, "INSERT INTO %s (%s) SELECT %s FROM %s WHERE rowid >= ? AND rowid < ?", to, cols, cols, from);
+        for (long start = min; start <= max; start += CHUNK_ROWS)
+            db.execSQL(sql, new Object[]{start, start + CHUNK_ROWS});
+        return count;
+    }
+
+    /**
+     * Bring a table to a new definition keeping the data of the columns that still exist:
+     * the table is renamed, created again and the rows are copied back
+     * @param db the SQLite connection
+     * @param table the table name
+     * @param createSql the statement creating the table in the new schema
+     */
+    static void rebuildTable(SQLiteDatabase db, String table, String createSql) {
+        if (columns(db, table).isEmpty()) {
+            db.execSQL(createSql);
+            return;
+        }
+        String old = table + "_old";
+        db.execSQL("DROP TABLE IF EXISTS " + old);
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + old);
+        db.execSQL(createSql);
+        long rows = copyTable(db, old, table);
+        db.execSQL("DROP TABLE " + old);
+        Log.i(TAG, String.format(Locale.getDefault(), "Table %s rebuilt, %d rows copied", table, rows));
+    }
+
+    /**
+     * Add a column to a table unless it is already there
+     * @param db the SQLite connection
+     * @param table the table name
+     * @param column the column name
+     * @param definition the type and constraints of the column
+     */
+    static void addColumn(SQLiteDatabase db, String table, String column, String definition) {
+        if (columns(db, table).contains(column)) return;
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+}
@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.prismaqf.callblocker.utils.PreferenceHelper;
@@ -11,17 +12,24 @@ import com.prismaqf.callblocker.utils.PreferenceHelper;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 
 /**
  * @author ConteDiMonteCristo.
  */
 public class ServiceRunProvider {
 
+    //the purge of the runs stopped before a time, and of their calls
+    private static final String OLD_RUNS = " WHERE " + DbContract.ServiceRuns.COLUMN_NAME_STOP_MS + " < ?";
+    static final String SQL_PURGE_CALLS = "DELETE FROM " + DbContract.LoggedCalls.TABLE_NAME + " WHERE " +
+            DbContract.LoggedCalls.COLUMN_NAME_RUNID + " IN (SELECT " + DbContract.ServiceRuns._ID + " FROM " +
+            DbContract.ServiceRuns.TABLE_NAME + OLD_RUNS + ")";
+    static final String SQL_PURGE_RUNS = "DELETE FROM " + DbContract.ServiceRuns.TABLE_NAME + OLD_RUNS;
+
     public static class ServiceRun {
         private final long runId;
         private final int numTriggered;
@@ -67,6 +75,14 @@ public class ServiceRunProvider {
         int triggered  = c.getInt(c.getColumnIndexOrThrow(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_TRIGGERED));
         Date start = null;
         Date stop = null;
+        int startMs = c.getColumnIndex(DbContract.ServiceRuns.COLUMN_NAME_START_MS);
+        int stopMs = c.getColumnIndex(DbContract.ServiceRuns.COLUMN_NAME_STOP_MS);
+        if (startMs >= 0 && !c.isNull(startMs)) {
+            //no need to parse the text
+            start = new Date(c.getLong(startMs));
+            if (!c.isNull(stopMs)) stop = new Date(c.getLong(stopMs));
+            return new ServiceRun(runId, start, stop, received, triggered);
+        }
         try {
 
             DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
@@ -161,10 +177,14 @@ public class ServiceRunProvider {
     public static synchronized long InsertRow(SQLiteDatabase db, ServiceRun sr) {
         ContentValues vals = new ContentValues();
         DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
-        if (sr.getStart() != null)
-            vals.put(DbContract.ServiceRuns.COLUMN_NAME_START,format.format(sr.getStart()));
-        if (sr.getStop() != null)
-            vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP,format.format(sr.getStop()));
+        if (sr.getStart() != null) {
+            vals.put(DbContract.ServiceRuns.COLUMN_NAME_START, format.format(sr.getStart()));
+            vals.put(DbContract.ServiceRuns.COLUMN_NAME_START_MS, sr.getStart().getTime());
+        }
+        if (sr.getStop() != null) {
+            vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP, format.format(sr.getStop()));
+            vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP_MS, sr.getStop().getTime());
+        }
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_RECEIVED, sr.getNumReceived());
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_TRIGGERED, sr.getNumTriggered());
         return db.insert(DbContract.ServiceRuns.TABLE_NAME, DbContract.ServiceRuns.COLUMN_NAME_STOP, vals);
@@ -183,6 +203,7 @@ public class ServiceRunProvider {
         ContentValues vals = new ContentValues();
         DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP,format.format(stop));
+        vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP_MS, stop.getTime());
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_RECEIVED, numReceived);
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_TRIGGERED, numTriggered);
         String selection = DbContract.ServiceRuns._ID + " = ?";
@@ -201,6 +222,7 @@ public class ServiceRunProvider {
     public static synchronized void UpdateWhileRunning(SQLiteDatabase db, long runid, int numReceived, int numTriggered) {
         ContentValues vals = new ContentValues();
         vals.put(DbContract.ServiceRuns.COLUMN_NAME_STOP, RUNNING);
+        vals.putNull(DbContract.ServiceRuns.COLUMN_NAME_STOP_MS);
         if (numReceived >= 0)
             vals.put(DbContract.ServiceRuns.COLUMN_NAME_TOTAL_RECEIVED, numReceived);
         if (numTriggered >=0)
@@ -236,12 +258,14 @@ public class ServiceRunProvider {
         UpdateRow(db,runid, end,numReceived,numTriggered);
     }
 
-    private static synchronized void DeleteServiceRun(SQLiteDatabase db, long runid) {
-        String where = DbContract.ServiceRuns._ID + " = ?";
-        String[] args = {String.valueOf(runid)};
-        db.delete(DbContract.ServiceRuns.TABLE_NAME, where, args);
-    }
-
+    /**
+     * Delete the service runs stopped before a time limit given by the log longevity,
+     * together with their calls, in one transaction
+     * @param db the SQLite connection
+     * @param context the context (to read the longevity preference)
+     * @param longevity the log longevity or null for the preference value
+     * @return the number of service runs deleted
+     */
     public static synchronized int PurgeLog(SQLiteDatabase db, Context context, String longevity) {
         String theLongevity = longevity!=null ? longevity : PreferenceHelper.GetLogLongevity(context);
         if (theLongevity.equals("no limit")) return 0;
@@ -251,22 +275,91 @@ public class ServiceRunProvider {
         else if (theLongevity.contains("week")) cal.add(Calendar.DATE,-7);
         else if (theLongevity.contains("month")) cal.add(Calendar.MONTH,-1);
         else if (theLongevity.contains("year")) cal.add(Calendar.YEAR,-1);
-        //now delete:
-        //1. first create a map of records to delete
-        Set<Long> candidates = new HashSet<>();
-        Cursor c = LatestRuns(db,-1,false); //everything in ascending order
-        while (c.moveToNext()) {
-            ServiceRun r = deserialize(c);
-            if (r.getStop() != null && r.getStop().before(cal.getTime()))
-                candidates.add(r.getId());
+        long before = cal.getTimeInMillis();
+        int purged;
+        SQLiteStatement calls = db.compileStatement(SQL_PURGE_CALLS);
+        SQLiteStatement runs = db.compileStatement(SQL_PURGE_RUNS);
+        db.beginTransaction();
+        try {
+            //the calls first, while their runs can still be found by the index on stopms
+            calls.bindLong(1, before);
+            calls.executeUpdateDelete();
+            runs.bindLong(1, before);
+            purged = runs.executeUpdateDelete();
+            db.setTransactionSuccessful();
         }
-        c.close();
-        //2. now delete service runs and associated calls
-        for (long id : candidates) {
-            DeleteServiceRun(db,id);
-            LoggedCallProvider.DeleteLoggedCallInRun(db,id);
+        finally {
+            db.endTransaction();
+            calls.close();
+            runs.close();
+        }
+        return purged;
+    }
+
+    /**
+     * Fill the epoch times of the runs which only have the text ones (used by the migration).
+     * The text times are localized, so they are parsed here rather than in SQL: the runs are
+     * read in ranges of ids and updated once the cursor of the range is closed
+     * @param db the SQLite connection
+     */
+    static void FillEpochTimes(SQLiteDatabase db) {
+        String[] cols = {DbContract.ServiceRuns._ID, DbContract.ServiceRuns.COLUMN_NAME_START, DbContract.ServiceRuns.COLUMN_NAME_STOP};
+        String selection = DbContract.ServiceRuns.COLUMN_NAME_START_MS + " IS NULL AND " + DbContract.ServiceRuns._ID + " > ?";
+        String limit = String.valueOf(Migration.CHUNK_ROWS);
+        SQLiteStatement stmt = db.compileStatement("UPDATE " + DbContract.ServiceRuns.TABLE_NAME + " SET " +
+                DbContract.ServiceRuns.COLUMN_NAME_START_MS + " = ?, " + DbContract.ServiceRuns.COLUMN_NAME_STOP_MS + " = ? WHERE " +
+                DbContract.ServiceRuns._ID + " = ?");
+        DateFormat format = new SimpleDateFormat(DbContract.DATE_FORMAT, Locale.getDefault());
+        int filled = 0;
+        long lastId = 0;
+        List<Long> ids = new ArrayList<>();
+        List<String> starts = new ArrayList<>();
+        List<String> stops = new ArrayList<>();
+        try {
+            do {
+                ids.clear();
+                starts.clear();
+                stops.clear();
+                Cursor c = db.query(DbContract.ServiceRuns.TABLE_NAME, cols, selection, new String[]{String.valueOf(lastId)},
+                                    null, null, DbContract.ServiceRuns._ID, limit);
+                try {
+                    while (c.moveToNext()) {
+                        ids.add(c.getLong(0));
+                        starts.add(c.getString(1));
+                        stops.add(c.getString(2));
+                    }
+                }
+                finally {
+                    c.close();
+                }
+                for (int i=0; i<ids.size(); i++) {
+                    lastId = ids.get(i);
+                    Date start = parse(format, starts.get(i));
+                    if (start == null) continue;
+                    Date stop = parse(format, stops.get(i));
+                    stmt.bindLong(1, start.getTime());
+                    if (stop == null) stmt.bindNull(2);
+                    else stmt.bindLong(2, stop.getTime());
+                    stmt.bindLong(3, lastId);
+                    stmt.executeUpdateDelete();
+                    filled++;
+                }
+            } while (ids.size() == Migration.CHUNK_ROWS);
+        }
+        finally {
+            stmt.close();
+        }
+        Log.i(TAG, String.format(Locale.getDefault(), "Epoch times filled for %d service runs", filled));
+    }
+
+    private static Date parse(DateFormat format, String text) {
+        if (text == null || text.equals(RUNNING)) return null;
+        try {
+            return format.parse(text);
+        } catch (ParseException e) {
+            Log.e(TAG, e.getMessage());
+            return null;
         }
-        return candidates.size();
     }
 
 
@@ -30,6 +30,8 @@ public class BackupAgent extends BackupAgentHelper {
         public void performBackup(ParcelFileDescriptor oldState, BackupDataOutput data, ParcelFileDescriptor newState) {
             Log.i(TAG,"Backing up the database");
             synchronized (DbHelper.getDbHelperLock()) {
+                //the file alone must hold the content of the write-ahead log
+                DbHelper.Checkpoint();
                 super.performBackup(oldState, data, newState);
             }
         }
@@ -38,6 +40,8 @@ public class BackupAgent extends BackupAgentHelper {
         public void restoreEntity(BackupDataInputStream data) {
             Log.i(TAG,"Restoring the database");
             synchronized (DbHelper.getDbHelperLock()) {
+                //the file is replaced: no connection nor log must survive
+                DbHelper.CloseShared();
                 super.restoreEntity(data);
             }
         }
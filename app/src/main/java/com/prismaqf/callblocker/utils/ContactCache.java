@@ -0,0 +1,179 @@
+package com.prismaqf.callblocker.utils;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import com.prismaqf.callblocker.rules.NumberNormalizer;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * LRU cache of the contact descriptions of the calling numbers, keyed by the number
+ * in canonical form. Numbers which are not in the contacts are cached as well. The
+ * whole cache is dropped when the contacts change
+ * @author ConteDiMonteCristo
+ */
+public final class ContactCache {
+
+    public static final String NOT_FOUND = "Not found";
+    static final int DEFAULT_CAPACITY = 512;
+    private static final String TAG = ContactCache.class.getCanonicalName();
+
+    private static ContactCache theCache = null;
+
+    /**
+     * The source of the descriptions
+     */
+    public interface Lookup {
+        /**
+         * @param number the calling number
+         * @return the contact description or null if the number is not in the contacts
+         */
+        String find(String number);
+    }
+
+    private final Lookup lookup;
+    private final Map<String, String> entries;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     * @param lookup the source of the descriptions
+     * @param capacity the maximum number of entries
+     */
+    public ContactCache(Lookup lookup, final int capacity) {
+        this.lookup = lookup;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The cache of the process, on the contacts provider and invalidated by a
+     * ContentObserver on the contacts
+     * @param ctx the context (only its application context is kept)
+     * @return the single instance of ContactCache
+     */
+    public static synchronized ContactCache GetCache(Context ctx) {
+        if (theCache == null) {
+            final Context app = ctx.getApplicationContext();
+            theCache = new ContactCache(new Lookup() {
+                @Override
+                public String find(String number) {
+                    return lookupContact(app, number);
+                }
+            }, DEFAULT_CAPACITY);
+            final ContactCache cache = theCache;
+            app.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    Log.i(TAG, "The contacts have changed");
+                    cache.invalidate();
+                }
+            });
+        }
+        return theCache;
+    }
+
+    /**
+     * Query the contacts provider
+     * @param ctx the context
+     * @param number the calling number
+     * @return the display name or null if the number is not in the contacts
+     */
+    static String lookupContact(Context ctx, String number) {
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        String[] projection = new String[]{ ContactsContract.PhoneLookup.DISPLAY_NAME};
+        Cursor c = ctx.getContentResolver().query(uri, projection, null, null, null);
+        if (c == null) return null;
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    private static String keyOf(String number) {
+        String key = NumberNormalizer.get().normalize(number).toString();
+        return key.isEmpty() ? number : key;
+    }
+
+    /**
+     * The description of a calling number
+     * @param number the calling number
+     * @return the contact name or {@link #NOT_FOUND}
+     */
+    public String describe(String number) {
+        return resolve(number, true);
+    }
+
+    private String resolve(String number, boolean counted) {
+        String key = keyOf(number);
+        long seen;
+        synchronized (this) {
+            String description = entries.get(key);
+            if (description != null) {
+                if (counted) hits++;
+                return description;
+            }
+            if (counted) misses++;
+            seen = generation;
+        }
+        //the provider is queried outside the lock
+        String description = lookup.find(number);
+        if (description == null) description = NOT_FOUND;
+        synchronized (this) {
+            //not cached if the contacts changed in the meantime
+            if (seen == generation) entries.put(key, description);
+        }
+        return description;
+    }
+
+    /**
+     * Look up a list of numbers in advance (e.g. the latest callers at service start)
+     * @param numbers the numbers
+     */
+    public void prewarm(Collection<String> numbers) {
+        //not counted as hits or misses of the calls
+        for (String number : numbers)
+            resolve(number, false);
+    }
+
+    /**
+     * Drop all the entries
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "Contact cache [entries = %d, hits = %d, misses = %d]", entries.size(), hits, misses);
+    }
+}
@@ -0,0 +1,180 @@
+package com.prismaqf.callblocker.utils;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.prismaqf.callblocker.R;
+import com.prismaqf.callblocker.sql.LoggedCallProvider;
+import com.prismaqf.callblocker.sql.LoggedCallProvider.LoggedCallRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * List adapter on the logged calls which loads pages in the background as the user
+ * scrolls. Only a window of {@link #MAX_PAGES} pages is kept in memory: the pages
+ * which fall out of it are dropped and loaded again when the user scrolls back
+ * @author ConteDiMonteCristo
+ */
+public class PagedCallsAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
+
+    static final int PAGE_SIZE = 50;
+    static final int MAX_PAGES = 6;
+
+    private final Context myContext;
+    private final SQLiteDatabase myDb;
+    private final boolean myTriggeredOnly;
+    private final List<LoggedCallRecord> myRows = new ArrayList<>();
+    private ListView myList;
+    private boolean myHasOlder = true;
+    private boolean myHasNewer = false;
+    private PageLoader myLoader = null;
+
+    private class PageLoader extends AsyncTask<Long, Void, List<LoggedCallRecord>> {
+        private final boolean older;
+
+        PageLoader(boolean older) {
+            this.older = older;
+        }
+
+        @Override
+        protected List<LoggedCallRecord> doInBackground(Long... fromId) {
+            return LoggedCallProvider.CallsPage(myDb, fromId[0], older, myTriggeredOnly, PAGE_SIZE);
+        }
+
+        @Override
+        protected void onPostExecute(List<LoggedCallRecord> page) {
+            myLoader = null;
+            if (older)
+                appendOlder(page);
+            else
+                prependNewer(page);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param context the context
+     * @param db the SQLite connection
+     * @param triggeredOnly only the calls that triggered an action
+     */
+    public PagedCallsAdapter(Context context, SQLiteDatabase db, boolean triggeredOnly) {
+        myContext = context;
+        myDb = db;
+        myTriggeredOnly = triggeredOnly;
+    }
+
+    /**
+     * Bind the adapter to the list and load the latest page
+     * @param list the list view
+     */
+    public void attach(ListView list) {
+        myList = list;
+        list.setAdapter(this);
+        list.setOnScrollListener(this);
+        load(true, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stop loading pages (e.g. when the activity is destroyed)
+     */
+    public void detach() {
+        if (myLoader != null) myLoader.cancel(false);
+        myLoader = null;
+        myList = null;
+    }
+
+    private void load(boolean older, long fromId) {
+        if (myLoader != null) return;
+        myLoader = new PageLoader(older);
+        myLoader.execute(fromId);
+    }
+
+    private void appendOlder(List<LoggedCallRecord> page) {
+        if (myList == null) return;
+        if (page.size() < PAGE_SIZE) myHasOlder = false;
+        myRows.addAll(page);
+        int dropped = Math.max(0, myRows.size() - PAGE_SIZE * MAX_PAGES);
+        if (dropped > 0) {
+            myRows.subList(0, dropped).clear();
+            myHasNewer = true;
+        }
+        refresh(-dropped);
+    }
+
+    private void prependNewer(List<LoggedCallRecord> page) {
+        if (myList == null) return;
+        if (page.size() < PAGE_SIZE) myHasNewer = false;
+        myRows.addAll(0, page);
+        int dropped = Math.max(0, myRows.size() - PAGE_SIZE * MAX_PAGES);
+        if (dropped > 0) {
+            myRows.subList(myRows.size() - dropped, myRows.size()).clear();
+            myHasOlder = true;
+        }
+        refresh(page.size());
+    }
+
+    private void refresh(int shift) {
+        //keep the rows on screen in place when rows are added or dropped above them
+        int first = myList.getFirstVisiblePosition();
+        View top = myList.getChildAt(0);
+        int offset = top == null ? 0 : top.getTop();
+        notifyDataSetChanged();
+        if (shift != 0) myList.setSelectionFromTop(Math.max(0, first + shift), offset);
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (myRows.isEmpty()) return;
+        if (myHasOlder && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2)
+            load(true, myRows.get(myRows.size() - 1).getId());
+        else if (myHasNewer && firstVisibleItem <= PAGE_SIZE / 2)
+            load(false, myRows.get(0).getId());
+    }
+
+    @Override
+    public int getCount() {
+        return myRows.size();
+    }
+
+    @Override
+    public LoggedCallRecord getItem(int position) {
+        return myRows.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return myRows.get(position).getId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        LoggedCallRecord call = getItem(position);
+        // Check if an existing view is being reused, otherwise inflate the view
+        if (convertView == null) {
+            convertView = LayoutInflater.from(myContext).inflate(R.layout.logged_call_record, parent, false);
+        }
+        ((TextView) convertView.findViewById(R.id.text_timestamp)).setText(call.getTimestamp());
+        ((TextView) convertView.findViewById(R.id.text_calling_number)).setText(call.getNumber());
+        ((TextView) convertView.findViewById(R.id.text_description)).setText(call.getDescription());
+        ((TextView) convertView.findViewById(R.id.text_action_matched)).setText(call.getAction());
+        return convertView;
+    }
+}
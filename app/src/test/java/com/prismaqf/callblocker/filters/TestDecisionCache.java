@@ -0,0 +1,85 @@
+package com.prismaqf.callblocker.filters;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.BitSet;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestDecisionCache {
+
+    private static BitSet firing(int... filters) {
+        BitSet fired = new BitSet();
+        for (int f : filters) fired.set(f);
+        return fired;
+    }
+
+    @Test
+    public void HitsAndMisses() {
+        DecisionCache cache = new DecisionCache(10);
+        FilterIndex index = FilterIndex.empty();
+        long generation = DecisionCache.Generation();
+        assertNull("Not cached yet", cache.get("0123456789", index, generation, 0));
+        BitSet fired = firing(1, 3);
+        cache.put("0123456789", index, generation, fired, 1000);
+        assertSame("Same number in another format", fired, cache.get("012 345-6789", index, generation, 10));
+        assertEquals("One hit", 1, cache.getHits());
+        assertEquals("One miss", 1, cache.getMisses());
+    }
+
+    @Test
+    public void DecisionExpiresWithTheCalendar() {
+        DecisionCache cache = new DecisionCache(10);
+        FilterIndex index = FilterIndex.empty();
+        long generation = DecisionCache.Generation();
+        cache.put("123", index, generation, firing(0), 1000);
+        assertTrue("Valid before the change", cache.get("123", index, generation, 999) != null);
+        assertNull("Expired at the change", cache.get("123", index, generation, 1000));
+        assertEquals("The expired entry is dropped", 0, cache.size());
+    }
+
+    @Test
+    public void NewGenerationMisses() {
+        DecisionCache cache = new DecisionCache(10);
+        FilterIndex index = FilterIndex.empty();
+        long generation = DecisionCache.Generation();
+        cache.put("123", index, generation, firing(0), Long.MAX_VALUE);
+        DecisionCache.Bump();
+        assertTrue("A new generation", DecisionCache.Generation() > generation);
+        assertNull("Decision of the old filters", cache.get("123", index, DecisionCache.Generation(), 0));
+    }
+
+    @Test
+    public void DecisionOfAnotherIndexMisses() {
+        DecisionCache cache = new DecisionCache(10);
+        FilterIndex index = FilterIndex.empty();
+        long generation = DecisionCache.Generation();
+        cache.put("123", index, generation, firing(0), Long.MAX_VALUE);
+        //a new index published before the generation is bumped
+        assertNull("Positions of the old index", cache.get("123", FilterIndex.empty(), generation, 0));
+        assertEquals("The stale entry is dropped", 0, cache.size());
+    }
+
+    @Test
+    public void LeastRecentlyUsedIsEvicted() {
+        DecisionCache cache = new DecisionCache(2);
+        FilterIndex index = FilterIndex.empty();
+        long generation = DecisionCache.Generation();
+        cache.put("1", index, generation, firing(), Long.MAX_VALUE);
+        cache.put("2", index, generation, firing(), Long.MAX_VALUE);
+        cache.get("1", index, generation, 0);
+        cache.put("3", index, generation, firing(), Long.MAX_VALUE); //evicts 2
+        assertEquals("Capacity", 2, cache.size());
+        assertTrue("1 is still cached", cache.get("1", index, generation, 0) != null);
+        assertNull("2 was evicted", cache.get("2", index, generation, 0));
+    }
+}
@@ -0,0 +1,211 @@
+package com.prismaqf.callblocker.filters;
+
+import android.content.Context;
+
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.LogInfo;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FilterRule;
+import com.prismaqf.callblocker.rules.FrozenFilterRule;
+import com.prismaqf.callblocker.rules.MappedFilterRule;
+import com.prismaqf.callblocker.rules.NoMatches;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestEngineSnapshot {
+
+    /**
+     * An action known to the source by its name
+     */
+    private static class Warn implements IAction {
+        @Override
+        public String getName() {
+            return "warn";
+        }
+
+        @Override
+        public void act(Context context, String number, LogInfo info) {}
+    }
+
+    /**
+     * A source with the actions only, the rules come from the snapshot
+     */
+    private static class Actions implements FilterCompiler.Source {
+        @Override
+        public List<FilterHandle> loadHandles() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, CalendarRule> loadCalendarRules(Collection<String> names) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, FilterRule> loadFilterRules(Collection<String> names) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IAction findAction(String name) {
+            return "warn".equals(name) ? new Warn() : null;
+        }
+    }
+
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("filters", ".snapshot");
+    }
+
+    @After
+    public void after() {
+        assertTrue("Temp file deleted", file.delete());
+    }
+
+    private static FilterIndex makeIndex() {
+        Random rnd = new Random(11);
+        FilterRule spam = new FilterRule("spam", "Random patterns");
+        for (int i=0; i<300; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int k=0; k<3+rnd.nextInt(5); k++)
+                sb.append(rnd.nextInt(6) == 0 ? '*' : (char)('0' + rnd.nextInt(10)));
+            spam.addPattern(sb.toString());
+        }
+        FilterRule premium = new FilterRule("premium", null);
+        premium.addPattern("0900");
+        CalendarRule evenings = CalendarRule.makeRule("evenings", 127, "18:00", "23:00");
+        CalendarRule weekdays = CalendarRule.makeRule("weekdays", 31, "08:00", "17:30");
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("spam at night", evenings, spam.freeze(), new Warn()));
+        filters.add(Filter.makeFilter("spam at work", weekdays, spam.freeze(), new Nothing()));
+        filters.add(Filter.makeFilter("premium", new Always(), premium.freeze(), new Warn()));
+        filters.add(Filter.makeFilter("nothing", weekdays, new NoMatches(), new Nothing()));
+        FilterRule large = new FilterRule("large", "Plain numbers in a blocklist");
+        while (large.getPatternKeys().size() < FrozenFilterRule.BLOCKLIST_MIN) {
+            StringBuilder sb = new StringBuilder();
+            for (int k=0; k<6+rnd.nextInt(3); k++)
+                sb.append((char)('0' + rnd.nextInt(10)));
+            large.addPattern(sb.toString());
+        }
+        large.addPattern("55*1"); //left out of the precheck
+        filters.add(Filter.makeFilter("large", new Always(), large.freeze(), new Warn()));
+        return new FilterIndex(filters);
+    }
+
+    @Test
+    public void TestSnapshotMatchesLikeTheIndex() throws IOException {
+        FilterIndex index = makeIndex();
+        EngineSnapshot.write(file, index);
+        FilterIndex mapped = EngineSnapshot.read(file, new Actions());
+        assertEquals("Same filters", index.size(), mapped.size());
+        for (int i=0; i<index.size(); i++) {
+            assertEquals("Same name", index.getFilter(i).getName(), mapped.getFilter(i).getName());
+            assertEquals("Same action", index.getFilter(i).getAction().getName(), mapped.getFilter(i).getAction().getName());
+        }
+        assertTrue("Rules matched in place", mapped.getFilter(0).getFilterRule() instanceof MappedFilterRule);
+        assertTrue("The large rule has a blocklist", ((FrozenFilterRule) index.getFilter(4).getFilterRule()).getBlocklist() != null);
+        assertTrue("The large rule has a precheck", ((FrozenFilterRule) index.getFilter(4).getFilterRule()).getPrecheck() != null);
+        assertTrue("Shared rules stay shared", mapped.getFilter(0).getFilterRule() == mapped.getFilter(1).getFilterRule());
+        assertEquals("Same index", index.toString(), mapped.toString());
+        Random rnd = new Random(7);
+        long week = 7L*24*3600*1000;
+        for (int j=0; j<3000; j++) {
+            StringBuilder number = new StringBuilder();
+            for (int k=0; k<6+rnd.nextInt(8); k++)
+                number.append((char)('0' + rnd.nextInt(10)));
+            long when = (long)(rnd.nextDouble() * week);
+            assertEquals(String.format("Number %s at %d", number, when),
+                         index.match(number.toString(), when), mapped.match(number.toString(), when));
+            assertEquals("Same validity", index.validUntil(when), mapped.validUntil(when));
+        }
+    }
+
+    @Test
+    public void TestSnapshotIsReplaced() throws IOException {
+        EngineSnapshot.write(file, makeIndex());
+        FilterIndex before = EngineSnapshot.read(file, new Actions());
+        EngineSnapshot.write(file, FilterIndex.empty());
+        assertEquals("The new snapshot", 0, EngineSnapshot.read(file, new Actions()).size());
+        assertTrue("The old mapping is still valid", before.match("0900123", 0).get(2));
+    }
+
+    @Test
+    public void TestCorruptSnapshot() throws IOException {
+        EngineSnapshot.write(file, makeIndex());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            EngineSnapshot.read(file, new Actions());
+            fail("A truncated snapshot is rejected");
+        }
+        catch (IOException e) {
+            assertTrue("Truncated", e.getMessage().contains("Truncated"));
+        }
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0);
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            EngineSnapshot.read(file, new Actions());
+            fail("Not a snapshot");
+        }
+        catch (IOException e) {
+            assertTrue("Not a snapshot", e.getMessage().contains("Not a filter snapshot"));
+        }
+    }
+
+    @Test
+    public void TestUnknownActionRejectsTheSnapshot() throws IOException {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("gone", new Always(), new NoMatches(), new IAction() {
+            @Override
+            public String getName() {
+                return "com.example.Removed";
+            }
+
+            @Override
+            public void act(Context context, String number, LogInfo info) {}
+        }));
+        EngineSnapshot.write(file, new FilterIndex(filters));
+        try {
+            EngineSnapshot.read(file, new Actions());
+            fail("The action does not exist");
+        }
+        catch (IOException e) {
+            assertTrue("Missing action", e.getMessage().contains("com.example.Removed"));
+        }
+    }
+}
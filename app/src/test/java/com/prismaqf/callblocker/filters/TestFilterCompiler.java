@@ -0,0 +1,153 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FilterRule;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestFilterCompiler {
+
+    /**
+     * A source in memory, counting the rules loaded
+     */
+    private static class MemorySource implements FilterCompiler.Source {
+        final List<FilterHandle> handles = new ArrayList<>();
+        final Map<String, FilterRule> filterRules = new HashMap<>();
+        final Map<String, CalendarRule> calendarRules = new HashMap<>();
+        int filterRulesLoaded = 0;
+        int calendarRulesLoaded = 0;
+
+        @Override
+        public List<FilterHandle> loadHandles() {
+            return new ArrayList<>(handles);
+        }
+
+        @Override
+        public Map<String, CalendarRule> loadCalendarRules(Collection<String> names) {
+            Map<String, CalendarRule> found = new HashMap<>();
+            for (String name : names)
+                if (calendarRules.containsKey(name)) found.put(name, calendarRules.get(name));
+            calendarRulesLoaded += found.size();
+            return found;
+        }
+
+        @Override
+        public Map<String, FilterRule> loadFilterRules(Collection<String> names) {
+            Map<String, FilterRule> found = new HashMap<>();
+            for (String name : names) {
+                FilterRule stored = filterRules.get(name);
+                if (stored == null) continue;
+                //a new object, as read from DB
+                FilterRule fr = new FilterRule(name, stored.getDescription());
+                for (String key : stored.getPatternKeys()) fr.addPattern(key);
+                found.put(name, fr);
+            }
+            filterRulesLoaded += found.size();
+            return found;
+        }
+
+        @Override
+        public IAction findAction(String name) {
+            return Nothing.class.getCanonicalName().equals(name) ? new Nothing() : null;
+        }
+    }
+
+    private static final String NOTHING = Nothing.class.getCanonicalName();
+    private MemorySource source;
+
+    private void addRule(String name, String... patterns) {
+        FilterRule fr = new FilterRule(name, "a rule");
+        for (String p : patterns) fr.addPattern(p);
+        source.filterRules.put(name, fr);
+    }
+
+    @Before
+    public void before() {
+        source = new MemorySource();
+        for (int i=0; i<5; i++) {
+            addRule("rule" + i, String.format("12%d*", i));
+            source.handles.add(new FilterHandle("filter" + i, "weekdays", "rule" + i, NOTHING));
+        }
+        source.calendarRules.put("weekdays", CalendarRule.makeRule("weekdays", 31, "00:00", "23:59"));
+    }
+
+    @Test
+    public void FirstBuildCompilesAllRules() throws Exception {
+        FilterCompiler compiler = new FilterCompiler(source);
+        FilterIndex index = compiler.build();
+        assertEquals("All filters", 5, index.size());
+        assertEquals("All rules compiled", 5, compiler.getCompiled());
+        assertEquals("Calendar rule loaded once", 1, source.calendarRulesLoaded);
+        assertTrue("Nothing skipped", compiler.getSkipped().isEmpty());
+    }
+
+    @Test
+    public void ChangedRuleIsTheOnlyOneRecompiled() throws Exception {
+        FilterCompiler compiler = new FilterCompiler(source);
+        FilterIndex before = compiler.build();
+        addRule("rule3", "999*");
+        compiler.invalidateFilterRule("rule3");
+        FilterIndex after = compiler.build();
+        assertEquals("One more rule compiled", 6, compiler.getCompiled());
+        assertEquals("One more rule loaded", 6, source.filterRulesLoaded);
+        assertEquals("Calendar rule not loaded again", 1, source.calendarRulesLoaded);
+        assertTrue("The other rules are shared", before.getFilter(0).getFilterRule() == after.getFilter(0).getFilterRule());
+        assertTrue("The old index is unchanged", before.getFilter(3).getFilterRule().Matches("1234"));
+        assertFalse("The new index sees the change", after.getFilter(3).getFilterRule().Matches("1234"));
+        assertTrue("The new pattern", after.getFilter(3).getFilterRule().Matches("9991"));
+    }
+
+    @Test
+    public void NewFilterCompilesOnlyItsRule() throws Exception {
+        FilterCompiler compiler = new FilterCompiler(source);
+        compiler.build();
+        addRule("rule5", "555*");
+        source.handles.add(new FilterHandle("filter5", null, "rule5", NOTHING));
+        FilterIndex index = compiler.build();
+        assertEquals("All filters", 6, index.size());
+        assertEquals("Only the new rule compiled", 6, compiler.getCompiled());
+    }
+
+    @Test
+    public void ClearRecompilesEverything() throws Exception {
+        FilterCompiler compiler = new FilterCompiler(source);
+        compiler.build();
+        compiler.clear();
+        compiler.build();
+        assertEquals("All rules compiled twice", 10, compiler.getCompiled());
+        assertEquals("Calendar rule loaded twice", 2, source.calendarRulesLoaded);
+    }
+
+    @Test
+    public void IncompleteFilterIsSkipped() throws Exception {
+        FilterCompiler compiler = new FilterCompiler(source);
+        source.handles.add(new FilterHandle("orphan", null, "missing", NOTHING));
+        source.handles.add(new FilterHandle("noaction", null, "rule0", "com.example.Missing"));
+        FilterIndex index = compiler.build();
+        assertEquals("Incomplete filters skipped", 5, index.size());
+        assertEquals("Skipped filters", 2, compiler.getSkipped().size());
+        source.handles.remove(source.handles.size() - 1);
+        source.handles.remove(source.handles.size() - 1);
+        compiler.build();
+        assertTrue("Nothing skipped", compiler.getSkipped().isEmpty());
+    }
+}
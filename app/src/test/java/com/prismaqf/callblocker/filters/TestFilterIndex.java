@@ -0,0 +1,105 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.actions.LogIncoming;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.actions.WarnTrigger;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.FilterRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+import com.prismaqf.callblocker.rules.Never;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestFilterIndex {
+
+    /**
+     * A filter rule counting how many times it is evaluated
+     */
+    private static class CountingRule implements IFilterRule {
+        private final FilterRule rule;
+        int evaluations = 0;
+
+        CountingRule(String pattern) {
+            rule = new FilterRule("counting", "counting evaluations");
+            rule.addPattern(pattern);
+        }
+
+        @Override
+        public String getName() {
+            return rule.getName();
+        }
+
+        @Override
+        public boolean Matches(String number) {
+            evaluations++;
+            return rule.Matches(number);
+        }
+    }
+
+    @Test
+    public void TestMatchingFilters() {
+        CountingRule shared = new CountingRule("123");
+        CountingRule other = new CountingRule("999");
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("first", new Always(), shared, new Nothing()));
+        filters.add(Filter.makeFilter("second", new Always(), other, new Nothing()));
+        filters.add(Filter.makeFilter("third", new Always(), shared, new Nothing()));
+        filters.add(Filter.makeFilter("fourth", new Never(), shared, new Nothing()));
+        FilterIndex index = new FilterIndex(filters);
+        assertEquals("Four filters", 4, index.size());
+        BitSet fired = index.match("0123", new Date());
+        assertTrue("The first filter fires", fired.get(0));
+        assertFalse("The second filter does not match", fired.get(1));
+        assertTrue("The third filter fires", fired.get(2));
+        assertFalse("The fourth filter is not active", fired.get(3));
+        assertEquals("The shared rule is evaluated once", 1, shared.evaluations);
+        assertEquals("The other rule is evaluated once", 1, other.evaluations);
+    }
+
+    @Test
+    public void TestInactiveRulesAreSkipped() {
+        CountingRule rule = new CountingRule("123");
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("never", new Never(), rule, new Nothing()));
+        FilterIndex index = new FilterIndex(filters);
+        assertTrue("Nothing fires", index.match("123", new Date()).isEmpty());
+        assertEquals("The rule is not evaluated", 0, rule.evaluations);
+    }
+
+    @Test
+    public void TestLoggingFlag() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("nothing", new Always(), new CountingRule("1"), new Nothing()));
+        assertFalse("No logging action", new FilterIndex(filters).isLogging());
+        filters.add(Filter.makeFilter("logging", new Never(), new CountingRule("1"), new LogIncoming()));
+        assertTrue("A logging action", new FilterIndex(filters).isLogging());
+        assertTrue("The empty index matches nothing", FilterIndex.empty().match("1", new Date()).isEmpty());
+    }
+
+    @Test
+    public void TestDeferredActions() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("nothing", new Always(), new CountingRule("1"), new Nothing()));
+        filters.add(Filter.makeFilter("logging", new Always(), new CountingRule("1"), new LogIncoming()));
+        filters.add(Filter.makeFilter("warning", new Always(), new CountingRule("1"), new WarnTrigger()));
+        FilterIndex index = new FilterIndex(filters);
+        assertFalse("The other actions are performed first", index.isDeferred(0));
+        assertTrue("Logging is deferred", index.isDeferred(1));
+        assertTrue("Warning is deferred", index.isDeferred(2));
+    }
+}
@@ -0,0 +1,114 @@
+package com.prismaqf.callblocker.filters;
+
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.WeeklySchedule;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestFilterSchedule {
+
+    private static int[] expected(List<WeeklySchedule> schedules, int minute) {
+        List<Integer> active = new ArrayList<>();
+        for (int f=0; f<schedules.size(); f++)
+            if (schedules.get(f).isActiveAt(minute)) active.add(f);
+        int[] result = new int[active.size()];
+        for (int i=0; i<result.length; i++) result[i] = active.get(i);
+        return result;
+    }
+
+    @Test
+    public void TestSlices() {
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        schedules.add(WeeklySchedule.ALWAYS);
+        schedules.add(new WeeklySchedule(1, 9*60, 17*60)); //Monday 9:00-17:00
+        schedules.add(WeeklySchedule.NEVER);
+        FilterSchedule fs = new FilterSchedule(schedules);
+        assertEquals("Two slices", 2, fs.getNumberOfSlices());
+        assertTrue("Monday morning", Arrays.equals(new int[]{0}, fs.activeAt(8*60)));
+        assertTrue("Monday office hours", Arrays.equals(new int[]{0,1}, fs.activeAt(9*60)));
+        assertTrue("Sunday night", Arrays.equals(new int[]{0}, fs.activeAt(WeeklySchedule.MINUTES_PER_WEEK-1)));
+    }
+
+    @Test
+    public void TestNoTransitions() {
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        schedules.add(WeeklySchedule.NEVER);
+        schedules.add(WeeklySchedule.ALWAYS);
+        FilterSchedule fs = new FilterSchedule(schedules);
+        assertEquals("One slice", 1, fs.getNumberOfSlices());
+        assertTrue("Always active", Arrays.equals(new int[]{1}, fs.activeAt(System.currentTimeMillis())));
+    }
+
+    @Test
+    public void TestAgainstSchedules() {
+        Random rnd = new Random(3);
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        for (int i=0; i<20; i++)
+            schedules.add(new CalendarRule("random", CalendarRule.makeMask(rnd.nextInt(128)),
+                                           rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(24), rnd.nextInt(60)).getSchedule());
+        FilterSchedule fs = new FilterSchedule(schedules);
+        for (int m=0; m<WeeklySchedule.MINUTES_PER_WEEK; m++)
+            assertTrue(String.format("Minute %d", m), Arrays.equals(expected(schedules, m), fs.activeAt(m)));
+        //the cached slice follows the clock, including going backwards
+        long t = 1460000000000L;
+        for (int i=0; i<500; i++) {
+            t += (rnd.nextInt(10) == 0 ? -1 : 1) * (long)rnd.nextInt(4*3600*1000);
+            assertTrue(String.format("Instant %d", t),
+                       Arrays.equals(expected(schedules, WeeklySchedule.minuteOfWeek(t, TimeZone.getDefault())),
+                                     fs.activeAt(t)));
+        }
+    }
+
+    @Test
+    public void TestZoneChange() {
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        schedules.add(new WeeklySchedule(1, 9*60, 17*60)); //Monday 9:00-17:00
+        FilterSchedule fs = new FilterSchedule(schedules);
+        long monday = 1460368800000L; //Monday 11 April 2016, 10:00 UTC
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            assertTrue("Office hours in London", Arrays.equals(new int[]{0}, fs.activeAt(monday)));
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            assertTrue("Evening in Tokyo", Arrays.equals(new int[0], fs.activeAt(monday)));
+            assertEquals("Until Monday 9:00 in Tokyo", monday + (7*24-10)*3600*1000L, fs.activeUntil(monday));
+        }
+        finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test
+    public void TestActiveUntil() {
+        Random rnd = new Random(5);
+        List<WeeklySchedule> schedules = new ArrayList<>();
+        for (int i=0; i<5; i++)
+            schedules.add(new CalendarRule("random", CalendarRule.makeMask(rnd.nextInt(128)),
+                                           rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(24), rnd.nextInt(60)).getSchedule());
+        FilterSchedule fs = new FilterSchedule(schedules);
+        long t = 1460000000000L;
+        for (int i=0; i<100; i++) {
+            t += (long)rnd.nextInt(4*3600*1000);
+            long until = fs.activeUntil(t);
+            assertTrue("The slice ends in the future", until > t);
+            if (until == Long.MAX_VALUE) continue;
+            //the same filters until the end of the slice
+            assertTrue(String.format("Instant %d", t), Arrays.equals(fs.activeAt(t), fs.activeAt(until - 1)));
+        }
+    }
+}
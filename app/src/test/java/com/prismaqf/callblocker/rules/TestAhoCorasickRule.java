@@ -0,0 +1,111 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checking the Aho-Corasick rule against the regex semantics of FilterRule
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestAhoCorasickRule {
+
+    @Test
+    public void TestTwoGroups() {
+        AhoCorasickRule rule = new AhoCorasickRule("dummy", Collections.singletonList("123*456"));
+        assertFalse("A number matching only one not good", rule.Matches("1234"));
+        assertFalse("A number matching two, but without space, is not good", rule.Matches("123456"));
+        assertTrue("A number matching both patterns should match", rule.Matches("012374567"));
+        assertTrue("A number matching both patterns should match (with extra char)", rule.Matches("0 1237a456 7"));
+        assertFalse("No match with null", rule.Matches(null));
+    }
+
+    @Test
+    public void TestRepeatedGroup() {
+        AhoCorasickRule rule = new AhoCorasickRule("dummy", Collections.singletonList("5*5"));
+        assertFalse("Only one group", rule.Matches("5"));
+        assertFalse("No digit in between", rule.Matches("55"));
+        assertTrue("One digit in between", rule.Matches("505"));
+        assertTrue("The same group far apart", rule.Matches("15000051"));
+    }
+
+    @Test
+    public void TestOverlappingGroups() {
+        AhoCorasickRule rule = new AhoCorasickRule("dummy", Arrays.asList("12*23*3", "777"));
+        assertTrue("Groups in order", rule.Matches("12923939"));
+        assertFalse("Groups overlapping", rule.Matches("1233"));
+        assertTrue("Literal pattern", rule.Matches("17771"));
+    }
+
+    @Test
+    public void TestNoProgressAcrossScans() {
+        AhoCorasickRule rule = new AhoCorasickRule("dummy", Collections.singletonList("123*456"));
+        assertFalse("Only the first group", rule.Matches("01230"));
+        assertFalse("The first group was found by the previous scan", rule.Matches("04560"));
+        assertFalse("The first group is before a '*'", rule.Matches("1230*0456"));
+        assertTrue("Both groups in the same scan", rule.Matches("1230456"));
+    }
+
+    @Test
+    public void TestFrozenRuleMatchesWithTheAutomaton() {
+        FilterRule fr = new FilterRule("dummy", "frozen");
+        fr.addPattern("123*456");
+        fr.addPattern("0800");
+        FrozenFilterRule frozen = fr.freeze();
+        assertTrue("Both groups", frozen.Matches("0123 7 456"));
+        assertFalse("No gap between the groups", frozen.Matches("123456"));
+        assertTrue("Literal pattern", frozen.Matches("+44 0800 1234"));
+        assertFalse("Not in the rule", frozen.Matches("0208 123"));
+    }
+
+    @Test
+    public void TestEmptyAndNoPatterns() {
+        AhoCorasickRule none = new AhoCorasickRule("none", new ArrayList<String>());
+        assertFalse("No pattern to match", none.Matches("4512779"));
+        AhoCorasickRule all = new AhoCorasickRule("all", Collections.singletonList("**"));
+        assertTrue("The empty pattern matches anything", all.Matches("invalid"));
+    }
+
+    @Test
+    public void TestAgainstFilterRule() {
+        Random rnd = new Random(7);
+        char[] chars = {'0','1','2','3','4','5','6','7','8','9','*'};
+        for (int round=0; round<100; round++) {
+            FilterRule fr = new FilterRule("reference", "regex based");
+            List<String> keys = new ArrayList<>();
+            int npatterns = 1 + rnd.nextInt(30);
+            for (int i=0; i<npatterns; i++) {
+                StringBuilder sb = new StringBuilder();
+                int len = 1 + rnd.nextInt(7);
+                for (int k=0; k<len; k++) sb.append(chars[rnd.nextInt(chars.length)]);
+                String key = FilterRule.filterUnwanted(sb.toString());
+                if (key.isEmpty()) continue;
+                keys.add(key);
+                fr.addPattern(key);
+            }
+            AhoCorasickRule ac = new AhoCorasickRule("ac", keys);
+            FrozenFilterRule frozen = fr.freeze();
+            for (int j=0; j<100; j++) {
+                StringBuilder sb = new StringBuilder();
+                int len = rnd.nextInt(14);
+                for (int k=0; k<len; k++) sb.append(chars[rnd.nextInt(rnd.nextInt(8)==0 ? 11 : 10)]);
+                String number = sb.toString();
+                assertEquals(String.format("Patterns %s on number %s", keys, number),
+                             fr.Matches(number), ac.Matches(number));
+                assertEquals(String.format("Frozen patterns %s on number %s", keys, number),
+                             fr.Matches(number), frozen.Matches(number));
+            }
+        }
+    }
+}
@@ -103,7 +103,7 @@ public class TestCalendarRule {
         assertNotEquals("Changed the name", c1, c2);
         assertNotEquals("Different hash code", c1.hashCode(), c2.hashCode());
         c2 = (CalendarRule)c1.clone();
-        c2.getDayMask().add(CalendarRule.DayOfWeek.WEDNESDAY);
+        c2.addDays(EnumSet.of(CalendarRule.DayOfWeek.WEDNESDAY));
         assertNotEquals("Changed day mask", c1, c2);
         c2 = (CalendarRule)c1.clone();
         c2.setStartHour(3);
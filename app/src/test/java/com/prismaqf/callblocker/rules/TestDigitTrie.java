@@ -0,0 +1,135 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checking the compiled automaton against the regex built by makeRegex
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestDigitTrie {
+
+    private static final char[] CHARS = {'0','1','2','3','4','5','6','7','8','9','*'};
+
+    private static String randomKey(Random rnd, int maxLen, boolean withStars) {
+        int len = 1 + rnd.nextInt(maxLen);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<len; i++)
+            sb.append(CHARS[rnd.nextInt(withStars ? CHARS.length : 10)]);
+        return FilterRule.filterUnwanted(sb.toString());
+    }
+
+    private static boolean regexMatches(List<String> keys, String number) {
+        for (String key : keys)
+            if (FilterRule.makeRegex(key).matcher(number).find()) return true;
+        return false;
+    }
+
+    @Test
+    public void TestSingleGroup() {
+        DigitTrie trie = new DigitTrie();
+        trie.add("123");
+        assertTrue("Exact match", trie.matches("123"));
+        assertTrue("Match inside the number", trie.matches("0012399"));
+        assertFalse("Partial group", trie.matches("1299"));
+        assertFalse("Non digit breaks the group", trie.matches("12*3"));
+    }
+
+    @Test
+    public void TestWildcardNeedsOneDigit() {
+        DigitTrie trie = new DigitTrie();
+        trie.add("12*34");
+        assertFalse("No digit in between", trie.matches("1234"));
+        assertTrue("One digit in between", trie.matches("12534"));
+        assertTrue("Many digits in between", trie.matches("9912555553499"));
+        assertFalse("Non digits can not fill the wildcard", trie.matches("12*34"));
+    }
+
+    @Test
+    public void TestEmptyPatternMatchesAll() {
+        DigitTrie trie = new DigitTrie();
+        trie.add("");
+        assertTrue("Any number", trie.matches("41842"));
+        assertTrue("Empty number", trie.matches(""));
+    }
+
+    @Test
+    public void TestRemoval() {
+        DigitTrie trie = new DigitTrie();
+        trie.add("123");
+        trie.add("12*5");
+        trie.add("1234");
+        trie.remove("123");
+        assertEquals("Two patterns left", 2, trie.size());
+        assertFalse("The removed pattern does not match", trie.matches("9123"));
+        assertTrue("The longer pattern still matches", trie.matches("91234"));
+        assertTrue("The wildcard pattern still matches", trie.matches("12005"));
+        trie.remove("12*5");
+        trie.remove("1234");
+        trie.remove("999");
+        assertEquals("Nothing left", 0, trie.size());
+        assertFalse("No match when empty", trie.matches("12345"));
+    }
+
+    @Test
+    public void TestAgainstRegex() {
+        Random rnd = new Random(17);
+        for (int round=0; round<200; round++) {
+            DigitTrie trie = new DigitTrie();
+            List<String> keys = new ArrayList<>();
+            int npatterns = 1 + rnd.nextInt(20);
+            for (int i=0; i<npatterns; i++) {
+                String key = randomKey(rnd, 6, true);
+                if (key.isEmpty()) continue;
+                keys.add(key);
+                trie.add(key);
+            }
+            for (int j=0; j<50; j++) {
+                String number = randomKey(rnd, 12, rnd.nextInt(5)==0);
+                assertEquals(String.format("Patterns %s on number %s", keys, number),
+                             regexMatches(keys, number), trie.matches(number));
+            }
+        }
+    }
+
+    @Test
+    public void TestFilterRuleAgainstRegex() {
+        Random rnd = new Random(31);
+        FilterRule fr = new FilterRule("random", "A random rule");
+        List<String> keys = new ArrayList<>();
+        for (int i=0; i<500; i++) {
+            String key = randomKey(rnd, 8, true);
+            if (key.isEmpty() || keys.contains(key)) continue;
+            keys.add(key);
+            fr.addPattern(key);
+        }
+        //remove a few to exercise the pruning
+        for (int i=0; i<100; i++) {
+            String key = keys.remove(rnd.nextInt(keys.size()));
+            fr.removePattern(key);
+        }
+        for (int j=0; j<2000; j++) {
+            String number = randomKey(rnd, 15, false);
+            boolean expected = keys.contains(number) || regexMatches(keys, number);
+            assertEquals(String.format("Number %s", number), expected, fr.Matches(number));
+        }
+    }
+
+    @Test
+    public void TestRegexUnchanged() {
+        //the regex path is still the reference for the patterns
+        Pattern p = FilterRule.makeRegex("12*34");
+        assertEquals("The regex is unchanged", "12\\d+34", p.pattern());
+    }
+}
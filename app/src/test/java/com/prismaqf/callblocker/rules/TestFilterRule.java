@@ -194,4 +194,38 @@ public class TestFilterRule {
         assertEquals("Cloning works properly",fr1,fr2);
         assertFalse("Equality is not identity",fr1==fr2);
     }
+
+    @Test
+    public void TestFreeze() {
+        FilterRule fr = new FilterRule("first","The first rule");
+        fr.addPattern("123");
+        fr.addPattern("74*56");
+        FrozenFilterRule snapshot = fr.freeze();
+        assertTrue("The snapshot is reused while the rule is unchanged", snapshot == fr.freeze());
+        assertTrue("Matching the first", snapshot.Matches("012356"));
+        assertTrue("Matching the second", snapshot.Matches("01274556"));
+        assertFalse("Matching none", snapshot.Matches("4512779"));
+        assertFalse("Null does not match", snapshot.Matches(null));
+        fr.removePattern("123");
+        fr.addPattern("451");
+        assertTrue("The old snapshot is not affected by edits", snapshot.Matches("012356"));
+        assertFalse("The old snapshot does not see new patterns", snapshot.Matches("4512779"));
+        FrozenFilterRule newSnapshot = fr.freeze();
+        assertFalse("A new snapshot after the edit", snapshot == newSnapshot);
+        assertFalse("The new snapshot sees the removal", newSnapshot.Matches("012356"));
+        assertTrue("The new snapshot sees the addition", newSnapshot.Matches("4512779"));
+        assertEquals("Same number of keys", fr.getPatternKeys().size(), newSnapshot.getPatternKeys().size());
+    }
+
+    @Test
+    public void TestFrozenEquality() {
+        FilterRule fr1 = new FilterRule("first","The first rule");
+        FilterRule fr2 = new FilterRule("first","The first rule");
+        fr1.addPattern("123");
+        fr2.addPattern("123");
+        assertEquals("Snapshots of equal rules are equal", fr1.freeze(), fr2.freeze());
+        assertEquals("Same hash code", fr1.freeze().hashCode(), fr2.freeze().hashCode());
+        fr2.setName("second");
+        assertFalse("Renaming invalidates the snapshot", fr1.freeze().equals(fr2.freeze()));
+    }
 }
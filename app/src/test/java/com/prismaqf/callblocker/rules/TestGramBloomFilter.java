@@ -0,0 +1,132 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestGramBloomFilter {
+
+    private static String digits(Random rnd, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<length; i++) sb.append((char)('0' + rnd.nextInt(10)));
+        return sb.toString();
+    }
+
+    @Test
+    public void TestGram() {
+        GramBloomFilter filter = GramBloomFilter.build(Arrays.asList("0800123", "0845*99", "07700900461"));
+        assertNotNull("Selective patterns", filter);
+        assertEquals("The shortest first group", 4, filter.getGram());
+        assertTrue("Contains a first group", filter.mightMatch("4408001"));
+        assertTrue("A first group of a pattern", filter.mightMatch("0845"));
+        assertFalse("The window can not cross a '*'", filter.mightMatch("08*45"));
+        assertFalse("No first group", filter.mightMatch("9999"));
+        GramBloomFilter partial = GramBloomFilter.build(Arrays.asList("12*345", "99999"));
+        assertNotNull("A short first group is left out", partial);
+        assertEquals("The shortest covered group", 5, partial.getGram());
+        assertFalse("Not covered", partial.covers("12*345"));
+        assertTrue("Covered", partial.covers("99999"));
+        assertNull("Only short first groups", GramBloomFilter.build(Arrays.asList("12*345", "99")));
+        assertNull("No patterns", GramBloomFilter.build(new ArrayList<String>()));
+    }
+
+    @Test
+    public void TestNoFalseNegatives() {
+        Random rnd = new Random(19);
+        FilterRule fr = new FilterRule("random", "Random patterns");
+        for (int i=0; i<2000; i++) {
+            String key = digits(rnd, 6 + rnd.nextInt(6));
+            if (rnd.nextInt(5) == 0) key = key + "*" + digits(rnd, 1 + rnd.nextInt(3));
+            fr.addPattern(key);
+        }
+        FrozenFilterRule frozen = fr.freeze();
+        assertNotNull("The rule has a precheck", frozen.getPrecheck());
+        int rejected = 0;
+        for (int j=0; j<20000; j++) {
+            String number = digits(rnd, 8 + rnd.nextInt(6));
+            boolean expected = fr.Matches(number);
+            assertEquals(String.format("Number %s", number), expected, frozen.Matches(number));
+            if (!frozen.getPrecheck().mightMatch(number)) {
+                assertFalse(String.format("Rejected number %s can not match", number), expected);
+                rejected++;
+            }
+        }
+        assertTrue(String.format("Most numbers are rejected (%d)", rejected), rejected > 15000);
+    }
+
+    @Test
+    public void TestShortPatterns() {
+        Random rnd = new Random(5);
+        FilterRule fr = new FilterRule("mixed", "Long and short patterns");
+        for (int i=0; i<500; i++)
+            fr.addPattern(digits(rnd, 8));
+        fr.addPattern("12*34");
+        fr.addPattern("77");
+        FrozenFilterRule frozen = fr.freeze();
+        assertNotNull("A short pattern does not disable the precheck", frozen.getPrecheck());
+        assertTrue("Short wildcard pattern", frozen.Matches("5512034"));
+        assertTrue("Short pattern", frozen.Matches("5577"));
+        for (int j=0; j<5000; j++) {
+            String number = digits(rnd, 6 + rnd.nextInt(8));
+            assertEquals(String.format("Number %s", number), fr.Matches(number), frozen.Matches(number));
+        }
+    }
+
+    @Test
+    public void TestWriteAndRead() throws IOException {
+        Random rnd = new Random(11);
+        List<String> keys = new ArrayList<>();
+        for (int i=0; i<1000; i++) keys.add(digits(rnd, 10));
+        GramBloomFilter filter = GramBloomFilter.build(keys);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(42);
+        filter.writeTo(out);
+        out.writeInt(43);
+        out.close();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        assertEquals("Before the filter", 42, buffer.getInt());
+        GramBloomFilter read = GramBloomFilter.read(buffer);
+        assertEquals("After the filter", 43, buffer.getInt());
+        assertEquals("Same filter", filter.toString(), read.toString());
+        for (int j=0; j<5000; j++) {
+            String number = j < 1000 ? keys.get(j) : digits(rnd, 12);
+            assertEquals(String.format("Number %s", number), filter.mightMatch(number), read.mightMatch(number));
+        }
+    }
+
+    @Test
+    public void TestSizing() {
+        List<String> keys = new ArrayList<>();
+        Random rnd = new Random(2);
+        for (int i=0; i<100000; i++) keys.add(digits(rnd, 11));
+        GramBloomFilter filter = GramBloomFilter.build(keys);
+        assertNotNull("Selective patterns", filter);
+        assertEquals("Entries", 100000, filter.getEntries());
+        assertTrue("At least 9.6 bits per entry", filter.getBits() >= 960000);
+        assertTrue("The false positive rate is within target", filter.getFalsePositiveRate() <= 0.01);
+        int hits = 0;
+        for (int j=0; j<100000; j++)
+            if (filter.mightMatch(digits(rnd, 11))) hits++;
+        assertTrue(String.format("Measured false positives %d", hits), hits < 2000);
+    }
+}
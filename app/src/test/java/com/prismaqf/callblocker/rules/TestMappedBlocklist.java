@@ -0,0 +1,125 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestMappedBlocklist {
+
+    private static String digits(Random rnd, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<length; i++) sb.append((char)('0' + rnd.nextInt(10)));
+        return sb.toString();
+    }
+
+    @Test
+    public void TestFileRoundTrip() throws IOException {
+        File file = File.createTempFile("blocklist", ".bin");
+        try {
+            MappedBlocklist.write(file, Arrays.asList("+44 20 7946 0958", "0044 20 7946 0958", "0800"));
+            MappedBlocklist rule = MappedBlocklist.open("spam", file);
+            assertEquals("Three distinct entries", 3, rule.getNumberOfEntries());
+            assertTrue("Exact number", rule.Matches("442079460958"));
+            assertTrue("Contains an entry", rule.Matches("08001234"));
+            assertFalse("Not in the list", rule.Matches("0207946"));
+            assertFalse("Null number", rule.Matches(null));
+        }
+        finally {
+            assertTrue("Temp file deleted", file.delete());
+        }
+    }
+
+    @Test
+    public void TestAgainstFilterRule() {
+        Random rnd = new Random(13);
+        List<String> numbers = new ArrayList<>();
+        FilterRule fr = new FilterRule("reference", "The same list as patterns");
+        for (int i=0; i<2000; i++) {
+            String n = digits(rnd, 3 + rnd.nextInt(8));
+            numbers.add(n);
+            fr.addPattern(n);
+        }
+        MappedBlocklist rule = MappedBlocklist.fromNumbers("random", numbers);
+        for (int j=0; j<5000; j++) {
+            String number = rnd.nextInt(3) == 0 ? numbers.get(rnd.nextInt(numbers.size())) : digits(rnd, 4 + rnd.nextInt(10));
+            if (rnd.nextInt(10) == 0) number = number + "*" + digits(rnd, 3);
+            assertEquals(String.format("Number %s", number), fr.Matches(number), rule.Matches(number));
+        }
+    }
+
+    @Test
+    public void TestLargeFrozenRule() {
+        Random rnd = new Random(17);
+        FilterRule fr = new FilterRule("large", "Plain numbers and wildcards");
+        while (fr.getPatternKeys().size() < FrozenFilterRule.BLOCKLIST_MIN)
+            fr.addPattern(digits(rnd, 3 + rnd.nextInt(8)));
+        fr.addPattern("12*34");
+        fr.addPattern("99999999999999999999");
+        FrozenFilterRule frozen = fr.freeze();
+        assertTrue("A blocklist for the plain numbers", frozen.getBlocklist() != null);
+        assertEquals("Only the plain numbers of at most 16 digits in the blocklist",
+                     fr.getPatternKeys().size() - 2, frozen.getBlocklist().getNumberOfEntries());
+        assertTrue("Wildcard in the automaton", frozen.Matches("1256734"));
+        assertTrue("Long number in the automaton", frozen.Matches("099999999999999999999"));
+        for (int j=0; j<5000; j++) {
+            String number = digits(rnd, 4 + rnd.nextInt(10));
+            assertEquals(String.format("Number %s", number), fr.Matches(number), frozen.Matches(number));
+        }
+        FilterRule small = new FilterRule("small", null);
+        small.addPattern("123");
+        assertTrue("No blocklist for a small rule", small.freeze().getBlocklist() == null);
+    }
+
+    @Test
+    public void TestSpecialEntries() {
+        assertFalse("An empty list matches nothing",
+                    MappedBlocklist.fromNumbers("empty", Collections.<String>emptyList()).Matches("123"));
+        assertTrue("The empty entry matches everything",
+                   MappedBlocklist.fromNumbers("all", Collections.singletonList("")).Matches("123"));
+        try {
+            MappedBlocklist.fromNumbers("wildcard", Collections.singletonList("12*34"));
+            fail("Wildcards are not allowed");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue("The pattern is reported", e.getMessage().contains("12*34"));
+        }
+        MappedBlocklist longest = MappedBlocklist.fromNumbers("long", Collections.singletonList("9999999999999999"));
+        assertTrue("Sixteen digits", longest.Matches("09999999999999999"));
+    }
+
+    @Test
+    public void TestCorruptFile() throws IOException {
+        File file = File.createTempFile("blocklist", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[]{1, 2, 3});
+            out.close();
+            MappedBlocklist.open("corrupt", file);
+            fail("Not a blocklist");
+        }
+        catch (IOException e) {
+            assertEquals("Wrong magic", "Not a binary blocklist", e.getMessage());
+        }
+        finally {
+            assertTrue("Temp file deleted", file.delete());
+        }
+    }
+}
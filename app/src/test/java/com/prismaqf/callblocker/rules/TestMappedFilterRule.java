@@ -0,0 +1,115 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestMappedFilterRule {
+
+    private static final char[] CHARS = {'0','1','2','3','4','5','6','7','8','9','*'};
+
+    private static String randomKey(Random rnd, int maxLen, boolean withStars) {
+        int len = 1 + rnd.nextInt(maxLen);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<len; i++)
+            sb.append(CHARS[rnd.nextInt(withStars ? CHARS.length : 10)]);
+        return FilterRule.filterUnwanted(sb.toString());
+    }
+
+    private static MappedFilterRule mapped(FilterRule fr) {
+        FrozenFilterRule frozen = fr.freeze();
+        Set<String> wildcardKeys = new HashSet<>();
+        for (String key : frozen.getPatternKeys())
+            if (key.indexOf('*') >= 0) wildcardKeys.add(key);
+        return new MappedFilterRule(frozen.getName(), frozen.getDescription(), wildcardKeys,
+                                    frozen.getPatternKeys().size(), IntBuffer.wrap(frozen.encodeAutomaton()),
+                                    frozen.getBlocklist(), frozen.getPrecheck(), frozen.getUncoveredKeys());
+    }
+
+    @Test
+    public void TestSimplePatterns() {
+        FilterRule fr = new FilterRule("simple", "A few patterns");
+        fr.addPattern("123");
+        fr.addPattern("45*67");
+        MappedFilterRule rule = mapped(fr);
+        assertEquals("Two patterns", 2, rule.getNumberOfPatterns());
+        assertTrue("Match inside the number", rule.Matches("0012399"));
+        assertTrue("Wildcard", rule.Matches("4599967"));
+        assertFalse("Wildcard needs a digit", rule.Matches("4567"));
+        assertFalse("No match", rule.Matches("999"));
+        assertFalse("Null number", rule.Matches(null));
+    }
+
+    @Test
+    public void TestEmptyRules() {
+        assertFalse("No patterns", mapped(new FilterRule("empty", null)).Matches("123"));
+        FilterRule any = new FilterRule("any", null);
+        any.addPattern("*");
+        assertTrue("The wildcard matches any number", mapped(any).Matches("123"));
+    }
+
+    @Test
+    public void TestAgainstFrozenRule() {
+        Random rnd = new Random(23);
+        FilterRule fr = new FilterRule("random", "A random rule");
+        for (int i=0; i<500; i++) {
+            String key = randomKey(rnd, 8, true);
+            if (!key.isEmpty()) fr.addPattern(key);
+        }
+        FrozenFilterRule frozen = fr.freeze();
+        MappedFilterRule rule = mapped(fr);
+        for (int j=0; j<5000; j++) {
+            String number = randomKey(rnd, 15, j % 10 == 0);
+            assertEquals(String.format("Number %s", number), frozen.Matches(number), rule.Matches(number));
+        }
+    }
+
+    @Test
+    public void TestWithPrecheck() {
+        Random rnd = new Random(37);
+        FilterRule fr = new FilterRule("selective", "Long numbers and a few short patterns");
+        while (fr.getPatternKeys().size() < FrozenFilterRule.BLOCKLIST_MIN)
+            fr.addPattern("0800" + randomKey(rnd, 1, false) + Integer.toString(100000 + rnd.nextInt(900000)));
+        fr.addPattern("12*34");
+        fr.addPattern("77");
+        FrozenFilterRule frozen = fr.freeze();
+        assertTrue("The rule has a precheck", frozen.getPrecheck() != null);
+        assertEquals("The short patterns are left out", 2, frozen.getUncoveredKeys().size());
+        MappedFilterRule rule = mapped(fr);
+        assertTrue("Short wildcard pattern", rule.Matches("5512034"));
+        assertTrue("Short pattern", rule.Matches("5577"));
+        for (int j=0; j<5000; j++) {
+            String number = j % 2 == 0 ? "44" + randomKey(rnd, 12, false) : "0800" + randomKey(rnd, 7, false);
+            assertEquals(String.format("Number %s", number), fr.Matches(number), rule.Matches(number));
+        }
+    }
+
+    @Test
+    public void TestWithBlocklist() {
+        Random rnd = new Random(29);
+        FilterRule fr = new FilterRule("large", "Plain numbers and a few wildcards");
+        while (fr.getPatternKeys().size() < FrozenFilterRule.BLOCKLIST_MIN)
+            fr.addPattern(randomKey(rnd, 9, false));
+        fr.addPattern("77*88");
+        FrozenFilterRule frozen = fr.freeze();
+        assertTrue("The plain numbers are in a blocklist", frozen.getBlocklist() != null);
+        MappedFilterRule rule = mapped(fr);
+        for (int j=0; j<5000; j++) {
+            String number = randomKey(rnd, 15, j % 10 == 0);
+            assertEquals(String.format("Number %s", number), fr.Matches(number), rule.Matches(number));
+        }
+    }
+}
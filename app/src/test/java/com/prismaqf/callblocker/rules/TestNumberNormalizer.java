@@ -0,0 +1,73 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checking the single pass normalizer against the regex based clean up it replaces
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestNumberNormalizer {
+
+    //the previous implementation of FilterRule.filterUnwanted
+    private static final Pattern NOT_ALLOWED = Pattern.compile("[^\\d*]");
+    private static final Pattern LEFT_TRIM = Pattern.compile("^\\*+");
+    private static final Pattern RIGHT_TRIM = Pattern.compile("\\*+$");
+
+    private static String regexUnwanted(String key) {
+        if (NOT_ALLOWED.matcher(key).find())
+            key = NOT_ALLOWED.matcher(key).replaceAll("");
+        if (LEFT_TRIM.matcher(key).find())
+            key = LEFT_TRIM.matcher(key).replaceFirst("");
+        if (RIGHT_TRIM.matcher(key).find())
+            key = RIGHT_TRIM.matcher(key).replaceFirst("");
+        return key;
+    }
+
+    private static final char[] CHARS = {'0','1','2','3','4','5','6','7','8','9','*','+',' ','-','(',')','a'};
+
+    @Test
+    public void TestCanonicalForm() {
+        NumberNormalizer n = new NumberNormalizer();
+        assertEquals("Formatting removed", "00441234567", n.normalize("+(0044) 123-45-67").toString());
+        assertFalse("No wildcard", n.hasWildcard());
+        assertEquals("Stars trimmed", "12**34", n.normalize("**12**34*").toString());
+        assertTrue("Wildcard", n.hasWildcard());
+        assertEquals("Only stars", "", n.normalize("***").toString());
+        assertEquals("Empty length", 0, n.length());
+    }
+
+    @Test
+    public void TestBufferGrows() {
+        NumberNormalizer n = new NumberNormalizer();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<100; i++) sb.append(i%10);
+        assertEquals("Long number", sb.toString(), n.normalize(sb).toString());
+        assertEquals("Short number after a long one", "12", n.normalize("1-2").toString());
+    }
+
+    @Test
+    public void TestAgainstRegex() {
+        Random rnd = new Random(5);
+        NumberNormalizer n = new NumberNormalizer();
+        for (int i=0; i<10000; i++) {
+            int len = rnd.nextInt(20);
+            StringBuilder sb = new StringBuilder();
+            for (int j=0; j<len; j++) sb.append(CHARS[rnd.nextInt(CHARS.length)]);
+            String raw = sb.toString();
+            String expected = regexUnwanted(raw);
+            assertEquals(String.format("Raw %s", raw), expected, n.normalize(raw).toString());
+            assertEquals(String.format("Wildcard in %s", raw), expected.contains("*"), n.hasWildcard());
+            assertEquals(String.format("Filter rule on %s", raw), expected, FilterRule.filterUnwanted(raw));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.prismaqf.callblocker.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checking the compiled weekly bitmap against the calendar arithmetic
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestWeeklySchedule {
+
+    private static final TimeZone LONDON = TimeZone.getTimeZone("Europe/London");
+
+    //the previous implementation of CalendarRule.IsActive
+    private static boolean calendarActive(CalendarRule rule, long epochMillis, TimeZone tz) {
+        Calendar cal = Calendar.getInstance(tz);
+        cal.setTimeInMillis(epochMillis);
+        CalendarRule.DayOfWeek dow = CalendarRule.DayOfWeek.getDayFromCalDay(cal.get(Calendar.DAY_OF_WEEK));
+        int numMins = cal.get(Calendar.HOUR_OF_DAY)*60 + cal.get(Calendar.MINUTE);
+        return rule.getDayMask().contains(dow) &&
+               numMins >= rule.getStartHour()*60 + rule.getStartMin() &&
+               numMins <= rule.getEndHour()*60 + rule.getEndMin();
+    }
+
+    private static CalendarRule randomRule(Random rnd) {
+        return new CalendarRule("random", CalendarRule.makeMask(rnd.nextInt(128)),
+                                rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(24), rnd.nextInt(60));
+    }
+
+    @Test
+    public void TestMinuteOfWeek() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals("1 Jan 1970 was a Thursday", 3*WeeklySchedule.MINUTES_PER_DAY, WeeklySchedule.minuteOfWeek(0, utc));
+        assertEquals("Before the epoch", 3*WeeklySchedule.MINUTES_PER_DAY-1, WeeklySchedule.minuteOfWeek(-1, utc));
+        Calendar cal = Calendar.getInstance(LONDON);
+        cal.set(2016, Calendar.JULY, 4, 10, 30); //a Monday in summer time
+        assertEquals("Local time", 10*60+30, WeeklySchedule.minuteOfWeek(cal.getTimeInMillis(), LONDON));
+    }
+
+    @Test
+    public void TestAgainstCalendar() {
+        Random rnd = new Random(11);
+        for (int round=0; round<100; round++) {
+            CalendarRule rule = randomRule(rnd);
+            WeeklySchedule schedule = rule.getSchedule();
+            for (int j=0; j<200; j++) {
+                long t = 1400000000000L + (long)(rnd.nextDouble()*400*24*3600*1000L);
+                assertEquals(String.format("Rule %s at %d", rule, t),
+                             calendarActive(rule, t, LONDON),
+                             schedule.isActiveAt(WeeklySchedule.minuteOfWeek(t, LONDON)));
+            }
+        }
+    }
+
+    @Test
+    public void TestNextTransition() {
+        Random rnd = new Random(23);
+        for (int round=0; round<100; round++) {
+            WeeklySchedule schedule = randomRule(rnd).getSchedule();
+            long t = 1400000000000L + (long)(rnd.nextDouble()*400*24*3600*1000L);
+            long next = schedule.nextTransition(t, LONDON);
+            if (schedule.isConstant()) {
+                assertEquals("A constant schedule never changes", Long.MAX_VALUE, next);
+                continue;
+            }
+            assertTrue("The transition is in the future", next > t);
+            boolean state = schedule.isActiveAt(WeeklySchedule.minuteOfWeek(t, LONDON));
+            for (long s=t; s<next; s+=60000L)
+                assertEquals("No change before the transition", state, schedule.isActiveAt(WeeklySchedule.minuteOfWeek(s, LONDON)));
+            if (LONDON.getOffset(next) == LONDON.getOffset(t))
+                assertFalse("The state changes at the transition", state == schedule.isActiveAt(WeeklySchedule.minuteOfWeek(next, LONDON)));
+        }
+    }
+
+    @Test
+    public void TestDaylightSavingIsATransition() {
+        WeeklySchedule schedule = WeeklySchedule.ALWAYS;
+        Calendar cal = Calendar.getInstance(LONDON);
+        cal.set(2016, Calendar.MARCH, 25, 12, 0, 0);
+        assertEquals("Always never changes", Long.MAX_VALUE, schedule.nextTransition(cal.getTimeInMillis(), LONDON));
+        //Sundays only: the clocks go forward on Sunday 27 March 2016 at 01:00 UTC
+        WeeklySchedule sunday = new WeeklySchedule(64, 0, WeeklySchedule.MINUTES_PER_DAY-1);
+        cal.set(2016, Calendar.MARCH, 27, 0, 30, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long next = sunday.nextTransition(cal.getTimeInMillis(), LONDON);
+        assertEquals("The offset change is reported", cal.getTimeInMillis() + 30*60000L, next);
+    }
+
+    @Test
+    public void TestCalendarRuleRecompiles() {
+        CalendarRule rule = new CalendarRule("weekdays", EnumSet.of(CalendarRule.DayOfWeek.MONDAY), 9, 0, 17, 0);
+        WeeklySchedule before = rule.getSchedule();
+        assertTrue("The schedule is compiled once", before == rule.getSchedule());
+        assertTrue("Monday 9:00", before.isActiveAt(9*60));
+        rule.getDayMask().add(CalendarRule.DayOfWeek.TUESDAY);
+        assertTrue("The days are not changed in place", rule.getSchedule() == before);
+        rule.addDays(EnumSet.of(CalendarRule.DayOfWeek.TUESDAY));
+        assertTrue("Tuesday 9:00 after adding the day",
+                   rule.getSchedule().isActiveAt(WeeklySchedule.MINUTES_PER_DAY + 9*60));
+        rule.removeDay(CalendarRule.DayOfWeek.MONDAY);
+        assertFalse("Monday removed", rule.getSchedule().isActiveAt(9*60));
+        assertTrue("Same as a rule built with the days", rule.getSchedule().equals(
+                   CalendarRule.makeRule("tuesday", 2, "09:00", "17:00").getSchedule()));
+        rule.setEndHour(8);
+        assertTrue("Empty when the end is before the start", rule.getSchedule().equals(WeeklySchedule.NEVER));
+        assertTrue("Always", new CalendarRule().getSchedule().equals(WeeklySchedule.ALWAYS));
+    }
+}
@@ -0,0 +1,91 @@
+package com.prismaqf.callblocker.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * @author ConteDiMonteCristo
+ */
+@RunWith(JUnit4.class)
+public class TestContactCache {
+
+    /**
+     * An address book counting the queries
+     */
+    private static class Contacts implements ContactCache.Lookup {
+        final Map<String, String> names = new HashMap<>();
+        int queries = 0;
+
+        @Override
+        public String find(String number) {
+            queries++;
+            return names.get(number.replaceAll("[^0-9]", ""));
+        }
+    }
+
+    @Test
+    public void HitsAndMisses() {
+        Contacts contacts = new Contacts();
+        contacts.names.put("0123456789", "Alice");
+        ContactCache cache = new ContactCache(contacts, 10);
+        assertEquals("First lookup", "Alice", cache.describe("0123456789"));
+        assertEquals("Same number in another format", "Alice", cache.describe("012 345-6789"));
+        assertEquals("Only one query", 1, contacts.queries);
+        assertEquals("One hit", 1, cache.getHits());
+        assertEquals("One miss", 1, cache.getMisses());
+    }
+
+    @Test
+    public void NegativeCaching() {
+        Contacts contacts = new Contacts();
+        ContactCache cache = new ContactCache(contacts, 10);
+        assertEquals("Unknown number", ContactCache.NOT_FOUND, cache.describe("0999"));
+        assertEquals("Unknown number again", ContactCache.NOT_FOUND, cache.describe("0999"));
+        assertEquals("The provider is not queried again", 1, contacts.queries);
+    }
+
+    @Test
+    public void LeastRecentlyUsedIsEvicted() {
+        Contacts contacts = new Contacts();
+        ContactCache cache = new ContactCache(contacts, 2);
+        cache.describe("1");
+        cache.describe("2");
+        cache.describe("1");
+        cache.describe("3"); //evicts 2
+        assertEquals("Capacity", 2, cache.size());
+        cache.describe("1");
+        assertEquals("1 is still cached", 3, contacts.queries);
+        cache.describe("2");
+        assertEquals("2 was evicted", 4, contacts.queries);
+    }
+
+    @Test
+    public void InvalidateDropsTheEntries() {
+        Contacts contacts = new Contacts();
+        ContactCache cache = new ContactCache(contacts, 10);
+        assertEquals("Not a contact yet", ContactCache.NOT_FOUND, cache.describe("0123"));
+        contacts.names.put("0123", "Bob");
+        cache.invalidate();
+        assertEquals("New contact", "Bob", cache.describe("0123"));
+    }
+
+    @Test
+    public void PrewarmIsNotCounted() {
+        Contacts contacts = new Contacts();
+        contacts.names.put("0123", "Bob");
+        ContactCache cache = new ContactCache(contacts, 10);
+        cache.prewarm(Arrays.asList("0123", "0456"));
+        assertEquals("Prewarmed", 2, cache.size());
+        assertEquals("No misses", 0, cache.getMisses());
+        assertEquals("Cached", "Bob", cache.describe("0123"));
+        assertEquals("One hit", 1, cache.getHits());
+        assertEquals("Two queries", 2, contacts.queries);
+    }
+}
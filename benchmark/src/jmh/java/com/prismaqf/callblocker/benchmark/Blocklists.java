@@ -0,0 +1,82 @@
+package com.prismaqf.callblocker.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic synthetic blocklists and incoming numbers
+ * @author ConteDiMonteCristo
+ */
+public final class Blocklists {
+
+    /**
+     * The kind of patterns in a blocklist
+     */
+    public enum Mix {
+        EXACT,     //full numbers
+        PREFIX,    //short groups of digits (area codes, premium ranges)
+        WILDCARD,  //groups separated by '*'
+        MIXED      //80% exact, 15% prefix, 5% wildcard
+    }
+
+    private Blocklists() {}
+
+    private static String digits(Random rnd, int length) {
+        char[] c = new char[length];
+        for (int i=0; i<length; i++) c[i] = (char)('0' + rnd.nextInt(10));
+        return new String(c);
+    }
+
+    /**
+     * A full number, as received by the phone
+     */
+    public static String number(Random rnd) {
+        return "0" + digits(rnd, 10 + rnd.nextInt(3));
+    }
+
+    private static String pattern(Random rnd, Mix mix) {
+        switch (mix) {
+            case EXACT:
+                return number(rnd);
+            case PREFIX:
+                return "0" + digits(rnd, 5 + rnd.nextInt(3));
+            case WILDCARD:
+                return "0" + digits(rnd, 3 + rnd.nextInt(3)) + "*" + digits(rnd, 3 + rnd.nextInt(3));
+            default:
+                int p = rnd.nextInt(100);
+                return pattern(rnd, p < 80 ? Mix.EXACT : p < 95 ? Mix.PREFIX : Mix.WILDCARD);
+        }
+    }
+
+    /**
+     * A blocklist of distinct patterns
+     * @param size the number of patterns
+     * @param mix the kind of patterns
+     * @param seed the seed of the generator
+     */
+    public static List<String> patterns(int size, Mix mix, long seed) {
+        Random rnd = new Random(seed);
+        Set<String> patterns = new LinkedHashSet<>();
+        while (patterns.size() < size)
+            patterns.add(pattern(rnd, mix));
+        return new ArrayList<>(patterns);
+    }
+
+    /**
+     * Incoming numbers, half of them blocked by an exact pattern of the list (when there is one)
+     * and half random, which for large lists are mostly misses
+     */
+    public static String[] numbers(List<String> patterns, int count, long seed) {
+        Random rnd = new Random(seed);
+        List<String> exact = new ArrayList<>();
+        for (String p : patterns)
+            if (p.length() > 10 && p.indexOf('*') < 0) exact.add(p);
+        String[] numbers = new String[count];
+        for (int i=0; i<count; i++)
+            numbers[i] = i % 2 == 0 && !exact.isEmpty() ? exact.get(rnd.nextInt(exact.size())) : number(rnd);
+        return numbers;
+    }
+}
@@ -0,0 +1,42 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.rules.CalendarRule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.EnumSet;
+
+/**
+ * Checking a calendar rule (working days, office hours) at the current time
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+public class CalendarRuleBenchmark {
+
+    private CalendarRule rule;
+
+    @Setup
+    public void setup() {
+        rule = new CalendarRule("office", EnumSet.range(CalendarRule.DayOfWeek.MONDAY, CalendarRule.DayOfWeek.FRIDAY),
+                                9, 0, 17, 30);
+    }
+
+    @Benchmark
+    public boolean isActiveDate() {
+        return rule.IsActive(new Date());
+    }
+
+    @Benchmark
+    public boolean isActiveMillis() {
+        return rule.IsActive(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public long nextTransition() {
+        return rule.nextTransition(System.currentTimeMillis());
+    }
+}
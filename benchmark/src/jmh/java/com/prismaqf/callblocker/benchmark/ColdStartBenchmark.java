@@ -0,0 +1,106 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.actions.IAction;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.filters.EngineSnapshot;
+import com.prismaqf.callblocker.filters.Filter;
+import com.prismaqf.callblocker.filters.FilterCompiler;
+import com.prismaqf.callblocker.filters.FilterHandle;
+import com.prismaqf.callblocker.filters.FilterIndex;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FilterRule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The filters available to the first call after the service is restarted: compiled
+ * from the patterns (the database read is not included) or mapped from the snapshot
+ * written by the last run, and the first match on each
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColdStartBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"MIXED"})
+    public Blocklists.Mix mix;
+
+    private List<String> patterns;
+    private File file;
+    private String number;
+
+    //the filters use no action, so the snapshot looks up none
+    private static final FilterCompiler.Source NO_ACTIONS = new FilterCompiler.Source() {
+        @Override
+        public List<FilterHandle> loadHandles() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, CalendarRule> loadCalendarRules(Collection<String> names) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, FilterRule> loadFilterRules(Collection<String> names) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IAction findAction(String name) {
+            return null;
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        patterns = Blocklists.patterns(size, mix, 42);
+        file = File.createTempFile("filters", ".snapshot");
+        EngineSnapshot.write(file, compile());
+        number = Blocklists.numbers(patterns, 1, 7)[0];
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    private FilterIndex compile() {
+        FilterRule rule = new FilterRule("benchmark", "synthetic blocklist");
+        for (String p : patterns) rule.addPattern(p);
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.makeFilter("always", new Always(), rule.freeze(), new Nothing()));
+        return new FilterIndex(filters);
+    }
+
+    @Benchmark
+    public boolean compileAndMatch() {
+        return compile().match(number, System.currentTimeMillis()).get(0);
+    }
+
+    @Benchmark
+    public boolean mapSnapshotAndMatch() throws IOException {
+        return EngineSnapshot.read(file, NO_ACTIONS).match(number, System.currentTimeMillis()).get(0);
+    }
+}
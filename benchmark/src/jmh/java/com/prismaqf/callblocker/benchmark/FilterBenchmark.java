@@ -0,0 +1,76 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.actions.LogInfo;
+import com.prismaqf.callblocker.actions.Nothing;
+import com.prismaqf.callblocker.filters.Filter;
+import com.prismaqf.callblocker.filters.FilterIndex;
+import com.prismaqf.callblocker.rules.Always;
+import com.prismaqf.callblocker.rules.CalendarRule;
+import com.prismaqf.callblocker.rules.FilterRule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * A whole incoming call: a single filter acting on its own, and the index of the
+ * service with a few filters sharing the blocklist under different calendars
+ * (the action does nothing, to measure the engine only)
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    private static final int NUMBERS = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"MIXED"})
+    public Blocklists.Mix mix;
+
+    private Filter filter;
+    private FilterIndex index;
+    private LogInfo info;
+    private String[] numbers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> patterns = Blocklists.patterns(size, mix, 42);
+        FilterRule rule = new FilterRule("benchmark", "synthetic blocklist");
+        for (String p : patterns) rule.addPattern(p);
+        filter = Filter.makeFilter("always", new Always(), rule.freeze(), new Nothing());
+        List<Filter> filters = new ArrayList<>();
+        filters.add(filter);
+        filters.add(Filter.makeFilter("weekdays", new CalendarRule("weekdays",
+                EnumSet.range(CalendarRule.DayOfWeek.MONDAY, CalendarRule.DayOfWeek.FRIDAY)), rule.freeze(), new Nothing()));
+        filters.add(Filter.makeFilter("nights", new CalendarRule("nights",
+                EnumSet.allOf(CalendarRule.DayOfWeek.class), 0, 0, 7, 0), rule.freeze(), new Nothing()));
+        index = new FilterIndex(filters);
+        info = new LogInfo();
+        numbers = Blocklists.numbers(patterns, NUMBERS, 7);
+    }
+
+    private String nextNumber() {
+        return numbers[next++ & (NUMBERS-1)];
+    }
+
+    @Benchmark
+    public LogInfo act() {
+        filter.act(null, nextNumber(), info);
+        return info;
+    }
+
+    @Benchmark
+    public BitSet indexMatch() {
+        return index.match(nextNumber(), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,57 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.rules.FilterRule;
+import com.prismaqf.callblocker.rules.IFilterRule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Matching an incoming number against blocklists of growing size, on the editable
+ * rule and on the frozen snapshot used by the service
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+public class FilterRuleBenchmark {
+
+    private static final int NUMBERS = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"MIXED", "EXACT", "PREFIX", "WILDCARD"})
+    public Blocklists.Mix mix;
+
+    private FilterRule rule;
+    private IFilterRule frozen;
+    private String[] numbers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> patterns = Blocklists.patterns(size, mix, 42);
+        rule = new FilterRule("benchmark", "synthetic blocklist");
+        for (String p : patterns) rule.addPattern(p);
+        frozen = rule.freeze();
+        numbers = Blocklists.numbers(patterns, NUMBERS, 7);
+    }
+
+    private String nextNumber() {
+        return numbers[next++ & (NUMBERS-1)];
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return rule.Matches(nextNumber());
+    }
+
+    @Benchmark
+    public boolean frozenMatches() {
+        return frozen.Matches(nextNumber());
+    }
+}
@@ -0,0 +1,54 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.rules.MappedBlocklist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Matching against a memory mapped list of plain numbers
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+public class MappedBlocklistBenchmark {
+
+    private static final int NUMBERS = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"EXACT", "PREFIX"})
+    public Blocklists.Mix mix;
+
+    private File file;
+    private MappedBlocklist rule;
+    private String[] numbers;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> patterns = Blocklists.patterns(size, mix, 42);
+        file = File.createTempFile("blocklist", ".bin");
+        MappedBlocklist.write(file, patterns);
+        rule = MappedBlocklist.open("benchmark", file);
+        numbers = Blocklists.numbers(patterns, NUMBERS, 7);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return rule.Matches(numbers[next++ & (NUMBERS-1)]);
+    }
+}
@@ -0,0 +1,48 @@
+package com.prismaqf.callblocker.benchmark;
+
+import com.prismaqf.callblocker.rules.NumberNormalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cleaning up a formatted number with the single pass normalizer and with the regex
+ * based clean up it replaced (compare the B/op of the gc profiler)
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Thread)
+public class NumberNormalizerBenchmark {
+
+    //the previous implementation of FilterRule.filterUnwanted
+    private static final Pattern NOT_ALLOWED = Pattern.compile("[^\\d*]");
+    private static final Pattern LEFT_TRIM = Pattern.compile("^\\*+");
+    private static final Pattern RIGHT_TRIM = Pattern.compile("\\*+$");
+
+    private static final String[] NUMBERS = {"+44 (0)20 7946 0958", "00390612345678", "+1-202-555-0143", "07700 900461"};
+
+    private int next = 0;
+
+    private String number() {
+        return NUMBERS[next++ & 3];
+    }
+
+    @Benchmark
+    public int regex() {
+        String key = number();
+        if (NOT_ALLOWED.matcher(key).find())
+            key = NOT_ALLOWED.matcher(key).replaceAll("");
+        if (LEFT_TRIM.matcher(key).find())
+            key = LEFT_TRIM.matcher(key).replaceFirst("");
+        if (RIGHT_TRIM.matcher(key).find())
+            key = RIGHT_TRIM.matcher(key).replaceFirst("");
+        return key.length();
+    }
+
+    @Benchmark
+    public int normalizer() {
+        return NumberNormalizer.get().normalize(number()).length();
+    }
+}
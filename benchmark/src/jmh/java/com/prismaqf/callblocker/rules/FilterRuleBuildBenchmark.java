@@ -0,0 +1,52 @@
+package com.prismaqf.callblocker.rules;
+
+import com.prismaqf.callblocker.benchmark.Blocklists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The cost of loading a blocklist: adding every pattern to a new rule (a single shot
+ * per iteration, as it happens when the service starts) and compiling one regex
+ * (in the rules package to reach makeRegex)
+ * @author ConteDiMonteCristo
+ */
+@State(Scope.Benchmark)
+public class FilterRuleBuildBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"MIXED"})
+    public Blocklists.Mix mix;
+
+    private List<String> patterns;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        patterns = Blocklists.patterns(size, mix, 42);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public FilterRule addPatterns() {
+        FilterRule rule = new FilterRule("benchmark", "synthetic blocklist");
+        for (String p : patterns) rule.addPattern(p);
+        return rule;
+    }
+
+    @Benchmark
+    public Pattern makeRegex() {
+        return FilterRule.makeRegex(patterns.get(next++ % patterns.size()));
+    }
+}
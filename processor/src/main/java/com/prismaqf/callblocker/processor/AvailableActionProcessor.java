@@ -0,0 +1,122 @@
+package com.prismaqf.callblocker.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the registry of the actions annotated with AvailableAction
+ * (com.prismaqf.callblocker.actions.AvailableActions), so that the app finds its
+ * actions without scanning the classes of the apk. An annotated class which can't
+ * be constructed by the registry is a compilation error
+ * @author ConteDiMonteCristo
+ */
+@SupportedAnnotationTypes(AvailableActionProcessor.ANNOTATION)
+public class AvailableActionProcessor extends AbstractProcessor {
+
+    static final String PACKAGE = "com.prismaqf.callblocker.actions";
+    static final String ANNOTATION = PACKAGE + ".AvailableAction";
+    static final String ACTION = PACKAGE + ".IAction";
+    static final String REGISTRY = "AvailableActions";
+
+    //the actions by canonical name, sorted for a stable output
+    private final Map<String, TypeElement> actions = new TreeMap<>();
+    private boolean written = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        if (written) return false;
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        TypeElement action = processingEnv.getElementUtils().getTypeElement(ACTION);
+        if (annotation == null || action == null) return false;
+        for (Element e : round.getElementsAnnotatedWith(annotation)) {
+            if (isValid(e, action))
+                actions.put(((TypeElement) e).getQualifiedName().toString(), (TypeElement) e);
+        }
+        //the actions are all in the sources of the first round
+        write();
+        written = true;
+        return false;
+    }
+
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+
+    private boolean isValid(Element e, TypeElement action) {
+        if (e.getKind() != ElementKind.CLASS || e.getEnclosingElement().getKind() != ElementKind.PACKAGE) {
+            error(e, "An available action must be a top level class");
+            return false;
+        }
+        Set<Modifier> modifiers = e.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(e, "An available action must be public and not abstract");
+            return false;
+        }
+        if (!processingEnv.getTypeUtils().isAssignable(e.asType(), action.asType())) {
+            error(e, "An available action must implement " + ACTION);
+            return false;
+        }
+        for (ExecutableElement c : ElementFilter.constructorsIn(e.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC))
+                return true;
+        }
+        error(e, "An available action must have a public constructor without arguments");
+        return false;
+    }
+
+    private void write() {
+        List<Element> origins = new ArrayList<Element>(actions.values());
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(PACKAGE + "." + REGISTRY,
+                                                                            origins.toArray(new Element[origins.size()]));
+            Writer out = file.openWriter();
+            try {
+                out.write("package " + PACKAGE + ";\n\n");
+                out.write("import java.util.HashMap;\n");
+                out.write("import java.util.Map;\n\n");
+                out.write("/**\n");
+                out.write(" * The actions annotated with {@link AvailableAction}, generated by\n");
+                out.write(" * " + AvailableActionProcessor.class.getCanonicalName() + ": do not edit\n");
+                out.write(" */\n");
+                out.write("final class " + REGISTRY + " {\n\n");
+                out.write("    private " + REGISTRY + "() {}\n\n");
+                out.write("    static Map<String, IAction> create() {\n");
+                out.write("        Map<String, IAction> actions = new HashMap<>();\n");
+                for (String name : actions.keySet())
+                    out.write("        actions.put(\"" + name + "\", new " + name + "());\n");
+                out.write("        return actions;\n");
+                out.write("    }\n");
+                out.write("}\n");
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write the action registry: " + e.getMessage());
+        }
+    }
+}